@@ -3,20 +3,26 @@ package client.net.sf.saxon.ce;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper.DocType;
 import client.net.sf.saxon.ce.dom.XMLDOM;
+import client.net.sf.saxon.ce.event.Builder;
 import client.net.sf.saxon.ce.event.PipelineConfiguration;
 import client.net.sf.saxon.ce.expr.EarlyEvaluationContext;
 import client.net.sf.saxon.ce.expr.Optimizer;
 import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.expr.number.Numberer_en;
+import client.net.sf.saxon.ce.expr.number.PictureCache;
 import client.net.sf.saxon.ce.expr.sort.CaseInsensitiveCollator;
 import client.net.sf.saxon.ce.expr.sort.CodepointCollator;
+import client.net.sf.saxon.ce.js.ScriptCache;
 import client.net.sf.saxon.ce.lib.*;
+import client.net.sf.saxon.ce.om.CopyOptions;
 import client.net.sf.saxon.ce.om.DocumentInfo;
 import client.net.sf.saxon.ce.om.DocumentPool;
 import client.net.sf.saxon.ce.om.NamePool;
 import client.net.sf.saxon.ce.om.StructuredQName;
+import client.net.sf.saxon.ce.regex.RegexCache;
 import client.net.sf.saxon.ce.trans.CompilerInfo;
 import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.tiny.TinyBuilder;
 import client.net.sf.saxon.ce.tree.util.DocumentNumberAllocator;
 import client.net.sf.saxon.ce.tree.util.URI;
 import client.net.sf.saxon.ce.type.BuiltInType;
@@ -27,6 +33,8 @@ import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Node;
 import com.google.gwt.user.client.Window;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.logging.Logger;
 //import com.google.gwt.xml.client.Document;
 //import com.google.gwt.xml.client.XMLParser;
@@ -96,6 +104,17 @@ public class Configuration {
 
     private CompilerInfo defaultXsltCompilerInfo = new CompilerInfo();
     private DocumentPool sourceDocumentPool = new DocumentPool();
+    private RegexCache regexCache = new RegexCache(100);
+    private PictureCache pictureCache = new PictureCache(100);
+    private ScriptCache scriptCache = new ScriptCache(100);
+    private StylesheetCache stylesheetCache = new StylesheetCache(this, 10);
+    private HashMap<String, DocumentInfo> prefetchedModules = new HashMap<String, DocumentInfo>();
+    private boolean cacheHostPageWrappers = true;
+    private HTMLDocumentWrapper hostPage = null;
+    private ArrayList<HTMLDocumentWrapper> documentWrappers = new ArrayList<HTMLDocumentWrapper>();
+        // wrappers for DOM documents other than the host page, most recently used first
+    private static final int MAX_DOCUMENT_WRAPPERS = 10;
+    private int sourceTreeModel = Builder.UNSPECIFIED_TREE_MODEL;
     private Logger logger = Logger.getLogger("Configuration");
 
 
@@ -157,11 +176,99 @@ public class Configuration {
         return "CE";
     }
     
+    /**
+     * Get the document node of the host page. The same document wrapper is returned on each call,
+     * so that the host page retains its identity and document number across transformations.
+     * Information cached for the page is discarded by {@link #refreshDocuments()}, not by this method,
+     * so that it can be called repeatedly within a transformation without losing the cache.
+     * @return the wrapper for the HTML page in which Saxon-CE is running
+     */
+
     public DocumentInfo getHostPage(){
+        return getHostPageWrapper();
+    }
+
+    /**
+     * Discard the information cached for the host page and for the other DOM documents whose wrappers
+     * are retained (see {@link #getDocumentWrapper}), that is, their node wrappers, ID indexes and
+     * key indexes, since the documents may have been changed by other scripts since they were last used.
+     * This is called once at the start of each transformation, including each transformation
+     * that handles an event.
+     */
+
+    public void refreshDocuments() {
+        if (hostPage != null) {
+            hostPage.refresh();
+        }
+        for (HTMLDocumentWrapper w : documentWrappers) {
+            w.refresh();
+        }
+    }
+
+    private HTMLDocumentWrapper getHostPageWrapper() {
     	// attempt to initialise this only once - in the Configuration constructor led
     	// to NamePool exception
         Document page = Document.get();
-        return new HTMLDocumentWrapper(page, page.getURL(), this, DocType.UNKNOWN);
+        if (hostPage == null || hostPage.getUnderlyingNode() != page) {
+            hostPage = new HTMLDocumentWrapper(page, page.getURL(), this, DocType.UNKNOWN);
+        }
+        hostPage.setWrapperCaching(cacheHostPageWrappers);
+        return hostPage;
+    }
+
+    /**
+     * Get the wrapper for a DOM document, such as the owner document of a node returned by a
+     * JavaScript function. The wrapper is registered with the Configuration, so that nodes obtained
+     * from the same document on different occasions belong to the same document wrapper, with the same
+     * document number, and can share information computed for the document, such as key indexes.
+     * <p/>
+     * A limited number of documents other than the host page are retained: when the limit is reached,
+     * the least recently used document is discarded. Like the host page, the retained documents are
+     * refreshed at the start of each transformation, so information computed for a document is shared
+     * only within a transformation.
+     * @param doc the DOM document
+     * @return the wrapper for the document
+     */
+
+    public HTMLDocumentWrapper getDocumentWrapper(Document doc) {
+        if (doc == Document.get()) {
+            return getHostPageWrapper();
+        }
+        for (int i = 0; i < documentWrappers.size(); i++) {
+            HTMLDocumentWrapper w = documentWrappers.get(i);
+            if (w.getUnderlyingNode() == doc) {
+                if (i > 0) {
+                    documentWrappers.remove(i);
+                    documentWrappers.add(0, w);
+                }
+                return w;
+            }
+        }
+        HTMLDocumentWrapper w = new HTMLDocumentWrapper(doc, doc.getURL(), this, DocType.NONHTML);
+        documentWrappers.add(0, w);
+        if (documentWrappers.size() > MAX_DOCUMENT_WRAPPERS) {
+            documentWrappers.remove(MAX_DOCUMENT_WRAPPERS);
+        }
+        return w;
+    }
+
+    /**
+     * Say whether node wrappers for the host page should be cached, so that navigating repeatedly
+     * to the same node reuses the same wrapper
+     * @param cache true if wrappers are to be cached (the default)
+     */
+
+    public void setCacheHostPageWrappers(boolean cache) {
+        cacheHostPageWrappers = cache;
+    }
+
+    /**
+     * Ask whether node wrappers for the host page are cached
+     * @return true if wrappers are cached
+     */
+
+    public boolean isCacheHostPageWrappers() {
+        return cacheHostPageWrappers;
     }
 
     /**
@@ -431,6 +538,50 @@ public class Configuration {
         namePool = targetNamePool;
     }
 
+    /**
+     * Get the cache of compiled regular expressions, shared by all stylesheets and XPath
+     * expressions using this Configuration.
+     *
+     * @return the regular expression cache
+     */
+
+    public RegexCache getRegexCache() {
+        return regexCache;
+    }
+
+    /**
+     * Get the cache of analyzed picture strings used by format-number(), format-date() and the
+     * related functions, and by xsl:number, shared by all stylesheets using this Configuration.
+     *
+     * @return the picture string cache
+     */
+
+    public PictureCache getPictureCache() {
+        return pictureCache;
+    }
+
+    /**
+     * Get the cache of compiled JavaScript functions used by ixsl:eval(), shared by all stylesheets
+     * using this Configuration.
+     *
+     * @return the script cache
+     */
+
+    public ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
+    /**
+     * Get the cache of compiled stylesheets, used to avoid recompiling a stylesheet that is
+     * supplied again unchanged
+     *
+     * @return the stylesheet cache
+     */
+
+    public StylesheetCache getStylesheetCache() {
+        return stylesheetCache;
+    }
+
     /**
      * Get the TypeHierarchy: a cache holding type information
      *
@@ -511,6 +662,66 @@ public class Configuration {
         return globalDocumentPool;
     }
 
+    /**
+     * Register a stylesheet module that has been fetched in advance of stylesheet compilation,
+     * so that xsl:include or xsl:import does not need to fetch it again.
+     * <p>
+     * This method is intended for internal use only.
+     *
+     * @param uri the absolute URI of the module
+     * @param doc the unprocessed document containing the module
+     */
+
+    public void addPrefetchedModule(String uri, DocumentInfo doc) {
+        prefetchedModules.put(uri, doc);
+    }
+
+    /**
+     * Ask whether a stylesheet module has been fetched in advance and not yet used
+     *
+     * @param uri the absolute URI of the module
+     * @return true if the module is available
+     */
+
+    public boolean isPrefetchedModule(String uri) {
+        return prefetchedModules.containsKey(uri);
+    }
+
+    /**
+     * Get a stylesheet module that has been fetched in advance, leaving it in the set of
+     * prefetched modules
+     *
+     * @param uri the absolute URI of the module
+     * @return the unprocessed document containing the module, or null if it has not been prefetched
+     */
+
+    public DocumentInfo getPrefetchedModule(String uri) {
+        return prefetchedModules.get(uri);
+    }
+
+    /**
+     * Get a stylesheet module that has been fetched in advance, removing it from the set of
+     * prefetched modules. A module is used once only: if the stylesheet is compiled again, the
+     * module is fetched again, and any changes are seen.
+     *
+     * @param uri the absolute URI of the module
+     * @return the unprocessed document containing the module, or null if it has not been prefetched
+     */
+
+    public DocumentInfo takePrefetchedModule(String uri) {
+        return prefetchedModules.remove(uri);
+    }
+
+    /**
+     * Discard all the stylesheet modules that have been fetched in advance. This is done after each
+     * compilation, whether or not it succeeds, so that a module that was fetched but not used is not
+     * used by a later compilation, which will fetch it again.
+     */
+
+    public void clearPrefetchedModules() {
+        prefetchedModules.clear();
+    }
+
     /**
      * Set which kinds of whitespace-only text node should be stripped.
      *
@@ -604,7 +815,23 @@ public class Configuration {
             // special case this URI
         	return getHostPage();
         }
-        
+        return new HTMLDocumentWrapper(parseDocument(url), url, Configuration.this, DocType.NONHTML);
+    }
+
+    /**
+     * Build a source document to be read by the doc() or document() functions. The document is
+     * built using the tree model selected by {@link #setSourceTreeModel}.
+     * @param url the URL of the document to be fetched and parsed.
+     * @throws XPathException if the URL cannot be dereferenced or if parsing fails
+     */
+    public DocumentInfo buildSourceDocument(final String url) throws XPathException {
+        if (url.equals("html:document")) {
+            return getHostPage();
+        }
+        return makeSourceDocument(parseDocument(url), url);
+    }
+
+    private Document parseDocument(String url) throws XPathException {
         String xml;
         try {
             xml = XMLDOM.makeHTTPRequest(url);
@@ -620,7 +847,58 @@ public class Configuration {
         } catch (Exception ec) {
         	throw new XPathException("XML parser error: " + ec.getMessage());
         }
-        return new HTMLDocumentWrapper(jsDoc, url, Configuration.this, DocType.NONHTML);
+        return jsDoc;
+    }
+
+    /**
+     * Make a source document for the doc() or document() functions from a parsed XML document,
+     * using the tree model selected by {@link #setSourceTreeModel}. With the TinyTree model the
+     * contents of the DOM are copied into a new tree, and the DOM is no longer referenced.
+     * @param doc the parsed XML document
+     * @param uri the URI of the document
+     * @return the document node
+     * @throws XPathException if the copy fails
+     */
+
+    public DocumentInfo makeSourceDocument(Node doc, String uri) throws XPathException {
+        DocumentInfo wrapper = wrapXMLDocument(doc, uri);
+        if (sourceTreeModel != Builder.TINY_TREE) {
+            return wrapper;
+        }
+        TinyBuilder builder = new TinyBuilder();
+        builder.setPipelineConfiguration(makePipelineConfiguration());
+        builder.setSystemId(uri);
+        builder.setBaseURI(uri);
+        builder.open();
+        wrapper.copy(builder, CopyOptions.LOCAL_NAMESPACES);
+        builder.close();
+        return (DocumentInfo)builder.getCurrentRoot();
+    }
+
+    /**
+     * Set the tree model used for documents read using the doc() and document() functions. This is
+     * set from the JavaScript API using <code>XSLT20Processor.setTreeModel()</code>, or from the
+     * <code>data-tree-model</code> attribute of the script element that loads the stylesheet.
+     * @param model {@link Builder#TINY_TREE} to copy each document into a compact TinyTree, or
+     * {@link Builder#UNSPECIFIED_TREE_MODEL} (the default) to wrap the browser's XML DOM. A TinyTree
+     * uses much less memory and is faster to navigate, but its nodes cannot be passed to JavaScript
+     * as DOM nodes.
+     */
+
+    public void setSourceTreeModel(int model) {
+        if (model != Builder.TINY_TREE && model != Builder.UNSPECIFIED_TREE_MODEL) {
+            throw new IllegalArgumentException("Unsupported tree model " + model);
+        }
+        sourceTreeModel = model;
+    }
+
+    /**
+     * Get the tree model used for documents read using the doc() and document() functions
+     * @return {@link Builder#TINY_TREE} or {@link Builder#UNSPECIFIED_TREE_MODEL}
+     */
+
+    public int getSourceTreeModel() {
+        return sourceTreeModel;
     }
     
    
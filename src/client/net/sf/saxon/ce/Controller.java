@@ -1,7 +1,9 @@
 package client.net.sf.saxon.ce;
 
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper.DocType;
 import client.net.sf.saxon.ce.dom.HTMLWriter;
+import client.net.sf.saxon.ce.dom.XMLDOM;
 import client.net.sf.saxon.ce.event.*;
 import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.expr.XPathContextMajor;
@@ -10,10 +12,10 @@ import client.net.sf.saxon.ce.functions.Component;
 import client.net.sf.saxon.ce.functions.EscapeURI;
 import client.net.sf.saxon.ce.js.IXSLFunction;
 import client.net.sf.saxon.ce.lib.ErrorListener;
-import client.net.sf.saxon.ce.lib.NamespaceConstant;
 import client.net.sf.saxon.ce.lib.StandardErrorListener;
 import client.net.sf.saxon.ce.lib.TraceListener;
 import client.net.sf.saxon.ce.om.*;
+import client.net.sf.saxon.ce.trace.TimingTraceListener;
 import client.net.sf.saxon.ce.trans.CompilerInfo;
 import client.net.sf.saxon.ce.trans.Mode;
 import client.net.sf.saxon.ce.trans.RuleManager;
@@ -43,8 +45,10 @@ import java.util.Set;
  * therefore not thread-safe.
  * <p>
  * The Controller is serially reusable, when one transformation or query
- * is finished, it can be used to run another. However, there is no advantage in doing this
- * rather than allocating a new Controller each time. An inert version of the controller can
+ * is finished, it can be used to run another. Generally there is little advantage in doing this
+ * rather than allocating a new Controller each time; the exception is the handling of user
+ * interface events, where a controller prepared using {@link #prepareForReuse(boolean)} can, on
+ * request, retain the values of global variables from one event to the next. An inert version of the controller can
  * be used to simply hold state for the benefit of the JavaScript API, controller settings
  * can then be copied to a 'live' Controller instance using importControllerSettings()
  * <p>
@@ -62,7 +66,9 @@ import java.util.Set;
 public class Controller {
 
 
-    public Controller() {}
+    public Controller() {
+        controllersCreated++;
+    }
 
     private Configuration config;
     private Item initialContextItem;
@@ -101,6 +107,13 @@ public class Controller {
     private HTMLWriter openHTMLWriter = null;
     private Node principalOutputNode = null;
     private NodeInfo sourceNode = null;
+    private boolean retainGlobalVariables = false;
+    private boolean globalsInitialized = false;     // true if the bindery holds values that may be retained
+    private int globalsEpoch;                       // host page mutation epoch when the bindery was initialized
+    private Item globalsContext;                    // context item for global variables when the bindery was initialized
+    private HashMap<StructuredQName, ValueRepresentation> globalsParameters;   // copy of the parameters used
+    private DocumentPool prefetchedDocuments = null;   // documents fetched in advance for this transformation
+    private static int controllersCreated = 0;
 
     /**
      * Create a Controller and initialise variables. Note: XSLT applications should
@@ -140,15 +153,14 @@ public class Controller {
     	if (nonDomEventProcessors != null){
     		for (Xslt20ProcessorImpl p: nonDomEventProcessors){
     			if (p != null) {
-    				StructuredQName sqn = new StructuredQName("", NamespaceConstant.IXSL, name);
-    				// context was set to host page
-    				p.applyEventTemplates(sqn.getClarkName(), null, event, target);
+    				p.applyNonDomEventTemplates(name, target, event);
     			}
     		}
     	}
     }
     
     public Controller(Configuration config, boolean isInert) {
+        controllersCreated++;
     	this.isInert = isInert;
         this.config = config;
         // create a dummy executable
@@ -157,6 +169,7 @@ public class Controller {
     }
     
     public Controller(Configuration config) {
+        controllersCreated++;
     	isInert = false;
         this.config = config;
         // create a dummy executable
@@ -176,6 +189,7 @@ public class Controller {
      */
 
     public Controller(Configuration config, Executable executable) {
+        controllersCreated++;
     	isInert = false;
         this.config = config;
         this.executable = executable;
@@ -229,6 +243,42 @@ public class Controller {
         commandType = APIcommand.NONE;
         resultDocumentPool = null;
         openHTMLWriter = null;
+        globalsInitialized = false;
+    }
+
+    /**
+     * Prepare this controller to run a further transformation, typically in response to a user
+     * interface event. If requested, values of global variables computed by an earlier transformation
+     * are retained, as is other data held on behalf of the stylesheet such as key indexes, unless the
+     * host page has been modified by Saxon since the global variables were initialized, or the context
+     * item or parameters have changed. Otherwise the global variables are evaluated afresh, as they
+     * would be by a new controller.
+     * <p/>
+     * Retaining global variables is only safe if their values do not depend on anything that can change
+     * without Saxon's knowledge, such as JavaScript properties, the current time, or changes made to
+     * the page by other scripts.
+     * <p/>
+     * Updates to the page queued by the previous transformation are never carried over.
+     * @param retainGlobals true if global variables are to be retained from the previous transformation
+     */
+
+    public void prepareForReuse(boolean retainGlobals) {
+        retainGlobalVariables = retainGlobals;
+        pendingUpdateList = new PendingUpdateList(config);
+        if (globalsInitialized && (!retainGlobals || globalsEpoch != HTMLDocumentWrapper.getMutationEpoch())) {
+            globalsInitialized = false;
+            userDataTable.clear();
+        }
+    }
+
+    /**
+     * Get the number of Controller instances that have been created. This is for monitoring
+     * purposes, for example to check that the controller used for event handling is being reused.
+     * @return the number of Controllers created since the module was loaded
+     */
+
+    public static int getNumberOfControllersCreated() {
+        return controllersCreated;
     }
     
     public void importControllerSettings(Controller lc) throws XPathException {
@@ -940,6 +990,41 @@ public class Controller {
         }
     }
 
+    /**
+     * Supply the documents that were fetched in advance of this transformation because the stylesheet
+     * is known to read them using doc() or document(). A document is taken from this set when the
+     * transformation first reads it, after the checks that apply to any other document, and is then
+     * registered in the document pool in the usual way.
+     * <p>
+     * This method is intended for internal use only.
+     *
+     * @param documents the prefetched documents, or null if there are none
+     */
+
+    public void setPrefetchedDocuments(DocumentPool documents) {
+        prefetchedDocuments = documents;
+    }
+
+    /**
+     * Take a document from the set of documents fetched in advance of this transformation
+     * <p>
+     * This method is intended for internal use only.
+     *
+     * @param uri the absolute URI of the document
+     * @return the document, or null if it was not prefetched. A document is only returned once.
+     */
+
+    public DocumentInfo takePrefetchedDocument(DocumentURI uri) {
+        if (prefetchedDocuments == null) {
+            return null;
+        }
+        DocumentInfo doc = prefetchedDocuments.find(uri);
+        if (doc != null) {
+            prefetchedDocuments.discard(doc);
+        }
+        return doc;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////
     // Methods for registering and retrieving handlers for template rules
     ////////////////////////////////////////////////////////////////////////////////
@@ -1011,6 +1096,14 @@ public class Controller {
         }
         //setDecimalFormatManager(executable.getDecimalFormatManager());
 
+        // if the controller is being reused, keep the global variables from previous runs
+        // provided they were evaluated with the same context and parameters
+
+        if (retainGlobalVariables && globalsInitialized && isSameParameters(parameters, globalsParameters) &&
+                isSameContext(contextForGlobalVariables, globalsContext)) {
+            return;
+        }
+
         // get a new bindery, to clear out any variables from previous runs
 
         bindery = new Bindery();
@@ -1019,6 +1112,37 @@ public class Controller {
         // if parameters were supplied, set them up
 
         defineGlobalParameters();
+
+        globalsInitialized = true;
+        globalsEpoch = HTMLDocumentWrapper.getMutationEpoch();
+        globalsContext = contextForGlobalVariables;
+        // the parameter map may be shared with another controller and updated in place, so take a copy
+        globalsParameters = (parameters == null ? null :
+                new HashMap<StructuredQName, ValueRepresentation>(parameters));
+    }
+
+    private static boolean isSameParameters(HashMap<StructuredQName, ValueRepresentation> a,
+                                            HashMap<StructuredQName, ValueRepresentation> b) {
+        if (a == null || b == null) {
+            return (a == null || a.isEmpty()) && (b == null || b.isEmpty());
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Entry<StructuredQName, ValueRepresentation> entry : a.entrySet()) {
+            if (b.get(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSameContext(Item a, Item b) {
+        if (a instanceof NodeInfo && b instanceof NodeInfo) {
+            return ((NodeInfo)a).isSameNodeInfo((NodeInfo)b);
+        } else {
+            return a == b;
+        }
     }
 
     /**
@@ -1121,10 +1245,19 @@ public class Controller {
 
         // no longer used for expiry check - just XSLT context
         getCurrentDateTime();
+
+        // the page may have been changed by other scripts since the last transformation
+        config.refreshDocuments();
         
         if (LogConfiguration.loggingIsEnabled()) {
         	LogController.openTraceListener();
         }
+        TimingTraceListener timer = null;
+        if (config.isTiming()) {
+            timer = new TimingTraceListener();
+            setTraceListener(timer);
+            timer.open();
+        }
         boolean success = false;
 
         try {
@@ -1212,16 +1345,30 @@ public class Controller {
             pendingUpdateList.apply(initialContext);
             success = true;
             principalOutputNode = openHTMLWriter.getNode();
+            if (timer != null) {
+                timer.close();
+                addToResultDocumentPool(new DocumentURI(TimingTraceListener.REPORT_URI),
+                        (Node)XMLDOM.parseXML(timer.getReport()));
+            }
             return principalOutputNode;
             // let caller handle exception
             
         } finally {
             inUse = false;
             principalResultURI = null;
+            if (!success) {
+                // a global variable may have been left half-evaluated
+                globalsInitialized = false;
+                // updates queued by the failed transformation must not be applied by a later one
+                pendingUpdateList = new PendingUpdateList(config);
+            }
             
             if (LogConfiguration.loggingIsEnabled()) {
             	LogController.closeTraceListener(success);
             }
+            if (timer != null) {
+                setTraceListener(null);
+            }
         }
     }
 
@@ -45,6 +45,9 @@ public class PreparedStylesheet extends Executable {
     // index of named templates.
     private HashMap<StructuredQName, Template> namedTemplateTable;
 
+    // content hashes of the modules incorporated using xsl:include and xsl:import, keyed by URI
+    private HashMap<String, String> incorporatedModules = new HashMap<String, String>();
+
     /**
      * Constructor
      * @param config The Configuration set up by the TransformerFactory
@@ -372,6 +375,26 @@ public class PreparedStylesheet extends Executable {
         return compilerInfo;
     }
 
+    /**
+     * Record a module incorporated into the stylesheet using xsl:include or xsl:import, so that
+     * the {@link StylesheetCache} can detect a later change to the module
+     * @param uri the absolute URI of the module
+     * @param rawDoc the unprocessed document containing the module
+     */
+
+    public void addIncorporatedModule(String uri, DocumentInfo rawDoc) {
+        incorporatedModules.put(uri, StylesheetCache.hashContent(rawDoc));
+    }
+
+    /**
+     * Get the modules incorporated into the stylesheet using xsl:include or xsl:import
+     * @return a map from the absolute URI of each module to a hash of its content
+     */
+
+    public HashMap<String, String> getIncorporatedModules() {
+        return incorporatedModules;
+    }
+
 //
 //    /**
 //     * Get the stylesheet specification(s) associated
@@ -0,0 +1,272 @@
+package client.net.sf.saxon.ce;
+
+import client.net.sf.saxon.ce.om.Axis;
+import client.net.sf.saxon.ce.om.DocumentInfo;
+import client.net.sf.saxon.ce.om.NamespaceBinding;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.trans.CompilerInfo;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.iter.AxisIterator;
+import client.net.sf.saxon.ce.type.Type;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory cache of compiled stylesheets, held by the Configuration. A stylesheet is identified
+ * by the system identifier of its principal module together with a hash of the module's content, so a
+ * stylesheet that is supplied again unchanged (for example, on a second call of the transform API,
+ * or when a processor switches back to a stylesheet it has used before) is not parsed, checked and
+ * optimized a second time, while a stylesheet whose content has changed is recompiled.
+ * <p/>
+ * The content of each module incorporated using xsl:include and xsl:import is also hashed when the
+ * stylesheet is compiled. When a compiled stylesheet is requested for a principal module document that
+ * it has not yet been checked against (typically because the principal module has been fetched afresh),
+ * each of these modules is obtained again, from the modules prefetched for the compilation if it is
+ * there, or by fetching it otherwise, and the stylesheet is recompiled if any of them has changed.
+ * Further requests for the same principal module document, such as repeated calls of the transform
+ * API after a single call of importStylesheet, reuse the compiled stylesheet without any check.
+ * <p/>
+ * Compiled stylesheets contain name codes allocated from the NamePool of the Configuration, so they
+ * cannot be shared between Configurations, nor retained beyond the lifetime of the page.
+ * <p/>
+ * The cache is bounded: when it is full, the least recently used entry is discarded.
+ */
+
+public class StylesheetCache {
+
+    private Configuration config;
+    private int capacity;
+    private int hits = 0;
+    private int misses = 0;
+    private LinkedHashMap<String, Entry> cache;
+    private DocumentInfo lastDocument = null;   // the stylesheet document most recently requested
+    private String lastKey = null;              // the cache key computed for lastDocument
+    private static Logger logger = Logger.getLogger("StylesheetCache");
+
+    /**
+     * Create a cache
+     * @param config the Configuration used to compile the stylesheets
+     * @param capacity the maximum number of compiled stylesheets to be retained
+     */
+
+    public StylesheetCache(Configuration config, int capacity) {
+        this.config = config;
+        this.capacity = capacity;
+        cache = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > StylesheetCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * A compiled stylesheet, with the principal module document against which its incorporated
+     * modules were most recently found to be current
+     */
+
+    private static class Entry {
+        public PreparedStylesheet sheet;
+        public DocumentInfo checkedDocument;
+    }
+
+    /**
+     * Get a compiled stylesheet, compiling it if an identical stylesheet is not already in the cache
+     * @param styleDoc the document node of the principal stylesheet module
+     * @param info the compile-time options
+     * @return the compiled stylesheet
+     * @throws XPathException if the stylesheet contains static errors. Stylesheets that fail to
+     * compile are not cached.
+     */
+
+    public PreparedStylesheet getStylesheet(DocumentInfo styleDoc, CompilerInfo info) throws XPathException {
+        String key = getKey(styleDoc);
+        Entry entry = cache.get(key);
+        if (entry != null && entry.checkedDocument != styleDoc) {
+            if (isCurrent(entry.sheet)) {
+                entry.checkedDocument = styleDoc;
+            } else {
+                logger.fine("Incorporated modules of " + styleDoc.getSystemId() + " have changed");
+                cache.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses++;
+            logger.fine("Compiling stylesheet " + styleDoc.getSystemId());
+            PreparedStylesheet sheet = new PreparedStylesheet(config, info);
+            sheet.prepare(styleDoc);
+            entry = new Entry();
+            entry.sheet = sheet;
+            entry.checkedDocument = styleDoc;
+            cache.put(key, entry);
+        } else {
+            hits++;
+            logger.fine("Using previously compiled stylesheet " + styleDoc.getSystemId());
+        }
+        return entry.sheet;
+    }
+
+    /**
+     * Ask whether a call on {@link #getStylesheet} would reuse a compiled stylesheet without obtaining
+     * any of its modules: that is, whether the stylesheet has been compiled from, or already checked
+     * against, this principal module document
+     * @param styleDoc the document node of the principal stylesheet module
+     * @return true if the compiled stylesheet can be used as it is
+     */
+
+    public boolean isChecked(DocumentInfo styleDoc) {
+        Entry entry = cache.get(getKey(styleDoc));
+        return entry != null && entry.checkedDocument == styleDoc;
+    }
+
+    /**
+     * Ask whether the modules incorporated into a compiled stylesheet are unchanged
+     * @param sheet the compiled stylesheet
+     * @return true if each module incorporated using xsl:include or xsl:import can still be
+     * obtained, and its content has the same hash as when the stylesheet was compiled
+     */
+
+    private boolean isCurrent(PreparedStylesheet sheet) {
+        for (Map.Entry<String, String> module : sheet.getIncorporatedModules().entrySet()) {
+            String uri = module.getKey();
+            DocumentInfo doc = config.getPrefetchedModule(uri);
+            if (doc == null) {
+                try {
+                    doc = config.buildDocument(uri);
+                } catch (XPathException e) {
+                    // recompile, so that the error is reported in the usual way
+                    return false;
+                }
+                // keep the module for the compiler, in case it is needed after all
+                config.addPrefetchedModule(uri, doc);
+            }
+            if (!hashContent(doc).equals(module.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getKey(DocumentInfo styleDoc) {
+        if (styleDoc != lastDocument) {
+            // a different stylesheet document object: hash it, and remember the result
+            lastKey = styleDoc.getSystemId() + '#' + hashContent(styleDoc);
+            lastDocument = styleDoc;
+        }
+        return lastKey;
+    }
+
+    /**
+     * Compute a hash of the content of a tree: the names, namespace declarations, attributes
+     * and text of its nodes
+     * @param node the root of the tree
+     * @return a string representing the hash code
+     */
+
+    public static String hashContent(NodeInfo node) {
+        int[] h = new int[]{17, 0};
+        hashNode(node, h);
+        return Integer.toHexString(h[0]) + Integer.toHexString(h[1]);
+    }
+
+    private static void hashNode(NodeInfo node, int[] h) {
+        int kind = node.getNodeKind();
+        mix(h, kind);
+        switch (kind) {
+            case Type.DOCUMENT:
+                hashChildren(node, h);
+                break;
+            case Type.ELEMENT:
+                mix(h, node.getURI());
+                mix(h, node.getDisplayName());
+                NamespaceBinding[] namespaces = node.getDeclaredNamespaces(null);
+                for (int i = 0; i < namespaces.length && namespaces[i] != null; i++) {
+                    mix(h, namespaces[i].getPrefix());
+                    mix(h, namespaces[i].getURI());
+                }
+                AxisIterator atts = node.iterateAxis(Axis.ATTRIBUTE);
+                while (true) {
+                    NodeInfo att = (NodeInfo)atts.next();
+                    if (att == null) {
+                        break;
+                    }
+                    mix(h, att.getURI());
+                    mix(h, att.getDisplayName());
+                    mix(h, att.getStringValue());
+                }
+                hashChildren(node, h);
+                break;
+            case Type.PROCESSING_INSTRUCTION:
+                mix(h, node.getDisplayName());
+                mix(h, node.getStringValue());
+                break;
+            default:
+                mix(h, node.getStringValue());
+        }
+    }
+
+    private static void hashChildren(NodeInfo node, int[] h) {
+        AxisIterator children = node.iterateAxis(Axis.CHILD);
+        while (true) {
+            NodeInfo child = (NodeInfo)children.next();
+            if (child == null) {
+                break;
+            }
+            hashNode(child, h);
+        }
+        mix(h, -1);
+    }
+
+    private static void mix(int[] h, String s) {
+        if (s == null) {
+            s = "";
+        }
+        for (int i = 0; i < s.length(); i++) {
+            mix(h, s.charAt(i));
+        }
+        mix(h, s.length());
+    }
+
+    private static void mix(int[] h, int v) {
+        // two independent hash functions, to make an accidental collision very unlikely
+        h[0] = h[0] * 31 + v;
+        h[1] = (h[1] ^ v) * 16777619;
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required a stylesheet to be compiled
+     * @return the number of cache misses
+     */
+
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Discard all entries in the cache, and reset the counters
+     */
+
+    public void clear() {
+        cache.clear();
+        lastDocument = null;
+        lastKey = null;
+        hits = 0;
+        misses = 0;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
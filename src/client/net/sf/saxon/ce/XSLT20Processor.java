@@ -134,6 +134,49 @@ public class XSLT20Processor implements Exportable {
 		}
 	}
 	
+	/**
+	 * Say whether the values of global variables are kept from one event-handling transformation
+	 * to the next, rather than being evaluated again for each event. Only use this if the global
+	 * variables do not depend on JavaScript state, the current time, or changes made to the page
+	 * by other scripts. The default is false.
+	 * @param retain true if global variables are to be retained between events
+	 */
+	public void setRetainGlobalVariables(boolean retain) {
+		processor.setRetainGlobalVariables(retain);
+	}
+
+	/**
+	 * Ask whether the values of global variables are kept from one event-handling transformation
+	 * to the next
+	 * @return true if global variables are retained between events
+	 */
+	public boolean getRetainGlobalVariables() {
+		return processor.isRetainGlobalVariables();
+	}
+
+	/**
+	 * Set the tree model used for documents read by the doc() and document() functions.
+	 * "tinytree" copies each document into a compact tree that uses less memory and is faster
+	 * to navigate, but whose nodes cannot be passed to JavaScript as DOM nodes; "dom" (the default)
+	 * wraps the browser's XML DOM.
+	 * @param model "tinytree" or "dom"
+	 */
+	public void setTreeModel(String model) {
+		try {
+			processor.setTreeModel(model);
+		} catch (Exception e) {
+			Xslt20ProcessorImpl.handleException(e, "setTreeModel");
+		}
+	}
+
+	/**
+	 * Get the tree model used for documents read by the doc() and document() functions
+	 * @return "tinytree" or "dom"
+	 */
+	public String getTreeModel() {
+		return processor.getTreeModel();
+	}
+
 	/**
 	 * Restore the XSLTProcessor20 instance to its default state
 	 */
@@ -2,16 +2,20 @@ package client.net.sf.saxon.ce;
 
 import client.net.sf.saxon.ce.Controller.APIcommand;
 import client.net.sf.saxon.ce.LicenseException;
+import client.net.sf.saxon.ce.client.DocumentPrefetcher;
 import client.net.sf.saxon.ce.client.HTTPHandler;
 import client.net.sf.saxon.ce.client.HTTPHandler.State;
+import client.net.sf.saxon.ce.client.StylesheetPrefetcher;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.dom.HTMLNodeWrapper;
 import client.net.sf.saxon.ce.dom.XMLDOM;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper.DocType;
+import client.net.sf.saxon.ce.event.Builder;
 import client.net.sf.saxon.ce.expr.Expression;
 import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.expr.XPathContextMajor;
 import client.net.sf.saxon.ce.expr.instruct.GlobalVariable;
+import client.net.sf.saxon.ce.expr.instruct.Template;
 import client.net.sf.saxon.ce.js.IXSLFunction;
 import client.net.sf.saxon.ce.lib.GenericLogHandler;
 import client.net.sf.saxon.ce.lib.JavaScriptAPIException;
@@ -20,6 +24,7 @@ import client.net.sf.saxon.ce.lib.StandardErrorListener;
 import client.net.sf.saxon.ce.lib.TraceListener;
 import client.net.sf.saxon.ce.om.Axis;
 import client.net.sf.saxon.ce.om.DocumentInfo;
+import client.net.sf.saxon.ce.om.DocumentPool;
 import client.net.sf.saxon.ce.om.Item;
 import client.net.sf.saxon.ce.om.NamePool;
 import client.net.sf.saxon.ce.om.NodeInfo;
@@ -83,7 +88,24 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     PreparedStylesheet stylesheet = null;
     private JavaScriptObject successCallback = null;
     Controller localController = new Controller(config, true);       
+    private Controller eventController = null;      // reused for successive event-handling transformations
+    private boolean eventControllerInUse = false;
+    private boolean retainGlobalVariables = false;
     private static Logger logger = Logger.getLogger("XSLT20Processor");
+
+    /**
+     * Create a processor. Timing of templates and functions is enabled if the URL of the page has
+     * the parameter timing=yes: the stylesheet is then compiled so that each transformation reports
+     * the time spent in each template and function.
+     * @see client.net.sf.saxon.ce.trace.TimingTraceListener
+     */
+
+    public Xslt20ProcessorImpl() {
+        String timing = Window.Location.getParameter("timing");
+        if ("yes".equals(timing) || "true".equals(timing)) {
+            config.setTiming(true);
+        }
+    }
    
     public void onModuleLoad() {
     	if (LogConfiguration.loggingIsEnabled()){
@@ -185,6 +207,7 @@ public class Xslt20ProcessorImpl implements EntryPoint {
             String styleURI = null;
             String initialMode = null;
             String initialTemplate = null;
+            String treeModel = null;
             boolean styleElementExists = false;
             for (int i=0; i<scripts.getLength(); i++) {
                 String type = scripts.getItem(i).getAttribute("type");
@@ -194,6 +217,7 @@ public class Xslt20ProcessorImpl implements EntryPoint {
                     sourceURI = scripts.getItem(i).getAttribute("data-source");
                     initialMode = scripts.getItem(i).getAttribute("data-initial-mode");
                     initialTemplate = scripts.getItem(i).getAttribute("data-initial-template");
+                    treeModel = scripts.getItem(i).getAttribute("data-tree-model");
                     break;
                 }
             }
@@ -203,6 +227,7 @@ public class Xslt20ProcessorImpl implements EntryPoint {
             	return;
             } else if (styleURI == null)
             	{ throw new XPathException("No XSLT stylesheet reference found"); }
+            setTreeModel(treeModel);
 
             JavaScriptObject sourceDoc = null;
             String absSourceURI = null;
@@ -319,6 +344,10 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     NodeInfo fetchedSourceDoc;
     boolean transformInvoked;
     boolean docFetchRequired;
+    // true while stylesheet modules, or documents known to be read by doc() or document(), are being fetched
+    boolean prefetchPending;
+    // documents fetched in advance for the next transformation, or null
+    DocumentPool prefetchedDocuments;
    
     public Node renderXML(JavaScriptObject inSourceDoc,
                           DocumentInfo styleDoc,
@@ -334,8 +363,8 @@ public class Xslt20ProcessorImpl implements EntryPoint {
             String asyncSourceURI = null;
 
             // for now - don't use aync when using the JavaScript API calls that return a result
-            if (docFetchRequired && 
-            		(localController.getApiCommand() == APIcommand.UPDATE_HTML || (successCallback != null))) {
+            boolean asyncPermitted = localController.getApiCommand() == APIcommand.UPDATE_HTML || (successCallback != null);
+            if (docFetchRequired && asyncPermitted) {
             	asyncSourceURI = SaxonceApi.getAsyncUri(inSourceDoc);
             	if (asyncSourceURI != null && asyncSourceURI.toLowerCase().startsWith("file:")) {
             		asyncSourceURI = null; // force synchronous fetch if using file-system protocol
@@ -346,6 +375,8 @@ public class Xslt20ProcessorImpl implements EntryPoint {
             // ----------- Start async code -------------
             fetchedSourceDoc = null;
             transformInvoked = false;
+            prefetchPending = false;
+            prefetchedDocuments = null;
             
             if (asyncSourceURI != null) {
 	            final String URI = asyncSourceURI;
@@ -397,11 +428,30 @@ public class Xslt20ProcessorImpl implements EntryPoint {
             	if (LogConfiguration.loggingIsEnabled()) {
             		LogController.InitializeTraceListener();
             	}
-            	logger.log(Level.FINE, "Compiling Stylesheet...");
-	            PreparedStylesheet sheet = new PreparedStylesheet(config, info);
-	            sheet.prepare(styleDoc);
-	            stylesheet = sheet;
-	            logger.log(Level.FINE, "Stylesheet compiled OK");
+            }
+            // fetch the modules incorporated using xsl:include and xsl:import in parallel before a
+            // stylesheet is compiled, or a compiled stylesheet is checked against a newly fetched
+            // principal module, so that neither the compiler nor the check that the modules are
+            // unchanged waits for a synchronous request for each of them in turn
+            if (asyncPermitted && !config.getStylesheetCache().isChecked(styleDoc)) {
+                final DocumentInfo principalModule = styleDoc;
+                final CompilerInfo compilerInfo = info;
+                final Node transformTarget = target;
+                prefetchPending = new StylesheetPrefetcher(config).fetch(styleDoc, new Runnable() {
+                    public void run() {
+                        prefetchPending = false;
+                        try {
+                            compileStylesheet(principalModule, compilerInfo, true, transformTarget);
+                        } catch (Exception e) {
+                            handleException(e, "renderXML");
+                            return;
+                        }
+                        invokeTransform(null, transformTarget);
+                    }
+                });
+            }
+            if (!prefetchPending) {
+                compileStylesheet(styleDoc, info, asyncPermitted, target);
             }
             
             // for async operation - this is called within the callback - so don't call here            
@@ -429,11 +479,48 @@ public class Xslt20ProcessorImpl implements EntryPoint {
         }
     }
     
+    /**
+     * Compile the stylesheet, unless it has been compiled before: a stylesheet imported again
+     * unchanged reuses the compiled form, but a different one is recompiled
+     * @param styleDoc the document node of the principal stylesheet module
+     * @param info the compile-time options
+     * @param asyncPermitted true if documents read by the stylesheet may be fetched asynchronously
+     * @param target the target node of the transformation, which is invoked when they arrive
+     * @throws XPathException if the stylesheet contains static errors
+     */
+
+    private void compileStylesheet(DocumentInfo styleDoc, CompilerInfo info,
+                                   boolean asyncPermitted, final Node target) throws XPathException {
+        try {
+            stylesheet = config.getStylesheetCache().getStylesheet(styleDoc, info);
+        } finally {
+            // modules prefetched but not used, for example because of use-when, must not be
+            // picked up by a later compilation
+            config.clearPrefetchedModules();
+        }
+        logger.log(Level.FINE, "Stylesheet compiled OK");
+
+        // fetch documents read by doc() and document() with literal URIs in parallel, so that
+        // the transformation does not wait for a synchronous request for each of them
+        if (asyncPermitted && stylesheet.getPrefetchURIs() != null) {
+            DocumentPrefetcher prefetcher = new DocumentPrefetcher(config);
+            prefetchedDocuments = prefetcher.getDocuments();
+            prefetchPending = prefetcher.fetch(stylesheet.getPrefetchURIs(), new Runnable() {
+                public void run() {
+                    prefetchPending = false;
+                    invokeTransform(null, target);
+                }
+            });
+        }
+    }
+
     public static native boolean isNonDocNode(JavaScriptObject obj) /*-{
 		return (typeof obj.getNodeType == "function" && obj.getNodeType() != 9);
 	}-*/;
           
     private List<Mode> registeredEventModes = null;
+    private HashMap<String, Mode> eventModeTable = null;      // event type (e.g. "click") -> ixsl:on* mode
+    private ArrayList<ThrottledEvent> throttledEvents = new ArrayList<ThrottledEvent>();
     private boolean registeredProcessorForNonDomEvents = false;
     
     private void registerNonDOMevents(Controller controller) throws XPathException {
@@ -464,6 +551,27 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     	JavaScriptObject event = (eventArg == null)? getWindowEvent(): eventArg;
     	Controller.relayNonDomEvent(name, obj, event);
     }
+
+    /**
+     * Handle an event raised by an object outside the DOM, such as the window, applying the
+     * templates of the ixsl:on* mode for the event either immediately or, if the matching template
+     * rule has an ixsl:throttle, once the throttling interval has elapsed
+     * @param name the name of the event mode, for example "onscroll"
+     * @param target the object that raised the event
+     * @param event the event
+     */
+
+    public void applyNonDomEventTemplates(String name, JavaScriptObject target, JavaScriptObject event) {
+    	String mode = new StructuredQName("", NamespaceConstant.IXSL, name).getClarkName();
+    	Mode eventMode = (eventModeTable != null && name.startsWith("on") ? eventModeTable.get(name.substring(2)) : null);
+    	Rule rule = (eventMode == null ? null : eventMode.getVirtualRule(target));
+    	if (rule == null || rule.getAction().getEventThrottle() == Template.NO_EVENT_THROTTLE) {
+    		// context is set to the host page
+    		applyEventTemplates(mode, null, event, target);
+    	} else {
+    		scheduleEventTemplates(rule, mode, null, target, event);
+    	}
+    }
     
     public static native JavaScriptObject getWindowEvent() /*-{
 		return $wnd.event;
@@ -476,6 +584,13 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     	}
         Element docElement = (com.google.gwt.user.client.Element)(Object)Document.get();
         registeredEventModes = controller.getRuleManager().getModesInNamespace(NamespaceConstant.IXSL);
+        eventModeTable = new HashMap<String, Mode>(registeredEventModes.size());
+        for (Mode eventMode : registeredEventModes) {
+        	String modeName = eventMode.getModeName().getLocalName();
+        	if (modeName.startsWith("on")) {
+        		eventModeTable.put(modeName.substring(2), eventMode);
+        	}
+        }
         // Restriction: only one event listener per element
         if (registeredEventModes.size() > 0 && !registeredForEvents) {
         	registeredForEvents = true;
@@ -543,7 +658,8 @@ public class Xslt20ProcessorImpl implements EntryPoint {
      * This invokes a transform, but it may be called either on an async callback or directly
      * We need to ensure this method runs once and only once for a single transform request -
      * It's possible for either the main code branch which performs the compile or the async callback
-     * which depends on the compile to makes the call first.
+     * which depends on the compile to makes the call first. The callback that completes the prefetching
+     * of documents may also make the call.
      */
     private Node invokeTransform(NodeInfo inDoc, com.google.gwt.dom.client.Node target) {
         // in case stylesheet not ready but doc has been fetched:
@@ -551,16 +667,20 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     		fetchedSourceDoc = inDoc;
     	}
     	// check to ensure conditions required for a transform have been met
-    	if (transformInvoked || stylesheet == null || 
+    	if (transformInvoked || stylesheet == null || prefetchPending ||
     			(docFetchRequired && fetchedSourceDoc == null)) {
     		return null;
     	}
     	transformInvoked = true;
+    	// settings may have changed: event handling will use a new controller
+    	eventController = null;
     	
     	try {
             final Controller controller = stylesheet.newTransformer();
             localController.setSourceNode(fetchedSourceDoc);
             controller.importControllerSettings(localController);
+            controller.setPrefetchedDocuments(prefetchedDocuments);
+            prefetchedDocuments = null;
             logger.log(Level.FINE, "Commencing transform type:" + controller.getApiCommand().toString());
             Node outResult = controller.transform(fetchedSourceDoc, target);
             logger.log(Level.FINE, "Transform complete");
@@ -610,25 +730,17 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     // targetNode
     
     private Mode getModeFromEvent(Event event) {
-    	Mode result = null;
-    	String mode = "on" + event.getType(); // eg. onclick
-    	for (Mode m: registeredEventModes){
-    		if (m.getModeName().getLocalName().equals(mode)) {
-    			result = m;
-    			break;
-    		}
-    	}
-    	return result;
+    	return eventModeTable.get(event.getType()); // eg. click for mode onclick
     }
     public void bubbleApplyTemplates(Node node, Event event)  {
     	if (principleEventListener) {
     		Controller.relayEvent(node, event); // make a call to this method for other instances
     	}
+    	config.refreshDocuments();
     	NodeInfo eventNode = ((HTMLDocumentWrapper)config.getHostPage()).wrap(node);
     	SequenceIterator bubbleElements = eventNode.iterateAxis(Axis.ANCESTOR, NodeKindTest.ELEMENT);
-    	Controller controller = stylesheet.newTransformer();
     	try {
-	        controller.importControllerSettings(localController);
+	        Controller controller = getEventController();
 	    	XPathContext ruleContext = controller.newXPathContext();
 	    	Mode matchedMode = getModeFromEvent(event);
 	    	
@@ -644,7 +756,11 @@ public class Xslt20ProcessorImpl implements EntryPoint {
 	            if (matchedRule != null && eventPropertyMatch(event, matchedRule)) {
 	            	logger.log(Level.FINER, "Bubble Apply-Templates - Mode: " + matchedMode.getModeName().getLocalName() + 
 	            			" Element: " + controller.getNamePool().getLocalName(element.getNameCode()));
-	            	applyEventTemplates(matchedMode.getModeName().getClarkName(), element, event, null);
+	            	if (matchedRule.getAction().getEventThrottle() == Template.NO_EVENT_THROTTLE) {
+	            		applyEventTemplates(matchedMode.getModeName().getClarkName(), element, event, null);
+	            	} else {
+	            		scheduleEventTemplates(matchedRule, matchedMode.getModeName().getClarkName(), element, null, event);
+	            	}
 	            	if (matchedRule.getIxslPreventDefault()) {
             			event.preventDefault();
 	            	}
@@ -657,6 +773,80 @@ public class Xslt20ProcessorImpl implements EntryPoint {
     	}
     }
     
+    /**
+     * The most recent event awaiting processing by a template rule whose events are coalesced,
+     * for one target element or object
+     */
+
+    private static class ThrottledEvent {
+    	public Rule rule;
+    	public NodeInfo element;
+    	public JavaScriptObject object;
+    	public JavaScriptObject event;
+
+    	public boolean isFor(Rule r, NodeInfo e, JavaScriptObject o) {
+    		return rule == r && object == o && (element == null ? e == null : e != null && element.isSameNodeInfo(e));
+    	}
+    }
+
+    /**
+     * Arrange for the templates of an event mode to be applied once the throttling interval of the
+     * matching template rule has elapsed. If further events for the same rule and target arrive before
+     * then, they replace the pending event, so the templates are applied only to the latest of them.
+     * Events for other targets, or handled by other rules, are scheduled independently.
+     * @param rule the matching template rule, which must have an event throttle
+     * @param mode the expanded name of the ixsl:on* mode
+     * @param element the element matched by the event, or null for an event raised outside the DOM
+     * @param object the object that raised an event outside the DOM, or null
+     * @param event the event
+     */
+
+    private void scheduleEventTemplates(Rule rule, final String mode, NodeInfo element, JavaScriptObject object,
+    		JavaScriptObject event) {
+    	for (ThrottledEvent pending : throttledEvents) {
+    		if (pending.isFor(rule, element, object)) {
+    			pending.event = event;
+    			logger.log(Level.FINEST, "Coalesced event in mode " + mode);
+    			return;
+    		}
+    	}
+    	final ThrottledEvent task = new ThrottledEvent();
+    	task.rule = rule;
+    	task.element = element;
+    	task.object = object;
+    	task.event = event;
+    	throttledEvents.add(task);
+    	Runnable action = new Runnable() {
+    		public void run() {
+    			throttledEvents.remove(task);
+    			applyEventTemplates(mode, task.element, task.event, task.object);
+    		}
+    	};
+    	int throttle = rule.getAction().getEventThrottle();
+    	if (throttle == Template.THROTTLE_TO_ANIMATION_FRAME) {
+    		requestAnimationFrame(action);
+    	} else {
+    		setTimeout(action, throttle);
+    	}
+    }
+
+    private static native void requestAnimationFrame(Runnable action) /*-{
+		var callback = $entry(function() {
+			action.@java.lang.Runnable::run()();
+		});
+		if ($wnd.requestAnimationFrame) {
+			$wnd.requestAnimationFrame(callback);
+		} else {
+			$wnd.setTimeout(callback, 16);
+		}
+	}-*/;
+
+    private static native void setTimeout(Runnable action, int delay) /*-{
+		$wnd.setTimeout($entry(function() {
+			action.@java.lang.Runnable::run()();
+		}), delay);
+	}-*/;
+
     private static boolean eventPropertyMatch(Event event, Rule matchedRule){
     	String eventProperty = matchedRule.getEventProperty();
     	if (eventProperty == null){
@@ -695,20 +885,101 @@ public class Xslt20ProcessorImpl implements EntryPoint {
         		start = config.getHostPage();
         	}
         	logger.log(Level.FINER, "OnEvent Apply-Templates - Mode: " + mode + " Event: " + event.toString());
-            Controller controller = stylesheet.newTransformer();
-
-            controller.importControllerSettings(localController);
+            Controller controller = getEventController();
+            boolean pooled = (controller == eventController);
             // override any imported initial mode with that for the event
             controller.setInitialTemplate(null);
             controller.setInitialMode(mode); 
             controller.setUserData("Saxon-CE", "current-event", event);
             controller.setUserData("Saxon-CE", "current-object", object);
 
-            controller.transform(start, controller.getTargetNode());
+            if (pooled) {
+                eventControllerInUse = true;
+            }
+            try {
+                controller.transform(start, controller.getTargetNode());
+            } finally {
+                if (pooled) {
+                    eventControllerInUse = false;
+                }
+            }
         } catch (Exception err) {
         	handleException(err, "mode: '" + mode +"' event: '" + event.toString());
         }
     }
+
+    /**
+     * Set the tree model used for documents read using the doc() and document() functions
+     * @param name "tinytree" to copy each document into a compact TinyTree, or "dom" (the default)
+     * to wrap the browser's XML DOM. Null or a zero-length string selects the default.
+     * @throws XPathException if the name is not recognized
+     */
+
+    public void setTreeModel(String name) throws XPathException {
+        if (name == null || name.length() == 0 || name.equals("dom")) {
+            config.setSourceTreeModel(Builder.UNSPECIFIED_TREE_MODEL);
+        } else if (name.equals("tinytree")) {
+            config.setSourceTreeModel(Builder.TINY_TREE);
+        } else {
+            throw new XPathException("Unknown tree model '" + name + "': must be 'dom' or 'tinytree'");
+        }
+    }
+
+    /**
+     * Get the tree model used for documents read using the doc() and document() functions
+     * @return "tinytree" or "dom"
+     */
+
+    public String getTreeModel() {
+        return (config.getSourceTreeModel() == Builder.TINY_TREE ? "tinytree" : "dom");
+    }
+
+    /**
+     * Say whether the values of global variables should be retained from one event-handling
+     * transformation to the next, rather than being evaluated afresh for each event. This is only
+     * safe if the global variables do not depend on state that can change without Saxon's knowledge,
+     * such as JavaScript properties, the current time, or changes made to the page by other scripts.
+     * The default is false.
+     * @param retain true if global variables are to be retained between events
+     */
+
+    public void setRetainGlobalVariables(boolean retain) {
+        retainGlobalVariables = retain;
+    }
+
+    /**
+     * Ask whether the values of global variables are retained from one event-handling transformation
+     * to the next
+     * @return true if global variables are retained between events
+     */
+
+    public boolean isRetainGlobalVariables() {
+        return retainGlobalVariables;
+    }
+
+    /**
+     * Get a controller to handle an event. The same controller is reused from one event to the next;
+     * if {@link #setRetainGlobalVariables} has been called, its global variables and key indexes are
+     * also kept while the page, context item and parameters are unchanged.
+     * If an event is raised while another is being handled, a new controller is used for it.
+     * @return a controller initialized with the current settings
+     * @throws XPathException if the settings cannot be imported
+     */
+
+    private Controller getEventController() throws XPathException {
+        Controller controller;
+        if (eventControllerInUse) {
+            controller = stylesheet.newTransformer();
+        } else {
+            if (eventController == null) {
+                eventController = stylesheet.newTransformer();
+            }
+            controller = eventController;
+            controller.prepareForReuse(retainGlobalVariables);
+        }
+        controller.importControllerSettings(localController);
+        return controller;
+    }
     
     public Controller getController() {
     	return localController;
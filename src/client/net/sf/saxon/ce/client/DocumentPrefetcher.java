@@ -0,0 +1,118 @@
+package client.net.sf.saxon.ce.client;
+
+import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.dom.XMLDOM;
+import client.net.sf.saxon.ce.om.DocumentInfo;
+import client.net.sf.saxon.ce.om.DocumentPool;
+import com.google.gwt.dom.client.Node;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.Response;
+
+import java.util.Collection;
+import java.util.logging.Logger;
+
+/**
+ * Fetches a set of documents asynchronously and in parallel, adding each one to a document pool
+ * of its own as it arrives. This is used to load the documents read by doc() and document() calls
+ * whose URIs are known at compile time, so that the transformation does not need to block the
+ * browser with a synchronous request for each of them. The pool is handed to the Controller that
+ * runs the transformation (see {@link client.net.sf.saxon.ce.Controller#setPrefetchedDocuments}),
+ * so the documents are fetched afresh for each transformation that is started.
+ * <p/>
+ * A document that cannot be fetched or parsed is simply left out of the pool: the error
+ * is then reported in the normal way when the transformation attempts to read it.
+ */
+
+public class DocumentPrefetcher {
+
+    private static Logger logger = Logger.getLogger("DocumentPrefetcher");
+
+    private Configuration config;
+    private DocumentPool documents = new DocumentPool();
+    private int outstanding = 0;
+    private Runnable onCompletion;
+
+    public DocumentPrefetcher(Configuration config) {
+        this.config = config;
+    }
+
+    /**
+     * Get the pool to which the documents are added as they arrive
+     * @return the pool of prefetched documents
+     */
+
+    public DocumentPool getDocuments() {
+        return documents;
+    }
+
+    /**
+     * Issue requests for all the documents that are not already present in the global document pool
+     * @param uris the absolute URIs of the documents to be fetched
+     * @param onCompletion called once all the requests issued have completed, successfully or otherwise.
+     * It is not called if the method returns false.
+     * @return true if one or more requests were issued, false if there is nothing to wait for
+     */
+
+    public boolean fetch(Collection<String> uris, Runnable onCompletion) {
+        this.onCompletion = onCompletion;
+        DocumentPool global = config.getGlobalDocumentPool();
+        for (final String uri : uris) {
+            if (uri.equals("html:document") || uri.toLowerCase().startsWith("file:") || global.find(uri) != null) {
+                // the host page is always available, file-system URIs are fetched synchronously,
+                // and documents preloaded by the application are used as they are
+                continue;
+            }
+            outstanding++;
+            logger.fine("Prefetching document: " + uri);
+            HTTPHandler hr = new HTTPHandler();
+            hr.doGet(uri, new RequestCallback() {
+
+                public void onError(Request request, Throwable exception) {
+                    logger.fine("Prefetch failed for " + uri + ": " + exception.getMessage());
+                    completed();
+                }
+
+                public void onResponseReceived(Request request, Response response) {
+                    if (response.getStatusCode() == 200) {
+                        try {
+                            Node node = (Node)XMLDOM.parseXML(response.getText());
+                            DocumentInfo doc = config.makeSourceDocument(node, uri);
+                            documents.add(doc, uri);
+                        } catch (Exception e) {
+                            logger.fine("Prefetched document " + uri + " could not be parsed: " + e.getMessage());
+                        }
+                    } else {
+                        logger.fine("Prefetch failed for " + uri + " with status code: " + response.getStatusCode());
+                    }
+                    completed();
+                }
+            });
+            if (hr.getResponseState() == HTTPHandler.State.ERROR) {
+                // the request could not be sent, so no callback will follow
+                outstanding--;
+            }
+        }
+        return outstanding > 0;
+    }
+
+    /**
+     * Ask whether all the requests issued have completed
+     * @return true if there are no outstanding requests
+     */
+
+    public boolean isComplete() {
+        return outstanding == 0;
+    }
+
+    private void completed() {
+        if (--outstanding == 0) {
+            onCompletion.run();
+        }
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. 
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/. 
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
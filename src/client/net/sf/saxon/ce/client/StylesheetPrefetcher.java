@@ -0,0 +1,159 @@
+package client.net.sf.saxon.ce.client;
+
+import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper.DocType;
+import client.net.sf.saxon.ce.dom.XMLDOM;
+import client.net.sf.saxon.ce.lib.NamespaceConstant;
+import client.net.sf.saxon.ce.om.Axis;
+import client.net.sf.saxon.ce.om.DocumentInfo;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.pattern.NodeKindTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIterator;
+import client.net.sf.saxon.ce.tree.util.Navigator;
+import client.net.sf.saxon.ce.tree.util.URI;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.Response;
+
+import java.util.HashSet;
+import java.util.logging.Logger;
+
+/**
+ * Fetches the modules of a stylesheet that are incorporated using xsl:include and xsl:import,
+ * asynchronously and in parallel, before the stylesheet is compiled. The top-level declarations of the
+ * principal module are scanned for the href attributes of xsl:include and xsl:import, and each module
+ * that is fetched is scanned in the same way as it arrives, so that the whole module graph is requested
+ * as soon as each part of it is known. The modules are registered with the Configuration, where
+ * xsl:include and xsl:import will find them, instead of making a synchronous request for each one
+ * in turn while the stylesheet is being compiled.
+ * <p/>
+ * A module that cannot be fetched or parsed is simply left out: the error is then reported in the
+ * normal way when the compiler attempts to read it.
+ */
+
+public class StylesheetPrefetcher {
+
+    private static Logger logger = Logger.getLogger("StylesheetPrefetcher");
+
+    private Configuration config;
+    private int outstanding = 0;
+    private HashSet<String> requested = new HashSet<String>();
+    private Runnable onCompletion;
+
+    public StylesheetPrefetcher(Configuration config) {
+        this.config = config;
+    }
+
+    /**
+     * Issue requests for all the modules incorporated directly or indirectly by a stylesheet
+     * @param styleDoc the document node of the principal stylesheet module
+     * @param onCompletion called once all the requests issued have completed, successfully or otherwise.
+     * It is not called if the method returns false.
+     * @return true if one or more requests were issued, false if there is nothing to wait for
+     */
+
+    public boolean fetch(DocumentInfo styleDoc, Runnable onCompletion) {
+        this.onCompletion = onCompletion;
+        requested.add(styleDoc.getSystemId());
+        scan(styleDoc);
+        return outstanding > 0;
+    }
+
+    /**
+     * Issue requests for the modules named in the xsl:include and xsl:import declarations of a module
+     * @param doc the document node of the module
+     */
+
+    private void scan(DocumentInfo doc) {
+        NodeInfo top = (NodeInfo)doc.iterateAxis(Axis.CHILD, NodeKindTest.ELEMENT).next();
+        if (top == null || !NamespaceConstant.XSLT.equals(top.getURI())) {
+            // a literal result element used as a stylesheet has no includes or imports
+            return;
+        }
+        AxisIterator decls = top.iterateAxis(Axis.CHILD, NodeKindTest.ELEMENT);
+        while (true) {
+            NodeInfo decl = (NodeInfo)decls.next();
+            if (decl == null) {
+                break;
+            }
+            if (!NamespaceConstant.XSLT.equals(decl.getURI())) {
+                continue;
+            }
+            String local = decl.getLocalPart();
+            if (!(local.equals("include") || local.equals("import"))) {
+                continue;
+            }
+            String href = Navigator.getAttributeValue(decl, "", "href");
+            if (href == null) {
+                continue;
+            }
+            int hash = href.indexOf('#');
+            if (hash >= 0) {
+                href = href.substring(0, hash);
+            }
+            if (href.trim().length() == 0) {
+                continue;
+            }
+            String uri;
+            try {
+                uri = new URI(decl.getBaseURI()).resolve(href.trim()).toString();
+            } catch (URI.URISyntaxException e) {
+                continue;
+            }
+            if (!requested.add(uri) || uri.toLowerCase().startsWith("file:") || config.isPrefetchedModule(uri)) {
+                // already requested, or available; file-system URIs are fetched synchronously
+                continue;
+            }
+            request(uri);
+        }
+    }
+
+    private void request(final String uri) {
+        outstanding++;
+        logger.fine("Prefetching stylesheet module: " + uri);
+        HTTPHandler hr = new HTTPHandler();
+        hr.doGet(uri, new RequestCallback() {
+
+            public void onError(Request request, Throwable exception) {
+                logger.fine("Prefetch failed for " + uri + ": " + exception.getMessage());
+                completed();
+            }
+
+            public void onResponseReceived(Request request, Response response) {
+                if (response.getStatusCode() == 200) {
+                    try {
+                        Document node = (Document)XMLDOM.parseXML(response.getText());
+                        if (node.getDocumentElement() != null) {
+                            DocumentInfo doc = new HTMLDocumentWrapper(node, uri, config, DocType.NONHTML);
+                            config.addPrefetchedModule(uri, doc);
+                            // request the modules this one incorporates before this request is counted as complete
+                            scan(doc);
+                        }
+                    } catch (Exception e) {
+                        logger.fine("Prefetched stylesheet module " + uri + " could not be parsed: " + e.getMessage());
+                    }
+                } else {
+                    logger.fine("Prefetch failed for " + uri + " with status code: " + response.getStatusCode());
+                }
+                completed();
+            }
+        });
+        if (hr.getResponseState() == HTTPHandler.State.ERROR) {
+            // the request could not be sent, so no callback will follow
+            outstanding--;
+        }
+    }
+
+    private void completed() {
+        if (--outstanding == 0) {
+            onCompletion.run();
+        }
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
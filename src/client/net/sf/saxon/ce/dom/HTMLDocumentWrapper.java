@@ -31,8 +31,19 @@ public class HTMLDocumentWrapper extends HTMLNodeWrapper implements DocumentInfo
     protected boolean domLevel3;
     private HashMap<String, Object> userData;
     private HashMap<String, HTMLNodeWrapper> idIndex;
+    private int idIndexEpoch;
     private boolean isHttpRequested;
 
+    // cache of wrappers already created for nodes in this document, or null if caching is disabled
+    private HashMap<Node, HTMLNodeWrapper> wrapperCache;
+    private int wrapperCacheEpoch;
+
+    // incremented whenever Saxon makes a change to a DOM, invalidating all wrapper caches
+    private static int mutationEpoch = 0;
+
+    // incremented whenever this document is refreshed, because it may have been changed by other scripts
+    private int refreshCount = 0;
+
     /**
      * Wrap a DOM Document or DocumentFragment node
      * @param doc a DOM Document or DocumentFragment node
@@ -174,6 +185,178 @@ public class HTMLDocumentWrapper extends HTMLNodeWrapper implements DocumentInfo
         }
     }
 
+    /**
+     * Get the positions in document order of a set of nodes in this document, by walking the DOM
+     * once. Sorting nodes by these positions avoids comparing the nodes pairwise, each comparison
+     * having to examine the ancestors and preceding siblings of both nodes.
+     * @param nodes the nodes whose positions are required. Each must be an element, text, comment or
+     * processing instruction node in this document, or the document node itself. Duplicates are allowed.
+     * @return an array of the same length as nodes, holding for each node a number that is less than
+     * the number for any node that follows it in document order, and equal to the number for the
+     * same node. Returns null if the positions cannot be determined in this way.
+     */
+
+    public int[] getDocumentOrderRanks(HTMLNodeWrapper[] nodes) {
+        if (!supportsDocumentPosition(node)) {
+            // DOM nodes cannot be used as hash keys
+            return null;
+        }
+        HashMap<Node, Integer> positions = new HashMap<Node, Integer>(nodes.length);
+        for (HTMLNodeWrapper n : nodes) {
+            if (n.docWrapper != this || !n.isPositionedInDOM()) {
+                return null;
+            }
+            positions.put(n.node, -1);
+        }
+        int remaining = positions.size();
+        int rank = 0;
+        Node n = node;
+        while (n != null && remaining > 0) {
+            Integer p = positions.get(n);
+            if (p != null && p < 0) {
+                positions.put(n, rank);
+                remaining--;
+            }
+            rank++;
+            Node next = n.getFirstChild();
+            while (next == null && n != node) {
+                next = n.getNextSibling();
+                if (next == null) {
+                    n = n.getParentNode();
+                }
+            }
+            n = next;
+        }
+        if (remaining > 0) {
+            // some nodes are no longer in the document
+            return null;
+        }
+        int[] ranks = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            ranks[i] = positions.get(nodes[i].node);
+        }
+        return ranks;
+    }
+
+    /**
+     * Enable or disable caching of node wrappers. When caching is enabled, navigating to the same
+     * DOM node more than once returns the same wrapper, so that the information it has already
+     * computed (such as its name code, parent and sibling position) is reused rather than
+     * recomputed. The cache is discarded whenever Saxon updates a DOM, but changes made to the
+     * DOM by other means while the document is being processed are not detected.
+     * <p/>
+     * Caching relies on DOM nodes being usable as hash keys, which is not the case for ActiveX
+     * XML documents in older versions of IE; it is therefore intended mainly for the host page.
+     * @param cache true if wrappers are to be cached
+     */
+
+    public void setWrapperCaching(boolean cache) {
+        if (cache) {
+            if (wrapperCache == null) {
+                wrapperCache = new HashMap<Node, HTMLNodeWrapper>(100);
+                wrapperCacheEpoch = mutationEpoch;
+            }
+        } else {
+            wrapperCache = null;
+        }
+    }
+
+    /**
+     * Ask whether node wrappers are cached
+     * @return true if caching of wrappers is enabled for this document
+     */
+
+    public boolean isWrapperCaching() {
+        return wrapperCache != null;
+    }
+
+    /**
+     * Get the wrapper previously created for a DOM node, if caching is enabled
+     * @param node the DOM node
+     * @return the cached wrapper, or null if there is none
+     */
+
+    HTMLNodeWrapper getCachedWrapper(Node node) {
+        if (wrapperCache == null) {
+            return null;
+        }
+        if (wrapperCacheEpoch != mutationEpoch) {
+            wrapperCache.clear();
+            wrapperCacheEpoch = mutationEpoch;
+            return null;
+        }
+        return wrapperCache.get(node);
+    }
+
+    /**
+     * Add a newly created wrapper to the cache, if caching is enabled
+     * @param node the DOM node
+     * @param wrapper the wrapper for the DOM node
+     */
+
+    void cacheWrapper(Node node, HTMLNodeWrapper wrapper) {
+        if (wrapperCache != null) {
+            wrapperCache.put(node, wrapper);
+        }
+    }
+
+    /**
+     * Discard the node wrappers and the ID index cached for this document
+     */
+
+    public void clearCaches() {
+        if (wrapperCache != null) {
+            wrapperCache.clear();
+        }
+        idIndex = null;
+    }
+
+    /**
+     * Discard all information derived from the content of this document, because the DOM may have
+     * been changed by means that Saxon cannot detect, such as other scripts on the page. As well as
+     * the cached node wrappers and ID index, this invalidates any key indexes built for the document
+     * (see {@link #getEpoch()}). The Configuration does this for the host page, and for the other
+     * documents whose wrappers it retains, once at the start of each transformation, since their
+     * wrappers are kept from one transformation to the next.
+     */
+
+    public void refresh() {
+        clearCaches();
+        refreshCount++;
+    }
+
+    /**
+     * Notify that Saxon has modified a DOM: this invalidates the node wrappers that have
+     * been cached for all documents, since their sibling positions and attributes may have changed
+     */
+
+    public static void notifyMutation() {
+        mutationEpoch++;
+    }
+
+    /**
+     * Get the current mutation epoch. This changes whenever Saxon may have modified a DOM, so
+     * information derived from the content of a DOM document (such as a key index) can be retained
+     * for as long as the epoch is unchanged.
+     * @return the current mutation epoch
+     */
+
+    public static int getMutationEpoch() {
+        return mutationEpoch;
+    }
+
+    /**
+     * Get the epoch of this document. This changes whenever Saxon may have modified a DOM, and
+     * whenever this document is refreshed, so information derived from the content of this document
+     * can be retained for as long as the epoch is unchanged.
+     * @return the current epoch of this document
+     */
+
+    public int getEpoch() {
+        // both counts only ever increase, so their sum changes whenever either does
+        return mutationEpoch + refreshCount;
+    }
+
     /**
      * Set the Configuration that contains this document
      */
@@ -229,10 +412,11 @@ public class HTMLDocumentWrapper extends HTMLNodeWrapper implements DocumentInfo
 	        }
 	        return wrap(el);
     	} else {
-            if (idIndex != null) {
+            if (idIndex != null && idIndexEpoch == mutationEpoch) {
                 return idIndex.get(id);
             } else {
                 idIndex = new HashMap();
+                idIndexEpoch = mutationEpoch;
                 AxisIterator iter = iterateAxis(Axis.DESCENDANT, NodeKindTest.ELEMENT);
                 boolean useNS = isNSok(node);
                 while (true) {
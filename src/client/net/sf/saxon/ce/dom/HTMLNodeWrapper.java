@@ -96,11 +96,22 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
 
     protected HTMLNodeWrapper makeWrapper(Node node, HTMLDocumentWrapper docWrapper,
                                    HTMLNodeWrapper parent, int index) {
-        HTMLNodeWrapper wrapper;
-        switch (node.getNodeType()) {
-        case Node.DOCUMENT_NODE:
-        case DOCUMENT_FRAGMENT_NODE:
+        short nodeType = node.getNodeType();
+        if (nodeType == Node.DOCUMENT_NODE || nodeType == DOCUMENT_FRAGMENT_NODE) {
             return docWrapper;
+        }
+        HTMLNodeWrapper wrapper = docWrapper.getCachedWrapper(node);
+        if (wrapper != null) {
+            // reuse the existing wrapper, adding any information supplied that it does not yet have
+            if (wrapper.parent == null) {
+                wrapper.parent = parent;
+            }
+            if (wrapper.index == -1) {
+                wrapper.index = index;
+            }
+            return wrapper;
+        }
+        switch (nodeType) {
         case Node.ELEMENT_NODE:
             wrapper = new HTMLNodeWrapper(node, parent, index);
             wrapper.nodeKind = Type.ELEMENT;
@@ -126,10 +137,10 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
         	wrapper.nodeKind = Type.PROCESSING_INSTRUCTION;
         	break;
         default:
-            short nodeType = node.getNodeType();
-            throw new IllegalArgumentException("Unsupported node type in DOM! " + node.getNodeType() + " instance " + node.toString());
+            throw new IllegalArgumentException("Unsupported node type in DOM! " + nodeType + " instance " + node.toString());
         }
         wrapper.docWrapper = docWrapper;
+        docWrapper.cacheWrapper(node, wrapper);
         return wrapper;
     }
     
@@ -310,6 +321,21 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
     */
 
     public int compareOrder(NodeInfo other) {
+        if (other instanceof HTMLNodeWrapper && isPositionedInDOM() && ((HTMLNodeWrapper)other).isPositionedInDOM()) {
+            // use the DOM's own comparison where it is available: it avoids counting preceding siblings
+            Node otherNode = ((HTMLNodeWrapper)other).node;
+            if (node == otherNode) {
+                return 0;
+            }
+            int position = compareDocumentPosition(node, otherNode);
+            if ((position & DOCUMENT_POSITION_DISCONNECTED) == 0) {
+                if ((position & DOCUMENT_POSITION_FOLLOWING) != 0) {
+                    return -1;
+                } else if ((position & DOCUMENT_POSITION_PRECEDING) != 0) {
+                    return +1;
+                }
+            }
+        }
         if (other instanceof SiblingCountingNode) {
             return Navigator.compareOrder(this, (SiblingCountingNode)other);
         } else {
@@ -318,6 +344,49 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
         }
     }
 
+    private final static int DOCUMENT_POSITION_DISCONNECTED = 1;
+    private final static int DOCUMENT_POSITION_PRECEDING = 2;
+    private final static int DOCUMENT_POSITION_FOLLOWING = 4;
+
+    /**
+     * Ask whether the position of this node in document order is the position of the underlying
+     * DOM node, as reported by the DOM. This is true for nodes that are children of their parent in
+     * the DOM (elements, text nodes, comments and processing instructions) and for the document node,
+     * but not for attributes and namespaces.
+     * @return true if the node's position can be obtained from the DOM
+     */
+
+    boolean isPositionedInDOM() {
+        switch (nodeKind) {
+            case Type.DOCUMENT:
+            case Type.ELEMENT:
+            case Type.TEXT:
+            case Type.COMMENT:
+            case Type.PROCESSING_INSTRUCTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Compare the positions of two DOM nodes using the DOM Level 3 method compareDocumentPosition
+     * @return the bit mask returned by the DOM, or zero if the method is not supported
+     */
+
+    private static native int compareDocumentPosition(Node a, Node b) /*-{
+        return (a.compareDocumentPosition ? a.compareDocumentPosition(b) : 0);
+    }-*/;
+
+    /**
+     * Ask whether a DOM node supports the DOM Level 3 method compareDocumentPosition. This is not
+     * the case for ActiveX XML documents in older versions of IE.
+     */
+
+    static native boolean supportsDocumentPosition(Node n) /*-{
+        return !!n.compareDocumentPosition;
+    }-*/;
+
     /**
     * Return the string value of the node. The interpretation of this depends on the type
     * of node. For an element it is the accumulated character content of the element,
@@ -851,6 +920,20 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
             }
         }
 
+        if ((axisNumber == Axis.DESCENDANT || axisNumber == Axis.DESCENDANT_OR_SELF) &&
+                nodeTest instanceof NameTest && nodeTest.getPrimitiveType() == Type.ELEMENT) {
+            // common case: use the browser to find the elements, avoiding wrappers for all other nodes
+            NodeList<Node> elements = getElementsByName(nodeTest.getFingerprint());
+            if (elements != null) {
+                AxisIterator iter = new ElementListEnumeration(elements);
+                if (axisNumber == Axis.DESCENDANT_OR_SELF && nodeTest.matches(this)) {
+                    iter = new PrependIterator(this, iter);
+                }
+                // the name test is applied again because the DOM's matching rules are not quite the same as XPath's
+                return new Navigator.AxisFilter(iter, nodeTest);
+            }
+        }
+
         if (docWrapper.getDocType() != DocType.NONHTML && axisNumber == Axis.ATTRIBUTE && nodeTest instanceof NameTest) {
             if (nodeKind == Type.ELEMENT) {
             	int fp = nodeTest.getFingerprint();
@@ -892,6 +975,45 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
     }
     
   
+    /**
+     * Use the DOM to get the descendant elements of this node that have a given name
+     * @param fingerprint the fingerprint of the required element name
+     * @return a node list containing (at least) all the descendant elements with this name, in document
+     * order; or null if the DOM cannot be used to find the elements
+     */
+
+    private NodeList<Node> getElementsByName(int fingerprint) {
+        if (nodeKind != Type.ELEMENT && nodeKind != Type.DOCUMENT) {
+            return null;
+        }
+        String uri = getNamePool().getURI(fingerprint);
+        String local = getNamePool().getLocalName(fingerprint);
+        switch (docWrapper.getDocType()) {
+            case HTML:
+                // element names are case-blind, and elements are in no namespace unless foreign
+                return (uri.length() == 0 ? getElementsByTagName(node, local) : null);
+            case XHTML:
+            case NONHTML:
+                return getElementsByTagNameNS(node, uri, local);
+            default:
+                return null;
+        }
+    }
+
+    private static native NodeList<Node> getElementsByTagName(Node node, String name) /*-{
+        if (node.getElementsByTagName) {
+            return node.getElementsByTagName(name);
+        }
+        return null;
+    }-*/;
+
+    private static native NodeList<Node> getElementsByTagNameNS(Node node, String uri, String local) /*-{
+        if (node.getElementsByTagNameNS) {
+            return node.getElementsByTagNameNS(uri, local);
+        }
+        return null;
+    }-*/;
+
     /**
      * Workaround for IE issue when getAttribute won't return
      * a value for the style attribute - IE supports non-standard outerHTML
@@ -1433,6 +1555,36 @@ public class HTMLNodeWrapper implements NodeInfo, VirtualNode, SiblingCountingNo
 
     } // end of class ChildEnumeration
 
+    /**
+     * The class ElementListEnumeration iterates over the elements in a DOM NodeList, such as
+     * that returned by getElementsByTagName(), creating wrappers only for the nodes actually returned
+     */
+
+    private final class ElementListEnumeration extends AxisIteratorImpl {
+
+        private NodeList<Node> list;
+        private int ix = 0;
+
+        public ElementListEnumeration(NodeList<Node> list) {
+            this.list = list;
+            position = 0;
+        }
+
+        public Item next() {
+            if (ix >= list.getLength()) {
+                position = -1;
+                return null;
+            }
+            position++;
+            return current = makeWrapper(list.getItem(ix++), docWrapper);
+        }
+
+        public SequenceIterator getAnother() {
+            return new ElementListEnumeration(list);
+        }
+
+    } // end of class ElementListEnumeration
+
 
 }
 
@@ -24,6 +24,11 @@ import com.google.gwt.dom.client.Text;
 
 /**
   * DOMWriter is a Receiver that attaches the result tree to a specified Node in the HTML DOM Document
+  * <p>
+  * When the attachment point is part of the live page, new nodes are not added to the page one at a
+  * time, since each insertion may cause the browser to recalculate styles and layout. Instead they are
+  * built in a detached DocumentFragment, which is attached to the page in a single operation when the
+  * content for that attachment point is complete.
   */
 
 public class HTMLWriter implements Receiver {
@@ -36,6 +41,12 @@ public class HTMLWriter implements Receiver {
     private int level = 0;
     private String systemId;
     private Node containerNode;
+    private boolean modified = false;     // true once anything has been written to the DOM
+    private int liveLevel = -1;           // the level of the deepest node known to be in the live page, or -1
+    private Node pendingParent = null;    // live node to which the pending fragment will be attached
+    private Node pendingFragment = null;  // detached fragment holding new children of pendingParent
+    private Node pendingNextSibling = null;
+    private int liveMutations = 0;
     private static Logger logger = Logger.getLogger("XSLT20Processor");
 
     /**
@@ -196,7 +207,13 @@ public class HTMLWriter implements Receiver {
      * Notify the end of a document node
      */
 
-    public void endDocument() throws XPathException {}
+    public void endDocument() throws XPathException {
+        flush();
+        if (modified) {
+            HTMLDocumentWrapper.notifyMutation();
+            logger.fine("Result written with " + liveMutations + " changes to the live page");
+        }
+    }
 
     /**
     * Start of an element.
@@ -224,6 +241,7 @@ public class HTMLWriter implements Receiver {
         if (element == null) {
             element = document.createElement(localName);
         }
+        modified = true;
         // special case for html element: write to the document node
         Controller controller = pipe.getController();
         if (controller != null && controller.getApiCommand() == APIcommand.UPDATE_HTML
@@ -236,28 +254,29 @@ public class HTMLWriter implements Receiver {
         		for (int n = 0; n < nodes.getLength(); n++) {
         			Node node = nodes.getItem(n);
         			node.removeFromParent();
+        			liveMutations++;
         		}
         	}
         	currentNode = element;
         	level++;
+        	if (liveLevel == level - 1) {
+        		// an existing element of the page
+        		liveLevel = level;
+        	}
         	return;
         }
-        if (nextSibling != null && level == 0) {
-            currentNode.insertBefore(element, nextSibling);
-        } else  {
-        	try {
-        		currentNode.appendChild(element);
-        	} catch(JavaScriptException err) {
-        		if(uri.equals(NamespaceConstant.IXSL)) {
-	        				XPathException xpe = new XPathException("Error on adding IXSL element to the DOM, the IXSL namespace should be added to the 'extension-element-prefixes' list.");
-	        				throw(xpe);
-        		} else {       			
-        			throw(new XPathException(err.getMessage()));
-        		}
-        	} catch(Exception exc) {
-        		XPathException xpe = new XPathException("Error on startElement in HTMLWriter for element '" + localName + "': " + exc.getMessage());
-        		throw(xpe);
+        try {
+        	attach(element);
+        } catch(JavaScriptException err) {
+        	if(uri.equals(NamespaceConstant.IXSL)) {
+	        		XPathException xpe = new XPathException("Error on adding IXSL element to the DOM, the IXSL namespace should be added to the 'extension-element-prefixes' list.");
+	        		throw(xpe);
+        	} else {       			
+        		throw(new XPathException(err.getMessage()));
         	}
+        } catch(Exception exc) {
+        	XPathException xpe = new XPathException("Error on startElement in HTMLWriter for element '" + localName + "': " + exc.getMessage());
+        	throw(xpe);
         }
         currentNode = element;
         level++;
@@ -286,6 +305,9 @@ public class HTMLWriter implements Receiver {
         String uri = namePool.getURI(nameCode);
         String val = value.toString();
         Element element = (Element)currentNode;
+        if (level == liveLevel) {
+            liveMutations++;
+        }
 
         // must be HTML write mode
         if (mode != WriteMode.XML && NamespaceConstant.HTML_PROP.equals(uri)) {
@@ -439,6 +461,10 @@ public class HTMLWriter implements Receiver {
     */
 
     public void endElement () throws XPathException {
+        if (level == liveLevel) {
+            flush();
+            liveLevel--;
+        }
         currentNode = currentNode.getParentNode();
         level--;
     }
@@ -453,14 +479,11 @@ public class HTMLWriter implements Receiver {
         if (level == 0 && nextSibling == null && Whitespace.isWhite(chars)) {
             return; // no action for top-level whitespace
         }
+        modified = true;
 
         try {
 	        Text text = document.createTextNode(chars.toString());
-	        if (nextSibling != null && level == 0) {
-	            currentNode.insertBefore(text, nextSibling);
-	        } else {
-	            currentNode.appendChild(text);
-	        }
+	        attach(text);
         } catch(Exception e) {
         	String desc = (nextSibling != null && level == 0) ? "inserting" : "appending";
         	throw(new XPathException("DOM error " + desc + " text node with value: '" + chars.toString() + "' to node with name: " + currentNode.getNodeName()));
@@ -498,25 +521,65 @@ public class HTMLWriter implements Receiver {
     }
     
     public void addNode(JavaScriptObject newNode, String nodeType) throws XPathException {
+        modified = true;
         try {
-	        if (nextSibling != null && level == 0) {
-	        	insertBefore(nextSibling, newNode);
-	        } else {
-	            appendChild(currentNode, newNode);
-	        }
+	        attach((Node)newNode.cast());
         } catch(Exception e) {
         	String desc = (nextSibling != null && level == 0) ? "inserting" : "appending";
         	throw(new XPathException("DOM error " + desc + " " + nodeType + " node to node with name: " + currentNode.getNodeName()));
         }
     }
     
-    public final native JavaScriptObject appendChild(JavaScriptObject parent, JavaScriptObject newChild) /*-{
-       return parent.appendChild(newChild);
-    }-*/;
-    
-    public final native JavaScriptObject insertBefore(JavaScriptObject targetNode, JavaScriptObject newNode) /*-{
-       return targetNode.insertBefore(newNode);
-    }-*/;
+    /**
+     * Add a new node as the last child of the current node (or, at the top level, before the
+     * next sibling if there is one). If the current node is in the live page, the new node is
+     * added to a detached fragment instead, to be attached later by {@link #flush()}
+     * @param child the new node
+     */
+
+    private void attach(Node child) {
+        if (level == liveLevel) {
+            if (pendingParent != currentNode) {
+                flush();
+                pendingParent = currentNode;
+                pendingNextSibling = (level == 0 ? nextSibling : null);
+                pendingFragment = HTMLDocumentWrapper.createDocumentFragment(document);
+            }
+            pendingFragment.appendChild(child);
+        } else if (nextSibling != null && level == 0) {
+            currentNode.insertBefore(child, nextSibling);
+        } else {
+            currentNode.appendChild(child);
+        }
+    }
+
+    /**
+     * Attach any nodes held in a detached fragment to the live page
+     */
+
+    private void flush() {
+        if (pendingParent != null) {
+            if (pendingNextSibling != null) {
+                pendingParent.insertBefore(pendingFragment, pendingNextSibling);
+            } else {
+                pendingParent.appendChild(pendingFragment);
+            }
+            liveMutations++;
+            pendingParent = null;
+            pendingFragment = null;
+            pendingNextSibling = null;
+        }
+    }
+
+    /**
+     * Get the number of changes made directly to the live page in writing this result. Each
+     * attachment of a fragment counts as one change, however many nodes it contains.
+     * @return the number of insertions, removals and attribute changes applied to nodes in the live page
+     */
+
+    public int getLiveMutationCount() {
+        return liveMutations;
+    }
 
     /**
      * Set the attachment point for the new subtree
@@ -541,6 +604,7 @@ public class HTMLWriter implements Receiver {
         } else {
             document = currentNode.getOwnerDocument();            
         }
+        liveLevel = (Document.get().isOrHasChild(node) ? 0 : -1);
         if (mode == WriteMode.NONE) {
         	Controller.APIcommand cmd = pipe.getController().getApiCommand();
         	mode = (cmd == APIcommand.TRANSFORM_TO_DOCUMENT || cmd == APIcommand.TRANSFORM_TO_FRAGMENT)?
@@ -574,12 +574,11 @@ public abstract class Calculator  {
 
     private static class DecimalPlusDecimal extends Calculator {
         public AtomicValue compute(AtomicValue a, AtomicValue b, XPathContext c) throws XPathException {
-            BigDecimal d = ((NumericValue)a).getDecimalValue().add(((NumericValue)b).getDecimalValue());
             if (a instanceof IntegerValue && b instanceof IntegerValue) {
-                return new IntegerValue(d);
-            } else {
-                return new DecimalValue(d);
+                return ((IntegerValue)a).plus((IntegerValue)b);
             }
+            BigDecimal d = ((NumericValue)a).getDecimalValue().add(((NumericValue)b).getDecimalValue());
+            return new DecimalValue(d);
         }
         public AtomicType getResultType(AtomicType typeA, AtomicType typeB) {
             return BuiltInAtomicType.DECIMAL;
@@ -592,12 +591,11 @@ public abstract class Calculator  {
 
     private static class DecimalMinusDecimal extends Calculator {
         public AtomicValue compute(AtomicValue a, AtomicValue b, XPathContext c) throws XPathException {
-            BigDecimal d = ((NumericValue)a).getDecimalValue().subtract(((NumericValue)b).getDecimalValue());
             if (a instanceof IntegerValue && b instanceof IntegerValue) {
-                return new IntegerValue(d);
-            } else {
-                return new DecimalValue(d);
+                return ((IntegerValue)a).minus((IntegerValue)b);
             }
+            BigDecimal d = ((NumericValue)a).getDecimalValue().subtract(((NumericValue)b).getDecimalValue());
+            return new DecimalValue(d);
         }
         public AtomicType getResultType(AtomicType typeA, AtomicType typeB) {
             return BuiltInAtomicType.DECIMAL;
@@ -610,12 +608,11 @@ public abstract class Calculator  {
 
     private static class DecimalTimesDecimal extends Calculator {
         public AtomicValue compute(AtomicValue a, AtomicValue b, XPathContext c) throws XPathException {
-            BigDecimal d = ((NumericValue)a).getDecimalValue().multiply(((NumericValue)b).getDecimalValue());
             if (a instanceof IntegerValue && b instanceof IntegerValue) {
-                return new IntegerValue(d);
-            } else {
-                return new DecimalValue(d);
+                return ((IntegerValue)a).times((IntegerValue)b);
             }
+            BigDecimal d = ((NumericValue)a).getDecimalValue().multiply(((NumericValue)b).getDecimalValue());
+            return new DecimalValue(d);
         }
         public AtomicType getResultType(AtomicType typeA, AtomicType typeB) {
             return BuiltInAtomicType.DECIMAL;
@@ -685,6 +682,9 @@ public abstract class Calculator  {
 
     private static class DecimalIdivDecimal extends Calculator {
         public AtomicValue compute(AtomicValue a, AtomicValue b, XPathContext c) throws XPathException {
+            if (a instanceof IntegerValue && b instanceof IntegerValue) {
+                return ((IntegerValue)a).idiv((IntegerValue)b);
+            }
             final BigDecimal A = ((NumericValue)a).getDecimalValue();
             final BigDecimal B = ((NumericValue)b).getDecimalValue();
             if (B.signum() == 0) {
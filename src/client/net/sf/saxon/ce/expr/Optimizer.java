@@ -1,9 +1,22 @@
 package client.net.sf.saxon.ce.expr;
 
 import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.LogController;
+import client.net.sf.saxon.ce.expr.instruct.Executable;
+import client.net.sf.saxon.ce.expr.instruct.GlobalVariable;
+import client.net.sf.saxon.ce.expr.instruct.SlotManager;
 import client.net.sf.saxon.ce.expr.sort.DocumentSorter;
+import client.net.sf.saxon.ce.lib.NamespaceConstant;
+import client.net.sf.saxon.ce.om.StructuredQName;
 import client.net.sf.saxon.ce.trans.XPathException;
 import client.net.sf.saxon.ce.type.TypeHierarchy;
+import client.net.sf.saxon.ce.value.SequenceType;
+import com.google.gwt.logging.client.LogConfiguration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
 
 /**
  * This class performs optimizations that vary between different versions of the Saxon product.
@@ -19,6 +32,8 @@ public class Optimizer  {
     protected Configuration config;
     private int optimizationLevel = FULL_OPTIMIZATION;
 
+    private static Logger logger = Logger.getLogger("Optimizer");
+
     /**
      * Create an Optimizer.
      * @param config the Saxon configuration
@@ -110,6 +125,156 @@ public class Optimizer  {
         return sorter;
     }
 
+    /**
+     * Extract subexpressions from the body of a template or function into new global variables,
+     * so that they are evaluated at most once per transformation rather than once for each call.
+     * A subexpression is extracted if it depends on nothing that can vary from one call to the next:
+     * not the focus, not the XSLT context (current(), current-group(), regex-group()), not local
+     * variables or parameters, not stylesheet functions, and not the run-time environment; and if it
+     * is free of side-effects and does not create new nodes. Such expressions are not lifted by the
+     * loop-lifting done in xsl:for-each and in predicates, because that stops at the boundary of the
+     * template. The global variables are evaluated lazily, on first reference, so an error in the
+     * extracted expression is reported only if the expression would have been evaluated anyway.
+     * <p>Each extraction is logged at level FINE.</p>
+     * @param body the body of the template or function. It must not yet have had slots allocated
+     * to its local variables.
+     * @param visitor the expression visitor
+     * @return the body after rewriting: this is a new expression only if the whole body was extracted
+     */
+
+    public Expression promoteExpressionsToGlobal(Expression body, ExpressionVisitor visitor) {
+        Executable exec = visitor.getExecutable();
+        if (exec == null || (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled())) {
+            // extracting an expression would change the order of trace events
+            return body;
+        }
+        if (isPromotableToGlobal(body)) {
+            return makeGlobalVariable(body, exec);
+        }
+        promoteSubExpressionsToGlobal(body, exec);
+        return body;
+    }
+
+    /**
+     * Extract subexpressions of a given expression into global variables where possible
+     * @param parent the expression whose subexpressions are to be examined
+     * @param exec the executable
+     * @return true if any subexpression was changed
+     */
+
+    private boolean promoteSubExpressionsToGlobal(Expression parent, Executable exec) {
+        List<Expression> children = new ArrayList<Expression>();
+        for (Iterator<Expression> iter = parent.iterateSubExpressions(); iter.hasNext();) {
+            children.add(iter.next());
+        }
+        boolean changed = false;
+        for (Expression child : children) {
+            if (isPromotableToGlobal(child)) {
+                parent.replaceSubExpression(child, makeGlobalVariable(child, exec));
+                changed = true;
+            } else {
+                changed |= promoteSubExpressionsToGlobal(child, exec);
+            }
+        }
+        if (changed) {
+            parent.resetLocalStaticProperties();
+        }
+        return changed;
+    }
+
+    /**
+     * Decide whether an expression is a candidate for extraction into a global variable
+     * @param exp the expression
+     * @return true if the expression has no dependencies on its context, has no side-effects,
+     * does not create new nodes, and is not already a literal or a variable reference. The side-effects
+     * of a subexpression, such as a call on ixsl:get(), are not inherited by its parent, so the whole
+     * subtree is examined.
+     */
+
+    private static boolean isPromotableToGlobal(Expression exp) {
+        if (exp instanceof Literal || exp instanceof VariableReference || exp instanceof TraceExpression) {
+            // a trace expression is retained so that the body it wraps is still traced or timed
+            return false;
+        }
+        int properties = exp.getSpecialProperties();
+        return (exp.getDependencies() & StaticProperty.DEPENDENCY_MASK) == 0 &&
+                (properties & StaticProperty.NON_CREATIVE) != 0 &&
+                !hasSideEffects(exp);
+    }
+
+    /**
+     * Determine whether an expression or any of its subexpressions has side-effects
+     * @param exp the expression
+     * @return true if the HAS_SIDE_EFFECTS property is set on the expression or on any expression
+     * within it
+     */
+
+    private static boolean hasSideEffects(Expression exp) {
+        if ((exp.getSpecialProperties() & StaticProperty.HAS_SIDE_EFFECTS) != 0) {
+            return true;
+        }
+        for (Iterator<Expression> iter = exp.iterateSubExpressions(); iter.hasNext();) {
+            if (hasSideEffects(iter.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a global variable bound to a given expression
+     * @param exp the expression to which the variable is to be bound
+     * @param exec the executable
+     * @return a reference to the new global variable
+     */
+
+    private VariableReference makeGlobalVariable(Expression exp, Executable exec) {
+        TypeHierarchy th = config.getTypeHierarchy();
+        SlotManager globals = exec.getGlobalVariableMap();
+        StructuredQName name = new StructuredQName(
+                "gg", NamespaceConstant.SAXON_GENERATED_GLOBAL, "gg" + globals.getNumberOfVariables());
+        SequenceType type = SequenceType.makeSequenceType(exp.getItemType(th), exp.getCardinality());
+        int properties = exp.getSpecialProperties() & StaticProperty.NOT_UNTYPED;
+
+        GlobalVariable var = new GlobalVariable();
+        var.setExecutable(exec);
+        ExpressionTool.copyLocationInfo(exp, var);
+        var.init(exp, name);
+        var.setRequiredType(type);
+        var.setReferenceCount(10);
+        var.setSlotNumber(globals.allocateSlotNumber(name));
+        setContainer(exp, var);
+        var.setContainer(var);
+
+        // the expression may bind range variables of its own
+        SlotManager frame = new SlotManager();
+        int slots = ExpressionTool.allocateSlots(exp, 0, frame);
+        if (slots > 0) {
+            frame.setNumberOfVariables(slots);
+            var.setContainsLocals(frame);
+        }
+
+        VariableReference ref = new VariableReference(var);
+        ref.setStaticType(type, null, properties);
+        ExpressionTool.copyLocationInfo(exp, ref);
+        logger.fine("Promoted to global variable $" + name.getDisplayName() + ": " + exp.toString());
+        return ref;
+    }
+
+    /**
+     * Set the container of an expression and all its subexpressions, regardless of the container
+     * they were in previously
+     * @param exp the expression
+     * @param container the new container
+     */
+
+    private static void setContainer(Expression exp, Container container) {
+        exp.setContainer(container);
+        for (Iterator<Expression> iter = exp.iterateSubExpressions(); iter.hasNext();) {
+            setContainer(iter.next(), container);
+        }
+    }
+
 }
 
 // This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. 
@@ -10,6 +10,8 @@ import client.net.sf.saxon.ce.type.TypeHierarchy;
 import client.net.sf.saxon.ce.value.Cardinality;
 import client.net.sf.saxon.ce.value.SequenceType;
 
+import java.util.logging.Logger;
+
 /**
 * PromotionOffer is an object used transiently during compilation of an expression. It contains
 * information passed by a containing expression to its subexpressions, when looking for subexpressions
@@ -67,6 +69,8 @@ public class PromotionOffer  {
 
     public static final int REPLACE_CURRENT = 14;
 
+    private static Logger logger = Logger.getLogger("Optimizer");
+
     /**
      * The optimizer in use
      */
@@ -255,6 +259,8 @@ public class PromotionOffer  {
         int properties = child.getSpecialProperties()&StaticProperty.NOT_UNTYPED;
         var.setStaticType(type, null, properties);
         ExpressionTool.copyLocationInfo(containingExpression, var);
+        logger.fine("Promoted out of loop to local variable $" + let.getVariableQName().getDisplayName() +
+                ": " + child.toString());
         return var;
     }
 
@@ -86,17 +86,14 @@ public class RangeExpression extends BinaryExpression {
             Value v0 = ((Literal)operand0).getValue();
             Value v1 = ((Literal)operand1).getValue();
             if (v0 instanceof IntegerValue && v1 instanceof IntegerValue &&
-                    ((IntegerValue) v0).getDecimalValue().compareTo(DecimalValue.BIG_DECIMAL_MAX_INT) < 0 &&
-                    ((IntegerValue) v0).getDecimalValue().compareTo(DecimalValue.BIG_DECIMAL_MIN_INT) > 0 &&
-                    ((IntegerValue) v1).getDecimalValue().compareTo(DecimalValue.BIG_DECIMAL_MAX_INT) < 0 &&
-                    ((IntegerValue) v1).getDecimalValue().compareTo(DecimalValue.BIG_DECIMAL_MIN_INT) > 0) {
-                int i0 = ((IntegerValue)v0).intValue();
-                int i1 = ((IntegerValue)v1).intValue();
+                    ((IntegerValue)v0).isSmall() && ((IntegerValue)v1).isSmall()) {
+                int i0 = ((IntegerValue)v0).getIntValue();
+                int i1 = ((IntegerValue)v1).getIntValue();
                 Literal result;
                 if (i0 > i1) {
                     result = Literal.makeEmptySequence();
                 } else if (i0 == i1) {
-                    result = Literal.makeLiteral(new IntegerValue(new BigDecimal(i0)));
+                    result = Literal.makeLiteral(IntegerValue.makeIntegerValue(i0));
                 } else {
                     result = Literal.makeLiteral(new IntegerRange(i0, i1));
                 }
@@ -143,6 +140,16 @@ public class RangeExpression extends BinaryExpression {
         }
         NumericValue v2 = (NumericValue)av2;
 
+        if (v1 instanceof IntegerValue && v2 instanceof IntegerValue &&
+                ((IntegerValue)v1).isSmall() && ((IntegerValue)v2).isSmall()) {
+            int i1 = ((IntegerValue)v1).getIntValue();
+            int i2 = ((IntegerValue)v2).getIntValue();
+            if (i1 > i2) {
+                return EmptyIterator.getInstance();
+            }
+            return new RangeIterator(i1, i2);
+        }
+
         if (v1.compareTo(v2) > 0) {
             return EmptyIterator.getInstance();
         }
@@ -39,14 +39,14 @@ public class RangeIterator implements SequenceIterator,
         if (++currentValue > limit) {
             return null;
         }
-        return new IntegerValue(currentValue);
+        return IntegerValue.makeIntegerValue(currentValue);
     }
 
     public Item current() {
         if (currentValue > limit) {
             return null;
         } else {
-            return new IntegerValue(currentValue);
+            return IntegerValue.makeIntegerValue(currentValue);
         }
     }
 
@@ -238,6 +238,22 @@ public class TraceExpression extends Instruction implements InstructionInfo {
         return this;
     }
 
+    /**
+     * Get the TraceListener to be notified of the execution of this expression. This is the listener
+     * used for tracing when trace is enabled in the log; otherwise it is the listener registered with
+     * the Controller, if any, for example to time the execution of templates and functions
+     * @param context the dynamic execution context
+     * @return the TraceListener, or null if execution is not being traced
+     */
+
+    private static TraceListener getTraceListener(XPathContext context) {
+        if (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled()) {
+            return LogController.getTraceListener();
+        }
+        Controller controller = context.getController();
+        return (controller == null ? null : controller.getTraceListener());
+    }
+
     /**
      * Execute this instruction, with the possibility of returning tail calls if there are any.
      * This outputs the trace information via the registered TraceListener,
@@ -247,10 +263,8 @@ public class TraceExpression extends Instruction implements InstructionInfo {
      * @throws net.sf.saxon.trans.XPathException
      */
     public TailCall processLeavingTail(XPathContext context) throws XPathException {
-        Controller controller = context.getController();
-        assert controller != null;
-        if (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled()) {
-        	TraceListener listener = LogController.getTraceListener();
+        TraceListener listener = getTraceListener(context);
+        if (listener != null) {
 	    	listener.enter(getInstructionInfo(), context);
 	    	child.process(context);
 	    	listener.leave(getInstructionInfo());
@@ -344,10 +358,11 @@ public class TraceExpression extends Instruction implements InstructionInfo {
 
     public Item evaluateItem(XPathContext context) throws XPathException {
     	Item result;
-    	if (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled()) {
-    		LogController.getTraceListener().enter(getInstructionInfo(), context);
+    	TraceListener listener = getTraceListener(context);
+    	if (listener != null) {
+    		listener.enter(getInstructionInfo(), context);
     		result = child.evaluateItem(context);
-    		LogController.getTraceListener().leave(getInstructionInfo());
+    		listener.leave(getInstructionInfo());
     	} else {
     		result = child.evaluateItem(context);
     	}
@@ -371,10 +386,11 @@ public class TraceExpression extends Instruction implements InstructionInfo {
     /*@NotNull*/
     public SequenceIterator iterate(XPathContext context) throws XPathException {
     	SequenceIterator result;
-    	if (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled()) {
-    		LogController.getTraceListener().enter(getInstructionInfo(), context);
+    	TraceListener listener = getTraceListener(context);
+    	if (listener != null) {
+    		listener.enter(getInstructionInfo(), context);
     		result = child.iterate(context);
-    		LogController.getTraceListener().leave(getInstructionInfo());
+    		listener.leave(getInstructionInfo());
     		
     	} else {
     		result = child.iterate(context);
@@ -434,10 +450,11 @@ public class TraceExpression extends Instruction implements InstructionInfo {
      */
 
     public void evaluatePendingUpdates(XPathContext context, PendingUpdateList pul) throws XPathException {
-    	if (LogConfiguration.loggingIsEnabled() && LogController.traceIsEnabled()) {
-    		LogController.getTraceListener().enter(getInstructionInfo(), context);
+    	TraceListener listener = getTraceListener(context);
+    	if (listener != null) {
+    		listener.enter(getInstructionInfo(), context);
     		child.evaluatePendingUpdates(context, pul);
-    		LogController.getTraceListener().leave(getInstructionInfo());
+    		listener.leave(getInstructionInfo());
     	} else {
     		child.evaluatePendingUpdates(context, pul);
     	}
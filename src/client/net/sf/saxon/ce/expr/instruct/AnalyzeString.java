@@ -346,7 +346,8 @@ public class AnalyzeString extends Instruction {
         CharSequence input = select.evaluateAsString(context);
 
         String flagstr = flags.evaluateAsString(context).toString();
-        ARegularExpression re = new ARegularExpression(regex.evaluateAsString(context), flagstr, "XP20", null);
+        ARegularExpression re = context.getConfiguration().getRegexCache().getRegularExpression(
+                regex.evaluateAsString(context), flagstr, "XP20");
         if (re.matches("")) {
             dynamicError("The regular expression must not be one that matches a zero-length string",
                     "XTDE1150", context);
@@ -11,6 +11,7 @@ import client.net.sf.saxon.ce.trans.XPathException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 /**
  * A compiled stylesheet or a query in executable form.
@@ -40,6 +41,9 @@ public class Executable {
     // a boolean, true if the executable represents a stylesheet that uses xsl:result-document
     private boolean createsSecondaryResult = false;
 
+    // absolute URIs of documents read using doc() or document() with a literal argument
+    private HashSet<String> prefetchURIs = null;
+
 
     /**
      * Create a new Executable (a collection of stylesheet modules and/or query modules)
@@ -204,6 +208,30 @@ public class Executable {
         return createsSecondaryResult;
     }
 
+    /**
+     * Register the absolute URI of a document that is known at compile time to be read by the
+     * doc() or document() function. Such documents can be fetched in parallel, before the
+     * transformation starts.
+     * @param uri the absolute URI of the document, without any fragment identifier
+     */
+
+    public void addPrefetchURI(String uri) {
+        if (prefetchURIs == null) {
+            prefetchURIs = new HashSet<String>(5);
+        }
+        prefetchURIs.add(uri);
+    }
+
+    /**
+     * Get the URIs of documents that are known at compile time to be read by the doc()
+     * or document() function
+     * @return the set of absolute document URIs, or null if there are none
+     */
+
+    public Set<String> getPrefetchURIs() {
+        return prefetchURIs;
+    }
+
 }
 
 // This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. 
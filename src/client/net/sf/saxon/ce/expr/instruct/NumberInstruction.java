@@ -3,6 +3,7 @@ package client.net.sf.saxon.ce.expr.instruct;
 import client.net.sf.saxon.ce.Configuration;
 import client.net.sf.saxon.ce.expr.*;
 import client.net.sf.saxon.ce.expr.number.NumberFormatter;
+import client.net.sf.saxon.ce.expr.number.PictureCache;
 import client.net.sf.saxon.ce.functions.NumberFn;
 import client.net.sf.saxon.ce.lib.Numberer;
 import client.net.sf.saxon.ce.om.Item;
@@ -567,8 +568,14 @@ public class NumberInstruction extends Expression {
 
         NumberFormatter nf;
         if (formatter == null) {              // format not known until run-time
-            nf = new NumberFormatter();
-            nf.prepare(format.evaluateAsString(context).toString());
+            String picture = format.evaluateAsString(context).toString();
+            PictureCache cache = context.getConfiguration().getPictureCache();
+            nf = (NumberFormatter)cache.get(PictureCache.NUMBER_INSTRUCTION, picture, null);
+            if (nf == null) {
+                nf = new NumberFormatter();
+                nf.prepare(picture);
+                cache.put(PictureCache.NUMBER_INSTRUCTION, picture, null, nf);
+            }
         } else {
             nf = formatter;
         }
@@ -22,6 +22,7 @@ import client.net.sf.saxon.ce.sxpath.AbstractStaticContext;
 import client.net.sf.saxon.ce.trans.XPathException;
 import client.net.sf.saxon.ce.trans.update.DeleteAction;
 import client.net.sf.saxon.ce.trans.update.InsertAction;
+import client.net.sf.saxon.ce.trans.update.PatchAction;
 import client.net.sf.saxon.ce.trans.update.PendingUpdateList;
 import client.net.sf.saxon.ce.tree.iter.AxisIterator;
 import client.net.sf.saxon.ce.tree.iter.SingleNodeIterator;
@@ -58,10 +59,12 @@ public class ResultDocument extends Instruction  {
     private Expression methodExpression;
     private Expression content;
     private NamespaceResolver nsResolver;
+    private String keyAttribute = "id";
     private Logger logger = Logger.getLogger("Xstl20Processor");
 
     public final static int APPEND_CONTENT = 0;
     public final static int REPLACE_CONTENT = 1;
+    public final static int PATCH_CONTENT = 2;
 
     /**
      * Create a result-document instruction
@@ -94,6 +97,16 @@ public class ResultDocument extends Instruction  {
         adoptChildExpression(content);
     }
 
+    /**
+     * Set the name of the attribute used to match new elements with existing elements when the
+     * content of an HTML element is patched (method="ixsl:patch-content")
+     * @param keyAttribute the attribute name, by default "id"
+     */
+
+    public void setKeyAttribute(String keyAttribute) {
+        this.keyAttribute = keyAttribute;
+    }
+
     /**
      * Simplify an expression. This performs any static optimization (by rewriting the expression
      * as a different expression). The default implementation does nothing.
@@ -243,6 +256,8 @@ public class ResultDocument extends Instruction  {
             if ("replace-content".equals(methodQ.getLocalName())) {
                 // TODO: check the namespace URI is NamespaceConstant.IXSL
                 action = REPLACE_CONTENT;
+            } else if ("patch-content".equals(methodQ.getLocalName())) {
+                action = PATCH_CONTENT;
             }
         }
 
@@ -393,7 +408,12 @@ public class ResultDocument extends Instruction  {
 	            }
 	        }
 	
-	        list.add(new InsertAction(container, targetNode, InsertAction.LAST));
+	        if (action == PATCH_CONTENT) {
+	            // compare the new content with the existing content, and change only what differs
+	            list.add(new PatchAction(container, targetNode, keyAttribute));
+	        } else {
+	            list.add(new InsertAction(container, targetNode, InsertAction.LAST));
+	        }
         }
         //controller.setResultTree(absoluteResultURI.toString(), root);
         return null;
@@ -5,6 +5,7 @@ import java.util.Iterator;
 
 import com.google.gwt.core.client.JavaScriptObject;
 
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.dom.HTMLNodeWrapper;
 import client.net.sf.saxon.ce.js.IXSLFunction;
 import client.net.sf.saxon.ce.om.Item;
@@ -152,6 +153,7 @@ public class SetProperty extends Instruction {
         Object content = eval(select, context);      
         JavaScriptObject clientObject = (JavaScriptObject)eval(targetObject, context);       		
         String member = (String)eval(name, context);
+        HTMLDocumentWrapper.notifyMutation();
         try {
         IXSLFunction.setProperty(clientObject, member, content);
         } catch (Exception e){
@@ -22,6 +22,15 @@ import java.util.Iterator;
 
 public class Template extends Procedure  {
 
+    /**
+     * Value of the event throttle indicating that every event is processed as it occurs
+     */
+    public static final int NO_EVENT_THROTTLE = 0;
+    /**
+     * Value of the event throttle indicating that events are processed at most once per animation frame
+     */
+    public static final int THROTTLE_TO_ANIMATION_FRAME = -1;
+
     // TODO: change the calling mechanism for named templates to use positional parameters
     // in the same way as functions. For templates that have both a match and a name attribute,
     // create a match template as a wrapper around the named template, resulting in separate
@@ -36,6 +45,7 @@ public class Template extends Procedure  {
     private boolean hasRequiredParams;
     private boolean bodyIsTailCallReturner;
     private SequenceType requiredType;
+    private int eventThrottle = NO_EVENT_THROTTLE;
 
     /**
      * Create a template
@@ -120,6 +130,30 @@ public class Template extends Procedure  {
         return hasRequiredParams;
     }
 
+    /**
+     * Request that, when this template rule handles user interface events (in an ixsl:on* mode), a
+     * rapid succession of events is coalesced, so that the template is applied only to the most recent
+     * event for a given target, at most once in each interval. Other template rules in the same mode
+     * are not affected.
+     * @param throttle {@link #THROTTLE_TO_ANIMATION_FRAME} to process events at most once per
+     * animation frame, a positive number of milliseconds, or {@link #NO_EVENT_THROTTLE}
+     */
+
+    public void setEventThrottle(int throttle) {
+        eventThrottle = throttle;
+    }
+
+    /**
+     * Ask how events handled by this template rule are to be coalesced
+     * @return {@link #NO_EVENT_THROTTLE} if every event is to be processed,
+     * {@link #THROTTLE_TO_ANIMATION_FRAME} if events are to be processed at most once per animation
+     * frame, or otherwise the minimum interval in milliseconds between processing of successive events
+     */
+
+    public int getEventThrottle() {
+        return eventThrottle;
+    }
+
     /**
      * Set the required type to be returned by this template
      * @param type the required type as defined in the "as" attribute on the xsl:template element
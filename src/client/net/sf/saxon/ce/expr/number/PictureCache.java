@@ -0,0 +1,162 @@
+package client.net.sf.saxon.ce.expr.number;
+
+import client.net.sf.saxon.ce.trans.DecimalSymbols;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of analyzed picture strings, held by the Configuration. The functions format-number(),
+ * format-date(), format-time() and format-dateTime(), and the xsl:number instruction, analyze their
+ * picture string each time they are evaluated unless it is known statically; the cache ensures that a
+ * picture that is used repeatedly (typically one held in a variable) is only analyzed once. An analyzed
+ * picture holds no state relating to a particular value being formatted, so it can safely be shared.
+ * <p/>
+ * Each kind of picture has its own analyzed form, which the cache holds without interpreting it. A
+ * picture for format-number() is analyzed with respect to a particular set of decimal format symbols,
+ * which therefore form part of the key; the other kinds of picture are analyzed independently of the
+ * language used for formatting.
+ * <p/>
+ * The cache is bounded: when it is full, the least recently used entry is discarded.
+ */
+
+public class PictureCache {
+
+    /**
+     * The kind of picture used by format-number()
+     */
+    public static final int FORMAT_NUMBER = 0;
+
+    /**
+     * The kind of picture used by format-date(), format-time() and format-dateTime()
+     */
+    public static final int FORMAT_DATE = 1;
+
+    /**
+     * The kind of picture used by the format attribute of xsl:number
+     */
+    public static final int NUMBER_INSTRUCTION = 2;
+
+    private int capacity;
+    private int hits = 0;
+    private int misses = 0;
+    private LinkedHashMap<Key, Object> cache;
+
+    /**
+     * The key of an entry in the cache
+     */
+
+    private static class Key {
+        private int kind;
+        private String picture;
+        private DecimalSymbols symbols;
+
+        public Key(int kind, String picture, DecimalSymbols symbols) {
+            this.kind = kind;
+            this.picture = picture;
+            this.symbols = symbols;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return kind == k.kind && picture.equals(k.picture) &&
+                    (symbols == null ? k.symbols == null : symbols.equals(k.symbols));
+        }
+
+        public int hashCode() {
+            return picture.hashCode() ^ kind ^ (symbols == null ? 0 : symbols.hashCode());
+        }
+    }
+
+    /**
+     * Create a cache
+     * @param capacity the maximum number of analyzed pictures to be retained
+     */
+
+    public PictureCache(int capacity) {
+        this.capacity = capacity;
+        cache = new LinkedHashMap<Key, Object>(capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                return size() > PictureCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get an analyzed picture from the cache
+     * @param kind the kind of picture, for example {@link #FORMAT_NUMBER}
+     * @param picture the picture string as supplied
+     * @param symbols the decimal format symbols used to analyze the picture, for format-number();
+     * otherwise null
+     * @return the analyzed picture, or null if it is not in the cache, in which case the caller
+     * should analyze the picture and add it to the cache using {@link #put}
+     */
+
+    public Object get(int kind, String picture, DecimalSymbols symbols) {
+        Object analyzed = cache.get(new Key(kind, picture, symbols));
+        if (analyzed == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return analyzed;
+    }
+
+    /**
+     * Add an analyzed picture to the cache. Pictures that are invalid should not be cached.
+     * @param kind the kind of picture, for example {@link #FORMAT_NUMBER}
+     * @param picture the picture string as supplied
+     * @param symbols the decimal format symbols used to analyze the picture, for format-number();
+     * otherwise null
+     * @param analyzed the analyzed picture
+     */
+
+    public void put(int kind, String picture, DecimalSymbols symbols, Object analyzed) {
+        cache.put(new Key(kind, picture, symbols), analyzed);
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required a picture to be analyzed
+     * @return the number of cache misses
+     */
+
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of analyzed pictures currently held in the cache
+     * @return the size of the cache
+     */
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Discard all entries in the cache, and reset the counters
+     */
+
+    public void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -1,4 +1,6 @@
 package client.net.sf.saxon.ce.expr.sort;
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
+import client.net.sf.saxon.ce.dom.HTMLNodeWrapper;
 import client.net.sf.saxon.ce.om.Item;
 import client.net.sf.saxon.ce.om.NodeInfo;
 import client.net.sf.saxon.ce.om.SequenceIterator;
@@ -9,6 +11,8 @@ import client.net.sf.saxon.ce.value.SequenceExtent;
 * DocumentOrderIterator takes as input an iteration of nodes in any order, and
 * returns as output an iteration of the same nodes in document order, eliminating
 * any duplicates.
+* <p>A large set of nodes from a single DOM document is sorted using positions obtained by walking
+* the DOM once, rather than by comparing the nodes pairwise.</p>
 */
 
 public final class DocumentOrderIterator implements SequenceIterator, Sortable {
@@ -16,6 +20,7 @@ public final class DocumentOrderIterator implements SequenceIterator, Sortable {
     private SequenceIterator iterator;
     private SequenceExtent sequence;
     private NodeOrderComparer comparer;
+    private int[] ranks;        // positions of the nodes in document order, if known
     private NodeInfo current = null;
     private int position = 0;
 
@@ -30,13 +35,42 @@ public final class DocumentOrderIterator implements SequenceIterator, Sortable {
         sequence = new SequenceExtent(base);
         //System.err.println("sort into document order: sequence length = " + sequence.getLength());
         if (sequence.getLength()>1) {
+            if (sequence.getLength() >= RANKING_THRESHOLD) {
+                ranks = getDocumentOrderRanks(sequence);
+            }
             //QuickSort.sort(this, 0, sequence.getLength()-1);
             GenericSorter.quickSort(0, sequence.getLength(), this);
             //GenericSorter.mergeSort(0, sequence.getLength(), this);
+            ranks = null;
         }
         iterator = sequence.iterate();
     }
 
+    /**
+     * The number of nodes below which it is cheaper to compare nodes pairwise than to walk the DOM
+     */
+
+    private static final int RANKING_THRESHOLD = 50;
+
+    /**
+     * Get the positions in document order of the nodes in a sequence, if they are all in the same
+     * DOM document
+     * @param sequence the nodes
+     * @return the positions of the nodes, or null if they cannot be obtained
+     */
+
+    private static int[] getDocumentOrderRanks(SequenceExtent sequence) {
+        HTMLNodeWrapper[] nodes = new HTMLNodeWrapper[sequence.getLength()];
+        for (int i = 0; i < nodes.length; i++) {
+            Item item = sequence.itemAt(i);
+            if (!(item instanceof HTMLNodeWrapper)) {
+                return null;
+            }
+            nodes[i] = (HTMLNodeWrapper)item;
+        }
+        return ((HTMLDocumentWrapper)nodes[0].getDocumentRoot()).getDocumentOrderRanks(nodes);
+    }
+
     /**
     * Private constructor used only by getAnother()
     */
@@ -50,6 +84,9 @@ public final class DocumentOrderIterator implements SequenceIterator, Sortable {
 
     public int compare(int a, int b) {
         //System.err.println("compare " + a + " with " + b);
+        if (ranks != null) {
+            return (ranks[a] < ranks[b] ? -1 : (ranks[a] == ranks[b] ? 0 : +1));
+        }
         return comparer.compare((NodeInfo)sequence.itemAt(a),
                                 (NodeInfo)sequence.itemAt(b));
     }
@@ -60,6 +97,11 @@ public final class DocumentOrderIterator implements SequenceIterator, Sortable {
 
     public void swap(int a, int b) {
         sequence.swap(a, b);
+        if (ranks != null) {
+            int r = ranks[a];
+            ranks[a] = ranks[b];
+            ranks[b] = r;
+        }
     }
 
     // Implement the SequenceIterator as a wrapper around the underlying iterator
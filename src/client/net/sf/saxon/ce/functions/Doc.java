@@ -58,12 +58,16 @@ public class Doc extends SystemFunction {
 
     /**
      * preEvaluate: this method suppresses compile-time evaluation unless a configuration option has been
-     * set to allow early evaluation.
+     * set to allow early evaluation. A literal URI is registered for prefetching before the transformation
+     * starts, unless the document is to be read once only.
      * @param visitor an expression visitor
      */
 
     public Expression preEvaluate(ExpressionVisitor visitor) {
-         return this;
+        if (!readOnce && argument[0] instanceof StringLiteral) {
+            DocumentFn.registerForPrefetch(visitor, ((StringLiteral)argument[0]).getStringValue(), expressionBaseURI);
+        }
+        return this;
     }
 
     public int computeCardinality() {
@@ -3,6 +3,7 @@ package client.net.sf.saxon.ce.functions;
 import client.net.sf.saxon.ce.Configuration;
 import client.net.sf.saxon.ce.Controller;
 import client.net.sf.saxon.ce.expr.*;
+import client.net.sf.saxon.ce.expr.instruct.Executable;
 import client.net.sf.saxon.ce.expr.sort.DocumentOrderIterator;
 import client.net.sf.saxon.ce.expr.sort.GlobalOrderComparer;
 import client.net.sf.saxon.ce.om.*;
@@ -81,14 +82,43 @@ public class DocumentFn extends SystemFunction {
     }
 
     /**
-    * preEvaluate:
+    * preEvaluate: the document is not read at compile time, but if the URI is a string literal
+    * it is registered with the executable so that it can be fetched before the transformation starts
      * @param visitor an expression visitor
      */
 
     public Expression preEvaluate(ExpressionVisitor visitor) {
+        if (argument.length == 1 && argument[0] instanceof StringLiteral) {
+            registerForPrefetch(visitor, ((StringLiteral)argument[0]).getStringValue(), expressionBaseURI);
+        }
         return this;
     }
 
+    /**
+     * Register a document URI that is known statically with the Executable, so that the document
+     * can be fetched asynchronously (and in parallel with other such documents) before the
+     * transformation starts
+     * @param visitor the expression visitor, used to locate the Executable
+     * @param href the relative URI, possibly including a fragment identifier
+     * @param baseURI the static base URI of the calling expression
+     */
+
+    public static void registerForPrefetch(ExpressionVisitor visitor, String href, String baseURI) {
+        Executable exec = visitor.getExecutable();
+        if (exec == null || baseURI == null) {
+            return;
+        }
+        int hash = href.indexOf('#');
+        if (hash >= 0) {
+            href = href.substring(0, hash);
+        }
+        if (href.length() == 0) {
+            // document('') refers to the stylesheet itself, which is already loaded
+            return;
+        }
+        exec.addPrefetchURI(computeDocumentKey(href, baseURI).toString());
+    }
+
 
     /**
     * iterate() handles evaluation of the function:
@@ -190,13 +220,8 @@ public class DocumentFn extends SystemFunction {
 
         // see if the document is already loaded
 
-        DocumentInfo doc = config.getGlobalDocumentPool().find(documentKey);
-        if (doc != null) {
-            return doc;
-        }
-
         DocumentPool pool = controller.getDocumentPool();
-        doc = pool.find(documentKey);
+        DocumentInfo doc = pool.find(documentKey);
         if (doc != null) {
             return getFragment(doc, fragmentId, c);
         }
@@ -212,6 +237,13 @@ public class DocumentFn extends SystemFunction {
             throw err;
         }
 
+        // see if the document has been preloaded by the application
+
+        doc = config.getGlobalDocumentPool().find(documentKey);
+        if (doc != null) {
+            return getFragment(doc, fragmentId, c);
+        }
+
         try {
 
             if (pool.isMarkedUnavailable(documentKey)) {
@@ -222,7 +254,10 @@ public class DocumentFn extends SystemFunction {
                 throw err;
             }
 
-            DocumentInfo newdoc = config.buildDocument(documentKey.toString());
+            DocumentInfo newdoc = controller.takePrefetchedDocument(documentKey);
+            if (newdoc == null) {
+                newdoc = config.buildSourceDocument(documentKey.toString());
+            }
             controller.registerDocument(newdoc, documentKey);
             controller.addUnavailableOutputDestination(documentKey);
             return getFragment(newdoc, fragmentId, c);
@@ -4,6 +4,7 @@ import client.net.sf.saxon.ce.Configuration;
 import client.net.sf.saxon.ce.expr.ExpressionVisitor;
 import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.expr.number.Numberer_en;
+import client.net.sf.saxon.ce.expr.number.PictureCache;
 import client.net.sf.saxon.ce.lib.Numberer;
 import client.net.sf.saxon.ce.om.Item;
 import client.net.sf.saxon.ce.trans.Err;
@@ -15,6 +16,7 @@ import com.google.gwt.regexp.shared.MatchResult;
 import com.google.gwt.regexp.shared.RegExp;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 
 /**
  * Implement the format-date(), format-time(), and format-dateTime() functions
@@ -103,12 +105,50 @@ public class FormatDate extends SystemFunction {
             sb.append("[Language: en]");
         }
 
+        Object[] parts = getPicture(format, context);
+        for (int p = 0; p < parts.length; p++) {
+            if (parts[p] instanceof String) {
+                sb.append((String)parts[p]);
+            } else {
+                sb.append(formatComponent(value, (PictureComponent)parts[p], numberer, country, context));
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Get the analyzed form of a date picture, from the picture cache if the same picture
+     * has been used before
+     * @param format the supplied format picture
+     * @param context the XPath dynamic evaluation context
+     * @return an array whose members are either strings, representing literal text to be copied
+     * to the result, or PictureComponent objects, representing variable markers
+     */
+
+    private static Object[] getPicture(String format, XPathContext context) throws XPathException {
+        PictureCache cache = context.getConfiguration().getPictureCache();
+        Object[] parts = (Object[])cache.get(PictureCache.FORMAT_DATE, format, null);
+        if (parts == null) {
+            parts = analyzePicture(format, context);
+            cache.put(PictureCache.FORMAT_DATE, format, null, parts);
+        }
+        return parts;
+    }
 
+    /**
+     * Analyze a date picture into literal text and variable markers
+     * @param format the supplied format picture
+     * @param context the XPath dynamic evaluation context
+     * @return the analyzed picture, as described for {@link #getPicture}
+     */
 
+    private static Object[] analyzePicture(String format, XPathContext context) throws XPathException {
+        ArrayList<Object> parts = new ArrayList<Object>();
+        FastStringBuffer literal = new FastStringBuffer(FastStringBuffer.TINY);
         int i = 0;
         while (true) {
             while (i < format.length() && format.charAt(i) != '[') {
-                sb.append(format.charAt(i));
+                literal.append(format.charAt(i));
                 if (format.charAt(i) == ']') {
                     i++;
                     if (i == format.length() || format.charAt(i) != ']') {
@@ -126,7 +166,7 @@ public class FormatDate extends SystemFunction {
             // look for '[['
             i++;
             if (i < format.length() && format.charAt(i) == '[') {
-                sb.append('[');
+                literal.append('[');
                 i++;
             } else {
                 int close = (i < format.length() ? format.indexOf("]", i) : -1);
@@ -136,25 +176,40 @@ public class FormatDate extends SystemFunction {
                     e.setXPathContext(context);
                     throw e;
                 }
+                if (literal.length() > 0) {
+                    parts.add(literal.toString());
+                    literal.setLength(0);
+                }
                 String componentFormat = format.substring(i, close);
-                sb.append(formatComponent(value, Whitespace.removeAllWhitespace(componentFormat),
-                        numberer, country, context));
+                parts.add(analyzeComponent(Whitespace.removeAllWhitespace(componentFormat), context));
                 i = close+1;
             }
         }
-        return sb;
+        if (literal.length() > 0) {
+            parts.add(literal.toString());
+        }
+        return parts.toArray();
+    }
+
+    /**
+     * A variable marker in a date picture, in analyzed form
+     */
+
+    private static class PictureComponent {
+        String component;       // the component specifier, for example "D"
+        String format;          // the presentation and width modifiers, defaulted if absent
+        String primary;         // the primary format token, for components formatted as numbers or names
+        String letterValue;
+        boolean ordinal;
+        int min;
+        int max;
     }
 
     private static RegExp componentPattern =
             RegExp.compile("([YMDdWwFHhmsfZzPCE])\\s*(.*)");
 
-    private static CharSequence formatComponent(CalendarValue value, CharSequence specifier,
-                                                Numberer numberer, String country, XPathContext context)
+    private static PictureComponent analyzeComponent(CharSequence specifier, XPathContext context)
     throws XPathException {
-        boolean ignoreDate = (value instanceof TimeValue);
-        boolean ignoreTime = (value instanceof DateValue);
-        DateTimeValue dtvalue = value.toDateTime();
-
         MatchResult matcher = componentPattern.exec(specifier.toString());
         if (matcher == null) {
             XPathException error = new XPathException("Unrecognized date/time component [" + specifier + ']');
@@ -193,6 +248,31 @@ public class FormatDate extends SystemFunction {
             }
         }
 
+        PictureComponent pc = new PictureComponent();
+        pc.component = component;
+        pc.format = format;
+        switch (component.charAt(0)) {
+            case 'Z':
+            case 'z':
+            case 'C':
+            case 'E':
+                // not formatted as a number or name
+                break;
+            default:
+                analyzeNumberFormat(pc, defaultFormat, context);
+        }
+        return pc;
+    }
+
+    private static CharSequence formatComponent(CalendarValue value, PictureComponent pc,
+                                                Numberer numberer, String country, XPathContext context)
+    throws XPathException {
+        boolean ignoreDate = (value instanceof TimeValue);
+        boolean ignoreTime = (value instanceof DateValue);
+        DateTimeValue dtvalue = value.toDateTime();
+        String component = pc.component;
+        String format = pc.format;
+
         switch (component.charAt(0)) {
         case'Y':       // year
             if (ignoreDate) {
@@ -205,7 +285,7 @@ public class FormatDate extends SystemFunction {
                 if (year < 0) {
                     year = 1 - year;
                 }
-                return formatNumber(component, year, format, defaultFormat, numberer, context);
+                return formatNumber(pc, year, numberer);
             }
         case'M':       // month
             if (ignoreDate) {
@@ -215,7 +295,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int month = dtvalue.getMonth();
-                return formatNumber(component, month, format, defaultFormat, numberer, context);
+                return formatNumber(pc, month, numberer);
             }
         case'D':       // day in month
             if (ignoreDate) {
@@ -225,7 +305,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int day = dtvalue.getDay();
-                return formatNumber(component, day, format, defaultFormat, numberer, context);
+                return formatNumber(pc, day, numberer);
             }
         case'd':       // day in year
             if (ignoreDate) {
@@ -235,7 +315,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int day = DateValue.getDayWithinYear(dtvalue.getYear(), dtvalue.getMonth(), dtvalue.getDay());
-                return formatNumber(component, day, format, defaultFormat, numberer, context);
+                return formatNumber(pc, day, numberer);
             }
         case'W':       // week of year
             if (ignoreDate) {
@@ -245,7 +325,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int week = DateValue.getWeekNumber(dtvalue.getYear(), dtvalue.getMonth(), dtvalue.getDay());
-                return formatNumber(component, week, format, defaultFormat, numberer, context);
+                return formatNumber(pc, week, numberer);
             }
         case'w':       // week in month
             if (ignoreDate) {
@@ -255,7 +335,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int week = DateValue.getWeekNumberWithinMonth(dtvalue.getYear(), dtvalue.getMonth(), dtvalue.getDay());
-                return formatNumber(component, week, format, defaultFormat, numberer, context);
+                return formatNumber(pc, week, numberer);
             }
         case'H':       // hour in day
             if (ignoreTime) {
@@ -265,7 +345,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 IntegerValue hour = (IntegerValue)value.getComponent(Component.HOURS);
-                return formatNumber(component, (int)hour.intValue(), format, defaultFormat, numberer, context);
+                return formatNumber(pc, (int)hour.intValue(), numberer);
             }
         case'h':       // hour in half-day (12 hour clock)
             if (ignoreTime) {
@@ -282,7 +362,7 @@ public class FormatDate extends SystemFunction {
                 if (hr == 0) {
                     hr = 12;
                 }
-                return formatNumber(component, hr, format, defaultFormat, numberer, context);
+                return formatNumber(pc, hr, numberer);
             }
         case'm':       // minutes
             if (ignoreTime) {
@@ -292,7 +372,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 IntegerValue min = (IntegerValue)value.getComponent(Component.MINUTES);
-                return formatNumber(component, (int)min.intValue(), format, defaultFormat, numberer, context);
+                return formatNumber(pc, (int)min.intValue(), numberer);
             }
         case's':       // seconds
             if (ignoreTime) {
@@ -302,7 +382,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 IntegerValue sec = (IntegerValue)value.getComponent(Component.WHOLE_SECONDS);
-                return formatNumber(component, (int)sec.intValue(), format, defaultFormat, numberer, context);
+                return formatNumber(pc, (int)sec.intValue(), numberer);
             }
         case'f':       // fractional seconds
             // ignore the format
@@ -313,7 +393,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int micros = (int)((IntegerValue)value.getComponent(Component.MICROSECONDS)).intValue();
-                return formatNumber(component, micros, format, defaultFormat, numberer, context);
+                return formatNumber(pc, micros, numberer);
             }
         case'Z':       // timezone in +hh:mm format, unless format=N in which case use timezone name
             if (value.hasTimezone()) {
@@ -359,7 +439,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int day = DateValue.getDayOfWeek(dtvalue.getYear(), dtvalue.getMonth(), dtvalue.getDay());
-                return formatNumber(component, day, format, defaultFormat, numberer, context);
+                return formatNumber(pc, day, numberer);
             }
         case'P':       // am/pm marker
             if (ignoreTime) {
@@ -369,7 +449,7 @@ public class FormatDate extends SystemFunction {
                 throw error;
             } else {
                 int minuteOfDay = dtvalue.getHour() * 60 + dtvalue.getMinute();
-                return formatNumber(component, minuteOfDay, format, defaultFormat, numberer, context);
+                return formatNumber(pc, minuteOfDay, numberer);
             }
         case'C':       // calendar
             return numberer.getCalendarName("AD");
@@ -403,9 +483,17 @@ public class FormatDate extends SystemFunction {
     private static RegExp digitsPattern =
             RegExp.compile("[0-9]+"); // was [0-9]* but this always returned a match - java: "\\p{Nd}*"
  
-    private static CharSequence formatNumber(String component, int value,
-                                             String format, boolean defaultFormat, Numberer numberer, XPathContext context)
+    /**
+     * Analyze the presentation and width modifiers of a component that is formatted as a number or name
+     * @param pc the variable marker, whose component and format are already set
+     * @param defaultFormat true if the presentation modifier was defaulted
+     * @param context the XPath dynamic evaluation context
+     */
+
+    private static void analyzeNumberFormat(PictureComponent pc, boolean defaultFormat, XPathContext context)
     throws XPathException {
+        String component = pc.component;
+        String format = pc.format;
         MatchResult matcher = formatPattern.exec(format);
         if (matcher == null) {
             XPathException error = new XPathException("Unrecognized format picture [" + component + format + ']');
@@ -428,8 +516,8 @@ public class FormatDate extends SystemFunction {
             primary = primary.substring(0, primary.length()-1);
             modifier = "o";
         }
-        String letterValue = ("t".equals(modifier) ? "traditional" : null);
-        String ordinal = ("o".equals(modifier) ? numberer.getOrdinalSuffixForDateTime(component) : null);
+        pc.letterValue = ("t".equals(modifier) ? "traditional" : null);
+        pc.ordinal = "o".equals(modifier);
         String widths = matcher.getGroup(2);
         if (widths == null) {
             widths = "";
@@ -485,7 +573,18 @@ public class FormatDate extends SystemFunction {
                 // if no max specified, use 4. An explicit greater value allows use of "noon" and "midnight"
                 max = 4;
             }
-        } else if ("f".equals(component)) {
+        }
+        pc.primary = primary;
+        pc.min = min;
+        pc.max = max;
+    }
+
+    private static CharSequence formatNumber(PictureComponent pc, int value, Numberer numberer) {
+        String component = pc.component;
+        String primary = pc.primary;
+        int min = pc.min;
+        int max = pc.max;
+        if ("f".equals(component)) {
             // value is supplied as integer number of microseconds
             String s;
             if (value==0) {
@@ -534,7 +633,8 @@ public class FormatDate extends SystemFunction {
             }
         }
 
-        String s = numberer.format(value, primary, null, letterValue, ordinal);
+        String ordinal = (pc.ordinal ? numberer.getOrdinalSuffixForDateTime(component) : null);
+        String s = numberer.format(value, primary, null, pc.letterValue, ordinal);
         int len = StringValue.getStringLength(s);
         while (len < min) {
             // assert: this can only happen as a result of width specifiers, in which case we're using ASCII digits
@@ -1,5 +1,6 @@
 package client.net.sf.saxon.ce.functions;
 import client.net.sf.saxon.ce.expr.*;
+import client.net.sf.saxon.ce.expr.number.PictureCache;
 import client.net.sf.saxon.ce.tree.linked.CharSlice;
 import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
 import client.net.sf.saxon.ce.om.Item;
@@ -37,7 +38,7 @@ public class FormatNumber extends SystemFunction {
         // held transiently at compile time if the picture is known statically
 
     private SubPicture[] subPictures = null;
-        // held if the picture is known statically
+        // held once evaluated if the picture and the decimal format are both known statically
 
     private transient boolean checked = false;
         // the second time checkArguments is called, it's a global check so the static context is inaccurate
@@ -181,12 +182,36 @@ public class FormatNumber extends SystemFunction {
         }
         SubPicture[] pics = subPictures;
         if (pics == null) {
-            String format = argument[1].evaluateItem(context).getStringValue();
-            pics = getSubPictures(format, dfs);
+            if (picture != null && decimalFormatSymbols != null) {
+                pics = subPictures = getSubPictures(picture, dfs);
+            } else {
+                String format = argument[1].evaluateItem(context).getStringValue();
+                pics = getCachedSubPictures(format, dfs, context);
+            }
         }
         return formatNumber(number, pics, dfs);
     }
 
+    /**
+     * Analyze a picture string into two sub-pictures, using the analysis held in the picture cache
+     * if the same picture has been used before with the same decimal format symbols
+     * @param picture the picture as written
+     * @param dfs the decimal format symbols
+     * @param context the dynamic evaluation context
+     * @return an array of two sub-pictures, as returned by {@link #getSubPictures}
+     */
+
+    private static SubPicture[] getCachedSubPictures(String picture, DecimalSymbols dfs, XPathContext context)
+            throws XPathException {
+        PictureCache cache = context.getConfiguration().getPictureCache();
+        SubPicture[] pics = (SubPicture[])cache.get(PictureCache.FORMAT_NUMBER, picture, dfs);
+        if (pics == null) {
+            pics = getSubPictures(picture, dfs);
+            cache.put(PictureCache.FORMAT_NUMBER, picture, dfs, pics);
+        }
+        return pics;
+    }
+
     /**
     * Evaluate in a general context
     */
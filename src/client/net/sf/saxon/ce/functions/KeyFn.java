@@ -201,12 +201,13 @@ public class KeyFn extends SystemFunction {
         if (Cardinality.allowsMany(expression.getCardinality())) {
             final XPathContext keyContext = context;
             final DocumentInfo document = doc;
+            final NodeInfo subtree = origin;
             final KeyDefinitionSet keySet = selectedKeySet;
             MappingFunction map = new MappingFunction() {
                 // Map a value to the sequence of nodes having that value as a key value
                 public SequenceIterator map(Item item) throws XPathException {
                     return keyManager.selectByKey(
-                            keySet, document, (AtomicValue)item, keyContext);
+                            keySet, document, subtree, (AtomicValue)item, keyContext);
                 }
             };
 
@@ -219,7 +220,7 @@ public class KeyFn extends SystemFunction {
                 if (keyValue == null) {
                     return EmptyIterator.getInstance();
                 }
-                allResults = keyManager.selectByKey(selectedKeySet, doc, keyValue, context);
+                allResults = keyManager.selectByKey(selectedKeySet, doc, origin, keyValue, context);
             } catch (XPathException e) {
                 e.maybeSetLocation(getSourceLocator());
                 throw e;
@@ -46,7 +46,8 @@ public class Matches extends SystemFunction {
         }
 
         try {
-            ARegularExpression re = new ARegularExpression(pat.getStringValueCS(), flags.toString(), "XP20", null);
+            ARegularExpression re = c.getConfiguration().getRegexCache().getRegularExpression(
+                    pat.getStringValueCS(), flags.toString(), "XP20");
             return BooleanValue.get(re.containsMatch(sv0.getStringValue()));
 
         } catch (XPathException err) {
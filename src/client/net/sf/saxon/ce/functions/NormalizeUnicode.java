@@ -45,23 +45,11 @@ public class NormalizeUnicode extends SystemFunction {
             }
         }
 
-        // fast path for ASCII strings: normalization is a no-op
-        boolean allASCII = true;
+        // the normalizer returns the string itself if it is already normalized, which is the common case
         CharSequence chars = sv.getStringValueCS();
-        for (int i=chars.length()-1; i>=0; i--) {
-            if (chars.charAt(i) > 127) {
-                allASCII = false;
-                break;
-            }
-        }
-        if (allASCII) {
-            return sv;
-        }
-
-
         Normalizer norm = new Normalizer(fb, c.getConfiguration());
-        CharSequence result = norm.normalize(sv.getStringValueCS());
-        return StringValue.makeStringValue(result);
+        CharSequence result = norm.normalize(chars);
+        return (result == chars ? sv : StringValue.makeStringValue(result));
     }
 
 }
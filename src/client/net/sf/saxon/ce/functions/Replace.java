@@ -49,7 +49,8 @@ public class Replace extends SystemFunction {
         }
 
         try {
-            ARegularExpression re = new ARegularExpression(arg1.getStringValueCS(), flags.toString(), "XP20", null);
+            ARegularExpression re = c.getConfiguration().getRegexCache().getRegularExpression(
+                    arg1.getStringValueCS(), flags.toString(), "XP20");
             // check that it's not a pattern that matches ""
             if (re.matches("")) {
                 dynamicError(
@@ -4,6 +4,7 @@ import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.om.Item;
 import client.net.sf.saxon.ce.trans.XPathException;
 import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+import client.net.sf.saxon.ce.tree.util.UTF16CharacterSet;
 import client.net.sf.saxon.ce.value.DoubleValue;
 import client.net.sf.saxon.ce.value.StringValue;
 
@@ -28,33 +29,45 @@ public class Substring extends SystemFunction {
         }
         String str = sv.getStringValue();
         double start = ((DoubleValue)argument[1].evaluateItem(context)).round().getDoubleValue();
-        double length;
+        double end;
         if (argument.length==2) {
-            length = (double)str.length();
+            end = Double.POSITIVE_INFINITY;
         } else {
-            length = ((DoubleValue)argument[2].evaluateItem(context)).round().getDoubleValue();
-            if (length < 0) {
-            	length = 0;
-            }
-        }
-        FastStringBuffer sb = new FastStringBuffer((int)length);
-        int i=0;
-        int pos=0;
-        while(i<start-1 && pos<str.length()) {
-            int c = (int)str.charAt(pos++);
-            if (c<55296 || c>56319) i++;    // don't count high surrogates, i.e. D800 to DBFF
+            end = start + ((DoubleValue)argument[2].evaluateItem(context)).round().getDoubleValue();
         }
-        int j=0;
-        while (j<length && pos<str.length()) {
-            char c = str.charAt(pos++);
-            sb.append(c);
-            if ((int)c<55296 || (int)c>56319) j++;    // don't count high surrogates, i.e. D800 to DBFF
+
+        // The result contains the characters at positions p such that start <= p < end. Convert these
+        // to zero-based offsets in code points, bounded by the length of the string in UTF-16 code units,
+        // which is never less than its length in code points. This also handles NaN and infinities: for
+        // example start+length is NaN when start is -INF and length is +INF, and the result is then empty.
+        int len = str.length();
+        double first = Math.max(start, 1);
+        double last = Math.min(end, len + 1);
+        if (!(first < last)) {
+            return StringValue.EMPTY_STRING;
         }
-        StringValue result = new StringValue(sb);
+        int from = (int)first - 1;
+        int to = (int)last - 1;
+
         if (sv.isKnownToContainNoSurrogates()) {
+            // code points and UTF-16 code units are the same, so there is no need to scan the string
+            StringValue result = StringValue.makeStringValue(str.substring(from, to));
             result.setContainsNoSurrogates();
+            return result;
+        }
+        int pos = 0;
+        for (int i = 0; i < from && pos < len; i++) {
+            pos += (UTF16CharacterSet.isHighSurrogate(str.charAt(pos)) ? 2 : 1);
+        }
+        FastStringBuffer sb = new FastStringBuffer(to - from);
+        for (int i = from; i < to && pos < len; i++) {
+            char c = str.charAt(pos++);
+            sb.append(c);
+            if (UTF16CharacterSet.isHighSurrogate(c) && pos < len) {
+                sb.append(str.charAt(pos++));
+            }
         }
-        return result;
+        return StringValue.makeStringValue(sb);
     }
 
 }
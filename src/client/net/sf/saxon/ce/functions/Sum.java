@@ -99,6 +99,11 @@ public class Sum extends Aggregate {
                     err.setLocator(location);
                     throw err;
                 }
+                if (sum instanceof IntegerValue && next instanceof IntegerValue) {
+                    // the common case: avoid the dynamic choice of calculator
+                    sum = ((IntegerValue)sum).plus((IntegerValue)next);
+                    continue;
+                }
                 //sum = ((NumericValue)sum).arithmetic(Token.PLUS, (NumericValue)next, context);
                 sum = ArithmeticExpression.compute(sum, Calculator.PLUS, next, context);
                 if (sum.isNaN() && sum instanceof DoubleValue) {
@@ -46,7 +46,7 @@ public class Tokenize extends SystemFunction  {
         }
 
         try {
-            ARegularExpression re = new ARegularExpression(pattern, flags.toString(), "XP20", null);
+            ARegularExpression re = c.getConfiguration().getRegexCache().getRegularExpression(pattern, flags.toString(), "XP20");
 
             // check that it's not a pattern that matches ""
             if (re.matches("")) {
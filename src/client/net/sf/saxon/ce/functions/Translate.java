@@ -31,6 +31,26 @@ public class Translate extends SystemFunction {
 
         StringValue sv3 = (StringValue)argument[2].evaluateItem(context);
 
+        if (!sv1.containsSurrogatePairs() && !sv2.containsSurrogatePairs() && !sv3.containsSurrogatePairs()) {
+            // the common case: work directly on the strings, without expanding them to arrays of code points
+            String s1 = sv1.getStringValue();
+            String s2 = sv2.getStringValue();
+            String s3 = sv3.getStringValue();
+            FastStringBuffer sb = new FastStringBuffer(s1.length());
+            for (int i=0; i<s1.length(); i++) {
+                char ch = s1.charAt(i);
+                int j = s2.indexOf(ch);
+                if (j < 0) {
+                    sb.append(ch);
+                } else if (j < s3.length()) {
+                    sb.append(s3.charAt(j));
+                }
+            }
+            StringValue result = StringValue.makeStringValue(sb);
+            result.setContainsNoSurrogates();
+            return result;
+        }
+
         int[] a1 = sv1.expand();
         int[] a2 = sv2.expand();
         int[] a3 = sv3.expand();
@@ -11,14 +11,14 @@ import client.net.sf.saxon.ce.tree.util.UTF16CharacterSet;
 public class Normalizer {
 
     /**
-     * Create a normalizer for a given form.
+     * Create a normalizer for a given form. The normalization data is not loaded until
+     * a string is found that cannot be shown to be normalized without it.
      * @param form the normalization form required: for example {@link Normalizer#C}, {@link Normalizer#D}
+     * @param config the Configuration, used to load the normalization data
      */
-    public Normalizer(byte form, Configuration config) throws XPathException {
+    public Normalizer(byte form, Configuration config) {
         this.form = form;
-        if (data == null) {
-            data = UnicodeDataParserFromXML.build(config); // load 1st time
-        }
+        this.config = config;
     }
     
    /**
@@ -45,11 +45,12 @@ public class Normalizer {
      * @param   target      the resulting normalized text
      * @return the modified target StringBuffer
     */
-    private StringBuffer normalize(CharSequence source, StringBuffer target) {
+    private StringBuffer normalize(CharSequence source, StringBuffer target) throws XPathException {
 
         if (form == NO_ACTION || source.length() == 0) {
             return new StringBuffer(source.toString());
         }
+        getData();
 
         // First decompose the source into target,
         // then compose if the form requires.
@@ -65,11 +66,59 @@ public class Normalizer {
     * Normalizes text according to the chosen form
     * @param   source      the original text, unnormalized
     * @return  target      the resulting normalized text
+    * @throws XPathException if the normalization data is needed and cannot be loaded
     */
-    public CharSequence normalize(CharSequence source) {
+    public CharSequence normalize(CharSequence source) throws XPathException {
+        if (form == NO_ACTION || isNormalized(source)) {
+            return source;
+        }
         return normalize(source, new StringBuffer(source.length()+8));
     }
 
+    /**
+     * Determines whether text is already in the chosen form, using the quick check algorithm
+     * of UAX #15: the text is normalized if the canonical classes of its characters are in order and
+     * every character is one that is always normalized. Characters below a threshold that depends on
+     * the form (in the case of NFC, every character below U+0300) are known to be normalized, so the
+     * normalization data is loaded only if the text contains other characters.
+     * @param   source      the text to be tested
+     * @return  true if the text is known to be normalized; false if it may not be
+     * @throws XPathException if the normalization data is needed and cannot be loaded
+     */
+    private boolean isNormalized(CharSequence source) throws XPathException {
+        int limit = (form == C ? 0x300 : form == D ? 0xC0 : 0xA0);
+        int lastClass = 0;
+        for (int i = 0; i < source.length();) {
+            int ch = source.charAt(i++);
+            if (ch < limit) {
+                lastClass = 0;
+                continue;
+            }
+            if (UTF16CharacterSet.isHighSurrogate(ch) && i < source.length()) {
+                ch = UTF16CharacterSet.combinePair((char)ch, source.charAt(i++));
+            }
+            NormalizerData data = getData();
+            int chClass = data.getCanonicalClass(ch);
+            if ((chClass != 0 && lastClass > chClass) || !data.isQuickCheckYes(ch, form)) {
+                return false;
+            }
+            lastClass = chClass;
+        }
+        return true;
+    }
+
+    /**
+     * Get the normalization data, loading it if this has not already been done
+     * @return the normalization data
+     * @throws XPathException if the data cannot be loaded
+     */
+    private NormalizerData getData() throws XPathException {
+        if (data == null) {
+            data = UnicodeDataParserFromXML.build(config); // load 1st time
+        }
+        return data;
+    }
+
     // ======================================
     //                  PRIVATES
     // ======================================
@@ -79,6 +128,11 @@ public class Normalizer {
      */
     private byte form;
 
+    /**
+     * The Configuration, used to load the normalization data.
+     */
+    private Configuration config;
+
     /**
     * Decomposes text, either canonical or compatibility,
     * replacing contents of the target buffer.
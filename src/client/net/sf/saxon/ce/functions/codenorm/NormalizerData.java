@@ -2,6 +2,8 @@ package client.net.sf.saxon.ce.functions.codenorm;
 
 import client.net.sf.saxon.ce.tree.util.UTF16CharacterSet;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 
@@ -12,6 +14,15 @@ public class NormalizerData {
     */
     public static final int NOT_COMPOSITE = '\uFFFF';
 
+    /**
+     * Bits in the property value held for each character, above the 8 bits holding its canonical class
+     */
+    private static final int
+        CANONICAL_DECOMPOSITION = 0x100,    // the character has a canonical decomposition
+        COMPATIBILITY_DECOMPOSITION = 0x200,// its compatibility decomposition differs from its canonical one
+        PRIMARY_COMPOSITE = 0x400,          // its decomposition is a starter and one other character, which compose to it
+        COMBINES_BACKWARDS = 0x800;         // it can be the second character of a composition
+
     /**
     * Gets the combining class of a character from the
     * Unicode Character Database.
@@ -19,8 +30,37 @@ public class NormalizerData {
     * @return          value from 0 to 255
     */
     public int getCanonicalClass(int ch) {
-        Integer i = canonicalClass.get(ch);
-        return (i==null ? 0 : i.intValue());
+        return getProperties(ch) & 0xff;
+    }
+
+    /**
+     * Ask whether a character can appear unchanged in a string that is in a given normalization form,
+     * regardless of the characters around it, provided that the canonical classes of the characters
+     * are in order. This is the "Yes" value of the NFC_QC, NFD_QC, NFKC_QC and NFKD_QC properties of
+     * UAX #15, except that some characters whose value is "Maybe" or "No" for NFKC_QC and NFKD_QC may
+     * also be reported as false.
+     * @param ch the character
+     * @param form the normalization form, for example {@link Normalizer#C}
+     * @return true if the character is known to be normalized
+     */
+    public boolean isQuickCheckYes(int ch, byte form) {
+        int props = getProperties(ch);
+        if ((form & Normalizer.COMPATIBILITY_MASK) != 0 && (props & COMPATIBILITY_DECOMPOSITION) != 0) {
+            return false;
+        }
+        if ((form & Normalizer.COMPOSITION_MASK) != 0) {
+            return (props & COMBINES_BACKWARDS) == 0 &&
+                    ((props & CANONICAL_DECOMPOSITION) == 0 || (props & PRIMARY_COMPOSITE) != 0);
+        } else {
+            return (props & CANONICAL_DECOMPOSITION) == 0;
+        }
+    }
+
+    private int getProperties(int ch) {
+        if (ch < 0 || ch > 0x10FFFF) {
+            return 0;
+        }
+        return properties[blockOffsets[ch >> 8] + (ch & 0xff)];
     }
 
     /**
@@ -73,11 +113,113 @@ public class NormalizerData {
      */
     NormalizerData(Map<Integer, Integer> canonicalClass, Map decompose,
       Map<Integer, Integer> compose, BitSet isCompatibility, BitSet isExcluded) {
-        this.canonicalClass = canonicalClass;
         this.decompose = decompose;
         this.compose = compose;
         this.isCompatibility = isCompatibility;
         this.isExcluded = isExcluded;
+        buildProperties(canonicalClass);
+    }
+
+    /**
+     * Build the two-stage table holding the canonical class and quick-check properties of each
+     * character. The code points are divided into blocks of 256; blockOffsets holds, for each block,
+     * the offset in the properties array of the values for that block, and blocks with the same
+     * values share the same entries, so that the many blocks in which every value is zero take no space.
+     * The table is built in a single pass over each of the maps read from the data file, and blocks
+     * are matched by their hash code, without building any strings.
+     * @param canonicalClass the canonical classes of the characters whose class is not zero
+     */
+    private void buildProperties(Map<Integer, Integer> canonicalClass) {
+        int blocks = 0x110000 >> 8;
+        int[][] values = new int[blocks][];
+        for (Map.Entry<Integer, Integer> e : canonicalClass.entrySet()) {
+            addProperties(values, e.getKey(), e.getValue() & 0xff);
+        }
+        for (Object k : decompose.keySet()) {
+            int ch = (Integer)k;
+            int p = 0;
+            if (hasCompatibilityMapping(ch)) {
+                p |= COMPATIBILITY_DECOMPOSITION;
+            }
+            if (!isCompatibility.get(ch)) {
+                p |= CANONICAL_DECOMPOSITION;
+                String decomp = (String)decompose.get(ch);
+                Integer firstClass = canonicalClass.get((int)decomp.charAt(0));
+                if (decomp.length() == 2 && (firstClass == null || firstClass == 0) &&
+                        getPairwiseComposition(decomp.charAt(0), decomp.charAt(1)) == ch) {
+                    p |= PRIMARY_COMPOSITE;
+                }
+            }
+            addProperties(values, ch, p);
+        }
+        for (int pair : compose.keySet()) {
+            if ((pair >>> 16) != 0) {
+                addProperties(values, pair & 0xffff, COMBINES_BACKWARDS);
+            }
+        }
+
+        // offset 0 holds the block in which every value is zero
+        blockOffsets = new int[blocks];
+        // maps the hash code of a block's values to the first block with those values
+        Map<Integer, Integer> firstBlock = new HashMap<Integer, Integer>();
+        boolean[] shared = new boolean[blocks];
+        int used = 256;
+        for (int b = 0; b < blocks; b++) {
+            if (values[b] != null) {
+                int hash = Arrays.hashCode(values[b]);
+                Integer first = firstBlock.get(hash);
+                if (first != null && Arrays.equals(values[b], values[first])) {
+                    blockOffsets[b] = blockOffsets[first];
+                    shared[b] = true;
+                } else {
+                    if (first == null) {
+                        firstBlock.put(hash, b);
+                    }
+                    blockOffsets[b] = used;
+                    used += 256;
+                }
+            }
+        }
+        properties = new int[used];
+        for (int b = 0; b < blocks; b++) {
+            if (values[b] != null && !shared[b]) {
+                System.arraycopy(values[b], 0, properties, blockOffsets[b], 256);
+            }
+        }
+    }
+
+    private static void addProperties(int[][] values, int ch, int bits) {
+        if (ch < 0 || ch > 0x10FFFF || bits == 0) {
+            return;
+        }
+        int[] block = values[ch >> 8];
+        if (block == null) {
+            block = values[ch >> 8] = new int[256];
+        }
+        block[ch & 0xff] |= bits;
+    }
+
+    /**
+     * Ask whether the compatibility decomposition of a character differs from its canonical
+     * decomposition: that is, whether its own decomposition mapping, or that of any character in
+     * its canonical decomposition, is a compatibility mapping
+     * @param ch the character
+     * @return true if the compatibility and canonical decompositions differ
+     */
+    private boolean hasCompatibilityMapping(int ch) {
+        String decomp = (String)decompose.get(ch);
+        if (decomp == null) {
+            return false;
+        }
+        if (isCompatibility.get(ch)) {
+            return true;
+        }
+        for (int i = 0; i < decomp.length(); i++) {
+            if (hasCompatibilityMapping(decomp.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -95,10 +237,16 @@ public class NormalizerData {
     }
 
     /**
-    * For now, just use IntHashtable
-    * Two-stage tables would be used in an optimized implementation.
+    * The first stage of the two-stage table of character properties: for each block of 256 characters,
+    * the offset in the second stage of the values for the block.
+    */
+    private int[] blockOffsets;
+
+    /**
+    * The second stage of the two-stage table of character properties: the canonical class of the
+    * character in the low-order 8 bits, and the quick-check bits above them.
     */
-    private Map<Integer, Integer> canonicalClass;
+    private int[] properties;
 
     /**
     * The main data table maps chars to a 32-bit int.
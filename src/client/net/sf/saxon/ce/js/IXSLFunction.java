@@ -2,7 +2,6 @@ package client.net.sf.saxon.ce.js;
 
 import client.net.sf.saxon.ce.Configuration;
 import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
-import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper.DocType;
 import client.net.sf.saxon.ce.dom.HTMLNodeWrapper;
 import client.net.sf.saxon.ce.dom.XMLDOM;
 import client.net.sf.saxon.ce.expr.*;
@@ -12,6 +11,7 @@ import client.net.sf.saxon.ce.om.SequenceIterator;
 import client.net.sf.saxon.ce.om.StructuredQName;
 import client.net.sf.saxon.ce.om.ValueRepresentation;
 import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.iter.ArrayIterator;
 import client.net.sf.saxon.ce.tree.iter.EmptyIterator;
 import client.net.sf.saxon.ce.tree.iter.JsArrayIterator;
 import client.net.sf.saxon.ce.tree.iter.SingletonIterator;
@@ -23,7 +23,6 @@ import client.net.sf.saxon.ce.value.StringValue;
 import com.google.gwt.core.client.JavaScriptException;
 import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.core.client.JsArray;
-import com.google.gwt.core.client.ScriptInjector;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Node;
 import com.google.gwt.user.client.Event;
@@ -38,8 +37,6 @@ public class IXSLFunction extends FunctionCall {
 
     private String localName;
     private Logger logger = Logger.getLogger("IXSLFunction");
-    
-    private static int injectCount = 0;
 
     public IXSLFunction(String localName, Expression[] arguments) {
         this.localName = localName;
@@ -188,6 +185,10 @@ public class IXSLFunction extends FunctionCall {
     	short nodeType = getNodeType(jsObj);
     	if (nodeType == -1) {
         	if (isJsArray(jsObj) && jsGetArrayLength(jsObj) > 1) {
+        		Document owner = getCommonOwnerDocument(jsObj);
+        		if (owner != null) {
+        			return convertNodeList(jsObj, config.getDocumentWrapper(owner));
+        		}
         		return new JsArrayIterator((JsArray)jsObj, config);
         	} else {
         		return SingletonIterator.makeIterator(new JSObjectValue(jsObj));
@@ -196,17 +197,53 @@ public class IXSLFunction extends FunctionCall {
 
         com.google.gwt.dom.client.Document page = ((Node)jsValue).getOwnerDocument();
         if (page == null ) {
-			 com.google.gwt.dom.client.Document doc = (Document)jsValue;
-			 DocType jsDocType = (doc == Document.get())? DocType.UNKNOWN : DocType.NONHTML; 
-			 HTMLDocumentWrapper docWrapper =  new HTMLDocumentWrapper(doc, doc.getURL(), config, jsDocType);
+			 HTMLDocumentWrapper docWrapper = config.getDocumentWrapper((Document)jsValue);
 			 return SingletonIterator.makeIterator(docWrapper);
         } else {
-			DocType jsDocType = (page == Document.get())? DocType.UNKNOWN : DocType.NONHTML; 
-	        HTMLDocumentWrapper htmlDoc = new HTMLDocumentWrapper(page, page.getURL(), config, jsDocType);
-	        HTMLNodeWrapper htmlNode = htmlDoc.wrap((Node) jsValue);
+	        HTMLNodeWrapper htmlNode = config.getDocumentWrapper(page).wrap((Node) jsValue);
 	        return SingletonIterator.makeIterator(htmlNode);
         }          
    }
+
+    /**
+     * Convert a JavaScript array or DOM NodeList whose members are all nodes in the same document
+     * to a sequence of nodes, wrapping all of them against the same document wrapper
+     * @param list the array or NodeList
+     * @param doc the wrapper for the document containing all the nodes
+     * @return an iterator over the wrapped nodes, in the order of the list
+     */
+
+    private static SequenceIterator convertNodeList(JavaScriptObject list, HTMLDocumentWrapper doc) {
+        int length = jsGetArrayLength(list);
+        Item[] items = new Item[length];
+        for (int i = 0; i < length; i++) {
+            items[i] = doc.wrap((Node)jsGetArrayItem(list, i));
+        }
+        return new ArrayIterator(items);
+    }
+
+    /**
+     * Determine whether all the members of a JavaScript array or DOM NodeList are nodes in the same document
+     * @param list the array or NodeList
+     * @return the document containing all the members, or null if any member is not a node,
+     * or if they are not all in the same document
+     */
+
+    private static native Document getCommonOwnerDocument(JavaScriptObject list) /*-{
+        var doc = null;
+        for (var i = 0; i < list.length; i++) {
+            var n = list[i];
+            if (n == null || n.nodeType == null) {
+                return null;
+            }
+            var d = (n.nodeType == 9 ? n : n.ownerDocument);
+            if (d == null || (doc != null && d !== doc)) {
+                return null;
+            }
+            doc = d;
+        }
+        return doc;
+    }-*/;
        
     
     private static native short getNodeType(JavaScriptObject obj) /*-{
@@ -271,26 +308,39 @@ public class IXSLFunction extends FunctionCall {
         }
     }
     
-       private SequenceIterator evaluateJsFunction(String script, XPathContext context) throws XPathException {
-	    	injectCount++;
-	    	String fnName = "fnName" + injectCount;
-	    	script = script.trim();
-	    	String fnScript = "function " + fnName + "() { return " + script + "; }";
-	    	JSObjectValue item =  new JSObjectValue(jsWindow());
-	    	JavaScriptObject target = (JavaScriptObject)convertToJavaScript(item);
-	        
-	        ScriptInjector.FromString fs = new ScriptInjector.FromString(fnScript);
-	        fs.setWindow(target);
-	        fs.inject();
-	        JavaScriptObject jsArgs = jsArray(0);
-	        try {
-		        Object result = getValueFromTypeValuePair(jsCall(target, fnName, jsArgs));
-		        return convertFromJavaScript(result, context.getConfiguration());
-	        } catch(JavaScriptException jexc) {
-	        	throw(new XPathException("JavaScriptException: " + jexc.getDescription() +
-	        			"\noccurred on evaluating:\n" + script));
-	        }
+    /**
+     * Evaluate a JavaScript expression supplied to ixsl:eval(). The script is compiled as the body of
+     * a function, which is held in the script cache of the Configuration so that a script evaluated
+     * repeatedly is only compiled once
+     * @param script the JavaScript expression
+     * @param context the dynamic evaluation context
+     * @return the result of the expression, converted to an XDM sequence
+     * @throws XPathException if the script cannot be compiled, or if evaluating it throws an exception
+     */
+
+    private SequenceIterator evaluateJsFunction(String script, XPathContext context) throws XPathException {
+        script = script.trim();
+        JavaScriptObject fn = context.getConfiguration().getScriptCache().getFunction(script);
+        try {
+            Object result = getValueFromTypeValuePair(jsApply(fn));
+            return convertFromJavaScript(result, context.getConfiguration());
+        } catch(JavaScriptException jexc) {
+            throw(new XPathException("JavaScriptException: " + jexc.getDescription() +
+                    "\noccurred on evaluating:\n" + script));
+        }
     }
+
+    /**
+     * Call a compiled ixsl:eval() script, with the host window as the value of <code>this</code>
+     * @param fn the JavaScript Function object
+     * @return the result of the call as a type/value pair
+     */
+
+    private static native JavaScriptObject jsApply(JavaScriptObject fn)
+    /*-{
+       var v = fn.call($wnd);
+       return { type: typeof v, value: v}
+    }-*/;
        
     public SequenceIterator iterate(XPathContext context) throws XPathException {
     	try {
@@ -299,6 +349,8 @@ public class IXSLFunction extends FunctionCall {
             return SingletonIterator.makeIterator(item);
 
         } else if (localName.equals("eval")) {
+        	// the script may modify the HTML page
+        	HTMLDocumentWrapper.notifyMutation();
         	String script = argument[0].evaluateAsString(context).toString();
     	    return evaluateJsFunction(script, context);
     	    
@@ -307,6 +359,7 @@ public class IXSLFunction extends FunctionCall {
         	JavaScriptObject target = (JavaScriptObject)convertToJavaScript(itemVal);
         	if (target != null) {
 	            String method = argument[1].evaluateAsString(context).toString();
+	            HTMLDocumentWrapper.notifyMutation();
 	            JavaScriptObject jsArgs = jsArray(argument.length - 2);
 	            for (int i=2; i<argument.length; i++) {
 	                ValueRepresentation val = SequenceExtent.makeSequenceExtent(argument[i].iterate(context));
@@ -0,0 +1,114 @@
+package client.net.sf.saxon.ce.js;
+
+import client.net.sf.saxon.ce.trans.XPathException;
+import com.google.gwt.core.client.JavaScriptException;
+import com.google.gwt.core.client.JavaScriptObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled JavaScript functions, held by the Configuration, used by the ixsl:eval()
+ * extension function. Each distinct script is compiled once, as the body of a JavaScript Function
+ * object created in the global scope of the host window, and the same Function is called each time
+ * the script is evaluated again, typically within a loop. Because the functions are not given names,
+ * nothing is added to the global namespace of the page, and a function that is discarded from the
+ * cache can be garbage-collected.
+ * <p/>
+ * The cache is bounded: when it is full, the least recently used entry is discarded.
+ */
+
+public class ScriptCache {
+
+    private int capacity;
+    private int hits = 0;
+    private int misses = 0;
+    private LinkedHashMap<String, JavaScriptObject> cache;
+
+    /**
+     * Create a cache
+     * @param capacity the maximum number of compiled functions to be retained
+     */
+
+    public ScriptCache(int capacity) {
+        this.capacity = capacity;
+        cache = new LinkedHashMap<String, JavaScriptObject>(capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, JavaScriptObject> eldest) {
+                return size() > ScriptCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a compiled function that returns the value of a JavaScript expression, compiling it
+     * if it is not already in the cache
+     * @param script the JavaScript expression, with leading and trailing whitespace removed
+     * @return a JavaScript Function object, taking no arguments, that evaluates the expression
+     * @throws XPathException if the script cannot be compiled. Scripts that fail to compile are
+     * not cached.
+     */
+
+    public JavaScriptObject getFunction(String script) throws XPathException {
+        JavaScriptObject fn = cache.get(script);
+        if (fn == null) {
+            misses++;
+            try {
+                fn = compile(script);
+            } catch (JavaScriptException jexc) {
+                throw new XPathException("JavaScriptException: " + jexc.getDescription() +
+                        "\noccurred on compiling:\n" + script);
+            }
+            cache.put(script, fn);
+        } else {
+            hits++;
+        }
+        return fn;
+    }
+
+    private static native JavaScriptObject compile(String script) /*-{
+        return new $wnd.Function("return " + script + ";");
+    }-*/;
+
+    /**
+     * Get the number of evaluations that used a function already in the cache
+     * @return the number of cache hits
+     */
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of evaluations that required a script to be compiled. This is the number of
+     * distinct scripts compiled, unless scripts have been discarded from the cache and compiled again.
+     * @return the number of cache misses
+     */
+
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of compiled functions currently held in the cache
+     * @return the size of the cache
+     */
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Discard all entries in the cache, and reset the counters
+     */
+
+    public void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
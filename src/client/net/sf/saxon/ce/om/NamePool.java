@@ -23,12 +23,9 @@ import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
  * <p>The NamePool eliminates duplicate names if they have the same prefix, uri,
  * and local part. It retains duplicates if they have different prefixes</p>
  *
- * <p>Internally the NamePool is organized as a fixed number of hash chains. The selection
- * of a hash chain is based on hashing the local name, because it is unusual to have many
- * names that share the same local name but use different URIs. There are 1024 hash chains
- * and the identifier of the hash chain forms the bottom ten bits of the namecode. The
- * next ten bits represent the sequential position of an entry within the hash chain. The
- * upper bits represent the selection of prefix, from among the list of prefixes that have
+ * <p>Internally the NamePool allocates fingerprints sequentially, and holds the names in arrays
+ * indexed by fingerprint, so that the bottom 20 bits of the namecode identify the entry directly.
+ * The upper bits represent the selection of prefix, from among the list of prefixes that have
  * been used with a given URI. A prefix part of zero means no prefix; if the two prefixes
  * used with a particular namespace are "xs" and "xsd", say, then these will be prefix
  * codes 1 and 2.</p>
@@ -37,12 +34,12 @@ import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
  * mainly to names in the XSLT and XML Schema namespaces: constants representing these names
  * are found in {@link StandardNames}.
  *
- * <p>Operations that update the NamePool, or that have the potential to update it, are
- * synchronized. Read-only operations are done without synchronization. Although technically
- * unsafe, this has not led to any problems in practice. Performance problems due to excessive
- * contention on the NamePool have occasionally been observed: if this happens, the best strategy
- * is to consider splitting the workload to use multiple Configurations each with a separate
- * NamePool.</p>
+ * <p>Operations that update the NamePool are synchronized. Read-only operations, including
+ * a call on {@link #allocate} for a name that is already present, are done without synchronization.
+ * The tables are never modified in a way that would make an existing entry unreachable: when a
+ * table needs to grow, a new copy is populated in full before it replaces the old one, so a reader
+ * sees either the old table or the new one. A reader that fails to find a name using a stale table
+ * falls back to the synchronized path, which looks again before adding the name.</p>
  *
  * <h3>Internal organization of the NamePool</h3>
  *
@@ -52,19 +49,19 @@ import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
  *
  * <p>The data structure of the name table is as follows.</p>
  *
- * <p>There is a fixed size hash table; names are allocated to slots in this
- * table by hashing on the local name. Each entry in the table is the head of
- * a chain of NameEntry objects representing names that have the same hash code.</p>
+ * <p>Each distinct name (same URI and local name) is held as an entry in two parallel
+ * arrays: localNames[] holds the local name as a string, and uriCodes[] holds a short integer
+ * representing the URI (as an offset into the array uris[] - this is known as the URIcode).
+ * The fingerprint of the name is 1024 plus the position of the entry in these arrays.
+ * Fingerprints in the range 0-1023 are reserved for predefined names (names of XSLT elements
+ * and attributes, and of built-in types). These names are not stored in the name pool, but
+ * are accessible as if they were.</p>
  *
- * <p>Each NameEntry represents a distinct name (same URI and local name). It contains
- * the local name as a string, plus a short integer representing the URI (as an
- * offset into the array uris[] - this is known as the URIcode).</p>
- *
- * <p>The fingerprint of a name consists of the hash slot number (in the bottom 10 bits)
- * concatenated with the depth of the entry down the chain of hash synonyms (in the
- * next 10 bits). Fingerprints with depth 0 (i.e., in the range 0-1023) are reserved
- * for predefined names (names of XSLT elements and attributes, and of built-in types).
- * These names are not stored in the name pool, but are accessible as if they were.</p>
+ * <p>To find the fingerprint of a name given its URI and local name, the pool uses a hash
+ * table with open addressing (linear probing), each slot of which holds either zero or the
+ * fingerprint of a name. The table is doubled in size whenever it becomes half full, so the
+ * length of a probe sequence remains short however many names are allocated. The only limit
+ * on the number of names is the size of the 20-bit fingerprint.</p>
  *
  * <p>A nameCode contains the fingerprint in the bottom 20 bits. It also contains
  * a 10-bit prefix index. This distinguishes the prefix used, among all the
@@ -107,42 +104,20 @@ public class NamePool {
 
     public static final int MAX_PREFIXES_PER_URI = 1023;
 
-    /**
-     * Internal structure of a NameEntry, the entry on the hash chain of names.
-     */
+    // Fingerprint allocated to the first user-defined name
 
-    private static class NameEntry {
-        String localName;
-        short uriCode;
-        NameEntry nextEntry;	// link to next NameEntry with the same hashcode
-
-        /**
-         * Create a NameEntry for a QName
-         * @param uriCode the numeric code representing the namespace URI
-         * @param localName the local part of the QName
-         */
-        public NameEntry(short uriCode, String localName) {
-            this.uriCode = uriCode;
-            this.localName = localName.intern();
-            nextEntry = null;
-        }
-
-        /**
-         * Create a copy of a NameEntry, as well as the chain of NameEntries starting from this NameEntry
-         * @return the copy of the chain
-         */
-
-        public NameEntry copy() {
-            NameEntry n = new NameEntry(uriCode, localName);
-            if (nextEntry != null) {
-                n.nextEntry = nextEntry.copy();
-            }
-            return n;
-        }
+    private static final int FIRST_USER_FINGERPRINT = 1024;
 
-    }
+    // The local names and URI codes of user-defined names, indexed by (fingerprint - FIRST_USER_FINGERPRINT)
+
+    private String[] localNames = new String[256];
+    private short[] uriCodes = new short[256];
+    private int namesUsed = 0;
+
+    // Hash table used to find the fingerprint of a name given its URI code and local name. Each slot contains
+    // a fingerprint, or zero if the slot is unused. The length is always a power of two.
 
-    NameEntry[] hashslots = new NameEntry[1024];
+    private volatile int[] hashTable = new int[512];
 
     String[] prefixes = new String[100];
     short prefixesUsed = 0;
@@ -190,23 +165,119 @@ public class NamePool {
     }
 
     /**
-     * Get a name entry corresponding to a given name code
-     * @param nameCode the integer name code
-     * @return the NameEntry for this name code, or null if there is none.
+     * Get the position in the localNames and uriCodes arrays of the entry for a given name code
+     * @param nameCode the integer name code of a user-defined name
+     * @return the index of the entry for this name code, or -1 if there is none.
      */
 
-    private NameEntry getNameEntry(int nameCode) {
-        int hash = nameCode & 0x3ff;
-        int depth = (nameCode >> 10) & 0x3ff;
-        NameEntry entry = hashslots[hash];
+    private int getEntryIndex(int nameCode) {
+        int index = (nameCode & FP_MASK) - FIRST_USER_FINGERPRINT;
+        if (index < 0 || index >= namesUsed) {
+            return -1;
+        }
+        return index;
+    }
 
-        for (int i = 1; i < depth; i++) {
-            if (entry == null) {
-                return null;
+    /**
+     * Compute the hash code used to locate a name in the hash table
+     * @param uriCode the URI code of the name
+     * @param localName the local part of the name
+     * @return a non-negative hash code
+     */
+
+    private static int hash(short uriCode, String localName) {
+        int h = localName.hashCode() * 31 + uriCode;
+        h ^= (h >>> 16);
+        return h & 0x7fffffff;
+    }
+
+    /**
+     * Find the fingerprint of a user-defined name, without updating the pool
+     * @param uriCode the URI code of the name
+     * @param localName the local part of the name
+     * @return the fingerprint of the name, or -1 if it is not present
+     */
+
+    private int findFingerprint(short uriCode, String localName) {
+        int[] table = hashTable;
+        String[] names = localNames;
+        short[] codes = uriCodes;
+        int mask = table.length - 1;
+        int slot = hash(uriCode, localName) & mask;
+        while (true) {
+            int fp = table[slot];
+            if (fp == 0) {
+                return -1;
+            }
+            int index = fp - FIRST_USER_FINGERPRINT;
+            if (index >= names.length || index >= codes.length) {
+                // the arrays have been replaced since the table was read: leave it to the synchronized path
+                return -1;
+            }
+            if (codes[index] == uriCode && localName.equals(names[index])) {
+                return fp;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Allocate a fingerprint for a user-defined name, adding it to the pool if it is not already present
+     * @param uriCode the URI code of the name
+     * @param localName the local part of the name
+     * @return the fingerprint of the name
+     */
+
+    private synchronized int allocateFingerprint(short uriCode, String localName) {
+        int fp = findFingerprint(uriCode, localName);
+        if (fp != -1) {
+            return fp;
+        }
+        if (FIRST_USER_FINGERPRINT + namesUsed > FP_MASK) {
+            throw new RuntimeException("Saxon name pool is full");
+        }
+        if (namesUsed >= localNames.length) {
+            String[] n = new String[namesUsed * 2];
+            short[] u = new short[namesUsed * 2];
+            System.arraycopy(localNames, 0, n, 0, namesUsed);
+            System.arraycopy(uriCodes, 0, u, 0, namesUsed);
+            localNames = n;
+            uriCodes = u;
+        }
+        localNames[namesUsed] = localName.intern();
+        uriCodes[namesUsed] = uriCode;
+        fp = FIRST_USER_FINGERPRINT + namesUsed;
+        namesUsed++;
+
+        int[] table = hashTable;
+        if (namesUsed * 2 > table.length) {
+            // rehash into a table of twice the size, which is published only when fully populated
+            table = new int[table.length * 2];
+            for (int i = 0; i < namesUsed - 1; i++) {
+                insert(table, FIRST_USER_FINGERPRINT + i, hash(uriCodes[i], localNames[i]));
             }
-            entry = entry.nextEntry;
+            insert(table, fp, hash(uriCode, localName));
+            hashTable = table;
+        } else {
+            insert(table, fp, hash(uriCode, localName));
+        }
+        return fp;
+    }
+
+    /**
+     * Insert a fingerprint into a hash table, in the first free slot at or after its hash position
+     * @param table the hash table
+     * @param fp the fingerprint to be inserted
+     * @param hash the hash code of the name
+     */
+
+    private static void insert(int[] table, int fp, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
         }
-        return entry;
+        table[slot] = fp;
     }
 
     /**
@@ -240,11 +311,11 @@ public class NamePool {
          if ((fp & USER_DEFINED_MASK) == 0) {
              uriCode = StandardNames.getURICode(fp);
          } else {
-             NameEntry entry = getNameEntry(namecode);
-             if (entry == null) {
+             int index = getEntryIndex(namecode);
+             if (index < 0) {
                  return null;
              } else {
-                 uriCode = entry.uriCode;
+                 uriCode = uriCodes[index];
              }
          }
          int prefixIndex = (namecode >> 20) & 0x3ff;
@@ -267,12 +338,12 @@ public class NamePool {
              uriCode = StandardNames.getURICode(fp);
              localName = StandardNames.getLocalName(fp);
          } else {
-             NameEntry entry = getNameEntry(namecode);
-             if (entry == null) {
+             int index = getEntryIndex(namecode);
+             if (index < 0) {
                  return null;
              } else {
-                 uriCode = entry.uriCode;
-                 localName = entry.localName;
+                 uriCode = uriCodes[index];
+                 localName = localNames[index];
              }
          }
          int prefixIndex = (namecode >> 20) & 0x3ff;
@@ -396,92 +467,70 @@ public class NamePool {
      *         The Name itself may be retrieved using the getName(int) method
      */
 
-    public synchronized int allocate(String prefix, String uri, String localName) {
+    public int allocate(String prefix, String uri, String localName) {
         //System.err.println("Allocate " + prefix + " : " + uri + " : " + localName);
         if (NamespaceConstant.isReserved(uri) || NamespaceConstant.SAXON.equals(uri) ||
            NamespaceConstant.IXSL.equals(uri)) {
             int fp = StandardNames.getFingerprint(uri, localName);
             if (fp != -1) {
                 short uriCode = StandardNames.getURICode(fp);
-                int pindex;
-                if (prefix.length() == 0) {
-                    pindex = 0;
-                } else {
-                    final String[] prefixCodes = prefixesForURI[uriCode];
-                    int prefixPosition = search(prefixCodes, prefix);
-                    if (prefixPosition < 0) {
-                        if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
-                            throw new RuntimeException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                        }
-                        String[] p2 = new String[prefixCodes.length + 1];
-                        System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
-                        p2[prefixCodes.length] = prefix;
-                        prefixesForURI[uriCode] = p2;
-                        prefixPosition = prefixCodes.length;
-                    }
-                    pindex = prefixPosition + 1;
-                }
-                return (pindex << 20) + fp;
+                return (getPrefixIndex(uriCode, prefix) << 20) + fp;
             }
         }
         // otherwise register the name in this NamePool
-        short uriCode = allocateCodeForURIInternal(uri);
+        short uriCode = (uri == null ? NamespaceConstant.NULL_CODE : getCodeForURI(uri));
+        if (uriCode == -1) {
+            uriCode = allocateCodeForURI(uri);
+        }
+        int prefixIndex = getPrefixIndex(uriCode, prefix);
+        int fp = findFingerprint(uriCode, localName);
+        if (fp == -1) {
+            fp = allocateFingerprint(uriCode, localName);
+        }
+        return (prefixIndex << 20) + fp;
+    }
 
-        int hash = (localName.hashCode() & 0x7fffffff) % 1023;
-        int depth = 1;
+    /**
+     * Get the index of a prefix among the prefixes used with a given URI, adding it if it is not already present
+     * @param uriCode the integer code identifying the URI
+     * @param prefix the namespace prefix, "" for no prefix
+     * @return the prefix index to be used in a name code: zero if the prefix is "", otherwise one plus the
+     * position of the prefix in the list of prefixes used with this URI
+     */
 
-        final String[] prefixCodes = prefixesForURI[uriCode];
-        int prefixIndex;
+    private int getPrefixIndex(short uriCode, String prefix) {
         if (prefix.length() == 0) {
-            prefixIndex = 0;
-        } else {
-            int prefixPosition = search(prefixCodes, prefix);
-            if (prefixPosition < 0) {
-                if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
-                    throw new RuntimeException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                }
-                String[] p2 = new String[prefixCodes.length + 1];
-                System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
-                p2[prefixCodes.length] = prefix;
-                prefixesForURI[uriCode] = p2;
-                prefixPosition = prefixCodes.length;
-            }
-            prefixIndex = prefixPosition + 1;
+            return 0;
         }
+        int prefixPosition = search(prefixesForURI[uriCode], prefix);
+        if (prefixPosition < 0) {
+            prefixPosition = addPrefix(uriCode, prefix);
+        }
+        return prefixPosition + 1;
+    }
 
-        NameEntry entry;
-
-        if (hashslots[hash] == null) {
-            entry = new NameEntry(uriCode, localName);
-            hashslots[hash] = entry;
-        } else {
-            entry = hashslots[hash];
-            while (true) {
-                boolean sameLocalName = (entry.localName.equals(localName));
-                boolean sameURI = (entry.uriCode == uriCode);
+    /**
+     * Add a prefix to the list of prefixes used with a given URI
+     * @param uriCode the integer code identifying the URI
+     * @param prefix the namespace prefix
+     * @return the position of the prefix in the list of prefixes used with this URI
+     */
 
-                if (sameLocalName && sameURI) {
-                    // may need to add a new prefix to the entry
-                    break;
-                } else {
-                    NameEntry next = entry.nextEntry;
-                    depth++;
-                    if (depth >= 1024) {
-                        throw new RuntimeException("Saxon name pool is full");
-                    }
-                    if (next == null) {
-                        entry.nextEntry = new NameEntry(uriCode, localName);
-                        break;
-                    } else {
-                        entry = next;
-                    }
-                }
+    private synchronized int addPrefix(short uriCode, String prefix) {
+        final String[] prefixCodes = prefixesForURI[uriCode];
+        int prefixPosition = search(prefixCodes, prefix);
+        if (prefixPosition < 0) {
+            if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
+                throw new RuntimeException("NamePool limit exceeded: max " +
+                        MAX_PREFIXES_PER_URI + " prefixes per URI");
             }
+            String[] p2 = new String[prefixCodes.length + 1];
+            System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
+            p2[prefixCodes.length] = prefix;
+            prefixesForURI[uriCode] = p2;
+            prefixPosition = prefixCodes.length;
         }
-        // System.err.println("name code = " + prefixIndex + "/" + depth + "/" + hash);
-        return ((prefixIndex << 20) + (depth << 10) + hash);
+        return prefixPosition;
     }
 
     /**
@@ -496,12 +545,12 @@ public class NamePool {
         if ((nameCode & USER_DEFINED_MASK) == 0) {
             return StandardNames.getURI(nameCode & FP_MASK);
         }
-        NameEntry entry = getNameEntry(nameCode);
-        if (entry == null) {
+        int index = getEntryIndex(nameCode);
+        if (index < 0) {
             unknownNameCode(nameCode);
             return null;    // to keep the compiler happy
         }
-        return uris[entry.uriCode];
+        return uris[uriCodes[index]];
     }
 
     /**
@@ -514,12 +563,12 @@ public class NamePool {
         if ((nameCode & USER_DEFINED_MASK) == 0) {
             return StandardNames.getURICode(nameCode & FP_MASK);
         }
-        NameEntry entry = getNameEntry(nameCode);
-        if (entry == null) {
+        int index = getEntryIndex(nameCode);
+        if (index < 0) {
             unknownNameCode(nameCode);
             return -1;
         }
-        return entry.uriCode;
+        return uriCodes[index];
     }
 
     /**
@@ -532,12 +581,12 @@ public class NamePool {
         if ((nameCode & USER_DEFINED_MASK) == 0) {
             return StandardNames.getLocalName(nameCode & FP_MASK);
         }
-        NameEntry entry = getNameEntry(nameCode);
-        if (entry == null) {
+        int index = getEntryIndex(nameCode);
+        if (index < 0) {
             unknownNameCode(nameCode);
             return null;
         }
-        return entry.localName;
+        return localNames[index];
     }
 
     /**
@@ -580,15 +629,15 @@ public class NamePool {
                 }
             }
         } else {
-            NameEntry entry = getNameEntry(nameCode);
-            if (entry == null) {
+            int index = getEntryIndex(nameCode);
+            if (index < 0) {
                 unknownNameCode(nameCode);
                 return null;
             }
             if (isPrefixed(nameCode)) {
-                return getPrefix(nameCode) + ':' + entry.localName;
+                return getPrefix(nameCode) + ':' + localNames[index];
             } else {
-                return entry.localName;
+                return localNames[index];
             }
         }
     }
@@ -604,15 +653,15 @@ public class NamePool {
         if ((nameCode & USER_DEFINED_MASK) == 0) {
             return StandardNames.getClarkName(nameCode & FP_MASK);
         }
-        NameEntry entry = getNameEntry(nameCode);
-        if (entry == null) {
+        int index = getEntryIndex(nameCode);
+        if (index < 0) {
             unknownNameCode(nameCode);
             return null;
         }
-        if (entry.uriCode == 0) {
-            return entry.localName;
+        if (uriCodes[index] == 0) {
+            return localNames[index];
         } else {
-            String n = '{' + getURIFromURICode(entry.uriCode) + '}' + entry.localName;
+            String n = '{' + getURIFromURICode(uriCodes[index]) + '}' + localNames[index];
             return n.intern();
         }
     }
@@ -692,30 +741,7 @@ public class NamePool {
             }
         }
 
-        int hash = (localName.hashCode() & 0x7fffffff) % 1023;
-        int depth = 1;
-
-        NameEntry entry;
-
-        if (hashslots[hash] == null) {
-            return -1;
-        }
-
-        entry = hashslots[hash];
-        while (true) {
-            if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
-                break;
-            } else {
-                NameEntry next = entry.nextEntry;
-                depth++;
-                if (next == null) {
-                    return -1;
-                } else {
-                    entry = next;
-                }
-            }
-        }
-        return (depth << 10) + hash;
+        return findFingerprint(uriCode, localName);
     }
 
     /**
@@ -756,16 +782,10 @@ public class NamePool {
 
     public synchronized void diagnosticDump() {
         System.err.println("Contents of NamePool " + this);
-        for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
-            int depth = 0;
-            while (entry != null) {
-                System.err.println("Fingerprint " + depth + '/' + i);
-                System.err.println("  local name = " + entry.localName +
-                        " uri code = " + entry.uriCode);
-                entry = entry.nextEntry;
-                depth++;
-            }
+        for (int i = 0; i < namesUsed; i++) {
+            System.err.println("Fingerprint " + (FIRST_USER_FINGERPRINT + i));
+            System.err.println("  local name = " + localNames[i] +
+                    " uri code = " + uriCodes[i]);
         }
 
         for (int p = 0; p < prefixesUsed; p++) {
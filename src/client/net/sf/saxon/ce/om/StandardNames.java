@@ -180,6 +180,8 @@ public abstract class StandardNames {
     public static final String PER_MILLE = "per-mille";
     public static final String IXSL_PREVENT_DEFAULT = "{" + NamespaceConstant.IXSL + "}" + "prevent-default";
     public static final String IXSL_EVENT_PROPERTY = "{" + NamespaceConstant.IXSL + "}" + "event-property";
+    public static final String IXSL_THROTTLE = "{" + NamespaceConstant.IXSL + "}" + "throttle";
+    public static final String IXSL_KEY = "{" + NamespaceConstant.IXSL + "}" + "key";
     public static final String PRIORITY = "priority";
     public static final String REGEX = "regex";
     public static final String REQUIRED = "required";
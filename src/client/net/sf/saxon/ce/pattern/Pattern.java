@@ -245,23 +245,26 @@ public abstract class Pattern implements Container, SourceLocator {
     }
 
    /**
-     * Select nodes in a document using this PatternFinder.
-     * @param doc the document node at the root of a tree
+     * Select nodes in a document, or in a subtree of a document, using this PatternFinder.
+     * @param root the root of the tree or subtree to be searched. If this is a document node, the
+     * nodes selected are those in the document; otherwise they are the root and its descendants,
+     * together with their attributes
      * @param context the dynamic evaluation context
      * @return an iterator over the selected nodes in the document.
      */
 
-    public SequenceIterator selectNodes(DocumentInfo doc, final XPathContext context) throws XPathException {
+    public SequenceIterator selectNodes(NodeInfo root, final XPathContext context) throws XPathException {
        final int kind = getNodeKind();
+       final byte axis = (root.getNodeKind() == Type.DOCUMENT ? Axis.DESCENDANT : Axis.DESCENDANT_OR_SELF);
        switch (kind) {
             case Type.DOCUMENT:
-                if (matches(doc, context)) {
-                    return SingletonIterator.makeIterator(doc);
+                if (root.getNodeKind() == Type.DOCUMENT && matches(root, context)) {
+                    return SingletonIterator.makeIterator(root);
                 } else {
                     return EmptyIterator.getInstance();
                 }
             case Type.ATTRIBUTE: {
-                AxisIterator allElements = doc.iterateAxis(Axis.DESCENDANT, NodeKindTest.ELEMENT);
+                AxisIterator allElements = root.iterateAxis(axis, NodeKindTest.ELEMENT);
                 MappingFunction atts = new MappingFunction() {
                     public SequenceIterator map(Item item) {
                         return ((NodeInfo)item).iterateAxis(Axis.ATTRIBUTE);
@@ -283,7 +286,7 @@ public abstract class Pattern implements Container, SourceLocator {
             case Type.COMMENT:
             case Type.TEXT:
             case Type.PROCESSING_INSTRUCTION: {
-                AxisIterator allChildren = doc.iterateAxis(Axis.DESCENDANT, NodeKindTest.makeNodeKindTest(kind));
+                AxisIterator allChildren = root.iterateAxis(axis, NodeKindTest.makeNodeKindTest(kind));
                 ItemMappingFunction test = new ItemMappingFunction() {
                     public Item mapItem(Item item) throws XPathException {
                         if ((matches((NodeInfo)item, context))) {
@@ -296,7 +299,7 @@ public abstract class Pattern implements Container, SourceLocator {
                 return new ItemMappingIterator(allChildren, test);
             }
             case Type.NODE: {
-                AxisIterator allChildren = doc.iterateAxis(Axis.DESCENDANT);
+                AxisIterator allChildren = root.iterateAxis(axis);
                 MappingFunction attsOrSelf = new MappingFunction() {
                     public SequenceIterator map(Item item) {
                         return new PrependIterator((NodeInfo)item, ((NodeInfo)item).iterateAxis(Axis.ATTRIBUTE));
@@ -50,7 +50,7 @@ public class ARegularExpression implements RegularExpression {
             return regex.isNullable();
         }
         REMatcher matcher = new REMatcher(regex);
-        return matcher.anchoredMatch(GeneralUnicodeString.makeUnicodeString(input));
+        return matcher.isMatch(GeneralUnicodeString.makeUnicodeString(input), true);
     }
 
     /**
@@ -61,7 +61,7 @@ public class ARegularExpression implements RegularExpression {
      */
     public boolean containsMatch(CharSequence input) {
         REMatcher matcher = new REMatcher(regex);
-        return matcher.match(GeneralUnicodeString.makeUnicodeString(input), 0);
+        return matcher.isMatch(GeneralUnicodeString.makeUnicodeString(input), false);
     }
 
     /**
@@ -0,0 +1,575 @@
+package client.net.sf.saxon.ce.regex;
+
+import client.net.sf.saxon.ce.expr.z.IntHashMap;
+import client.net.sf.saxon.ce.expr.z.IntPredicate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A form of a compiled regular expression that is executed without backtracking, so that the time taken
+ * is linear in the length of the input string whatever the regular expression. The instructions of an
+ * {@link REProgram} are translated into a nondeterministic finite automaton, which is simulated by keeping
+ * track of all the states it could be in at each position of the input, in priority order (the technique
+ * described by Thompson and Pike). This gives the same match as the backtracking {@link REMatcher}: the
+ * leftmost match, preferring alternatives and quantifier iterations in the same order.
+ * <p/>
+ * When only a yes/no answer is needed, and the regular expression contains no ^ or $ anchors, sets of
+ * automaton states are cached as the states of a deterministic automaton, which is built lazily as the
+ * input is read, so that after a few strings have been matched each character costs a single table lookup.
+ * <p/>
+ * A regular expression that contains back-references cannot be translated, and is executed by
+ * the backtracking REMatcher. So is one in which a repeated term can match a zero-length string, except
+ * when only a yes/no answer is needed, because the two matchers treat an empty iteration differently.
+ */
+
+final class NFAProgram {
+
+    // Instruction codes
+    private static final int CHAR = 0;      // match the character arg[pc]
+    private static final int CLASS = 1;     // match a character satisfying predicates[pc]
+    private static final int SPLIT = 2;     // continue at arg[pc] in preference to next[pc]
+    private static final int JUMP = 3;      // continue at next[pc]
+    private static final int SAVE = 4;      // record the current position in capture slot arg[pc]
+    private static final int BOL = 5;       // succeed only at the start of a line
+    private static final int EOL = 6;       // succeed only at the end of a line
+    private static final int MATCH = 7;     // the regular expression has been matched
+
+    // Maximum number of deterministic states retained for each kind of match
+    private static final int MAX_DFA_STATES = 500;
+
+    private int[] code;
+    private int[] arg;
+    private int[] next;
+    private IntPredicate[] predicates;
+    private int[][] caseVariants;           // for CHAR instructions, other characters matched when case-blind
+    private int slots;                      // two capture slots for each group, including group 0
+    private boolean multiLine;
+    private boolean hasAnchors;
+    private boolean emptyLoop;              // true if a repeated term can match a zero-length string
+    private UnicodeString prefix;           // a string that every match must start with, or null
+
+    private Run dfaRun;
+    private DState anchoredStart;
+    private DState searchStart;
+    private HashMap<String, DState> anchoredStates = new HashMap<String, DState>();
+    private HashMap<String, DState> searchStates = new HashMap<String, DState>();
+
+    private NFAProgram() {
+    }
+
+    /**
+     * Translate a regular expression program into an automaton
+     * @param program the compiled regular expression
+     * @return the automaton, or null if the program cannot be translated, because it uses back-references
+     */
+
+    static NFAProgram make(REProgram program) {
+        if ((program.optimizationFlags & REProgram.OPT_HASBACKREFS) != 0) {
+            return null;
+        }
+        Operation[] ops = program.instructions;
+        int n = ops.length;
+        if (n == 0) {
+            return null;
+        }
+
+        // allocate one instruction to each operation, except that an atom has one for each character
+        int[] startOf = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int size = 1;
+            if (ops[i] instanceof Operation.OpAtom) {
+                size = Math.max(((Operation.OpAtom)ops[i]).atom.length(), 1);
+            }
+            startOf[i + 1] = startOf[i] + size;
+        }
+
+        NFAProgram nfa = new NFAProgram();
+        int size = startOf[n];
+        nfa.code = new int[size];
+        nfa.arg = new int[size];
+        nfa.next = new int[size];
+        nfa.predicates = new IntPredicate[size];
+        nfa.caseVariants = new int[size][];
+        nfa.slots = 2 * Math.max(program.maxParens, 1);
+        nfa.multiLine = program.flags.isMultiLine();
+        if (!program.flags.isCaseIndependent()) {
+            nfa.prefix = program.prefix;
+        }
+
+        for (int i = 0; i < n; i++) {
+            Operation op = ops[i];
+            int pc = startOf[i];
+            int target = (op.next >= 0 && op.next < n ? startOf[op.next] : -1);
+            int following = startOf[i + 1];
+            if (op instanceof Operation.OpAtom) {
+                UnicodeString atom = ((Operation.OpAtom)op).atom;
+                if (atom.length() == 0) {
+                    nfa.set(pc, JUMP, 0, target);
+                }
+                for (int k = 0; k < atom.length(); k++) {
+                    int ch = atom.charAt(k);
+                    nfa.set(pc + k, CHAR, ch, (k == atom.length() - 1 ? target : pc + k + 1));
+                    if (program.flags.isCaseIndependent()) {
+                        nfa.caseVariants[pc + k] = CaseVariants.getCaseVariants(ch);
+                    }
+                }
+            } else if (op instanceof Operation.OpCharClass) {
+                nfa.set(pc, CLASS, 0, target);
+                nfa.predicates[pc] = ((Operation.OpCharClass)op).predicate;
+            } else if (op instanceof Operation.OpEndProgram) {
+                nfa.set(pc, MATCH, 0, 0);
+            } else if (op instanceof Operation.OpBOL) {
+                nfa.set(pc, BOL, 0, target);
+                nfa.hasAnchors = true;
+            } else if (op instanceof Operation.OpEOL) {
+                nfa.set(pc, EOL, 0, target);
+                nfa.hasAnchors = true;
+            } else if (op instanceof Operation.OpBranch) {
+                if (op.next >= 0 && ops[op.next] instanceof Operation.OpBranch) {
+                    nfa.set(pc, SPLIT, following, target);
+                } else {
+                    nfa.set(pc, JUMP, 0, following);
+                }
+            } else if (op instanceof Operation.OpStar || op instanceof Operation.OpConfidentStar ||
+                    op instanceof Operation.OpMaybe) {
+                nfa.set(pc, SPLIT, following, target);
+            } else if (op instanceof Operation.OpReluctantStar || op instanceof Operation.OpReluctantMaybe) {
+                nfa.set(pc, SPLIT, target, following);
+            } else if (op instanceof Operation.OpPlus || op instanceof Operation.OpReluctantPlus) {
+                // "next" is an OpContinue, which leads to the repeated term; its own "next" is the continuation
+                if (target < 0 || ops[op.next].next < 0 || ops[op.next].next >= n) {
+                    return null;
+                }
+                int repeat = startOf[op.next];
+                int exit = startOf[ops[op.next].next];
+                if (op instanceof Operation.OpPlus) {
+                    nfa.set(pc, SPLIT, repeat, exit);
+                } else {
+                    nfa.set(pc, SPLIT, exit, repeat);
+                }
+            } else if (op instanceof Operation.OpConfidentPlus) {
+                // the repeated term is the previous instruction
+                if (i == 0) {
+                    return null;
+                }
+                nfa.set(pc, SPLIT, startOf[i - 1], target);
+            } else if (op instanceof Operation.OpContinue) {
+                nfa.set(pc, JUMP, 0, following);
+            } else if (op instanceof Operation.OpOpen) {
+                nfa.set(pc, SAVE, 2 * ((Operation.OpOpen)op).groupNr, target);
+            } else if (op instanceof Operation.OpClose) {
+                nfa.set(pc, SAVE, 2 * ((Operation.OpClose)op).groupNr + 1, target);
+            } else if (op instanceof Operation.OpOpenCluster || op instanceof Operation.OpCloseCluster ||
+                    op instanceof Operation.OpGoTo || op instanceof Operation.OpNothing) {
+                nfa.set(pc, JUMP, 0, target);
+            } else {
+                return null;
+            }
+        }
+        for (int pc = 0; pc < size; pc++) {
+            int c = nfa.code[pc];
+            if (c != MATCH && (nfa.next[pc] < 0 || nfa.next[pc] >= size) ||
+                    c == SPLIT && (nfa.arg[pc] < 0 || nfa.arg[pc] >= size) ||
+                    c == SAVE && nfa.arg[pc] >= nfa.slots) {
+                // not a well-formed program: leave it to the backtracking matcher
+                return null;
+            }
+        }
+        for (int pc = 0; pc < size && !nfa.emptyLoop; pc++) {
+            if (nfa.code[pc] == SPLIT && nfa.isOnEmptyCycle(pc)) {
+                nfa.emptyLoop = true;
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Determine whether an instruction can be reached from itself without consuming any input
+     * @param pc0 the instruction
+     * @return true if there is such a cycle
+     */
+
+    private boolean isOnEmptyCycle(int pc0) {
+        boolean[] seen = new boolean[code.length];
+        int[] stack = new int[2 * code.length + 2];
+        int sp = 0;
+        stack[sp++] = pc0;
+        while (sp > 0) {
+            int pc = stack[--sp];
+            if (pc == pc0 && seen[pc]) {
+                return true;
+            }
+            if (seen[pc]) {
+                continue;
+            }
+            seen[pc] = true;
+            switch (code[pc]) {
+                case SPLIT:
+                    stack[sp++] = arg[pc];
+                    stack[sp++] = next[pc];
+                    break;
+                case JUMP:
+                case SAVE:
+                case BOL:
+                case EOL:
+                    stack[sp++] = next[pc];
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ask whether a repeated term in the regular expression can match a zero-length string. If so,
+     * {@link #exec} may not find the same match or captured groups as the backtracking matcher, which
+     * accepts an empty iteration of the term and continues with the rest of the regular expression, where
+     * the automaton abandons it. The yes/no answer given by {@link #isMatch} is not affected.
+     * @return true if there is such a term
+     */
+
+    boolean hasEmptyLoop() {
+        return emptyLoop;
+    }
+
+    private void set(int pc, int code, int arg, int next) {
+        this.code[pc] = code;
+        this.arg[pc] = arg;
+        this.next[pc] = next;
+    }
+
+    /**
+     * Find the first match of the regular expression in a string
+     * @param search the input string
+     * @param start the position at which searching starts
+     * @param anchored true if the match must start at the start position and extend to the end of the string
+     * @return null if there is no match; otherwise an array in which elements 2n and 2n+1 are the start
+     * and end positions of the substring captured by group n, or -1 if the group did not participate
+     * in the match. Group 0 is the match as a whole.
+     */
+
+    int[] exec(UnicodeString search, int start, boolean anchored) {
+        int len = search.length();
+        Run run = new Run(this, search);
+        ThreadList clist = new ThreadList(code.length);
+        ThreadList nlist = new ThreadList(code.length);
+        clist.generation = ++run.generation;
+        int[] matched = null;
+        int pos = start;
+        while (true) {
+            if (matched == null && (!anchored || pos == start)) {
+                if (clist.size == 0 && !anchored && prefix != null) {
+                    // no match is in progress: skip to the next place where one could start
+                    pos = nextPrefix(search, pos);
+                    if (pos < 0) {
+                        break;
+                    }
+                }
+                // start a new match attempt at this position, with lower priority than any earlier one
+                int[] caps = new int[slots];
+                Arrays.fill(caps, -1);
+                caps[0] = pos;
+                run.add(clist, 0, caps, pos);
+            }
+            if (clist.size == 0 && (matched != null || anchored)) {
+                break;
+            }
+            nlist.size = 0;
+            nlist.generation = ++run.generation;
+            for (int t = 0; t < clist.size; t++) {
+                int pc = clist.pc[t];
+                int[] caps = clist.caps[t];
+                switch (code[pc]) {
+                    case MATCH:
+                        if (!anchored || pos >= len) {
+                            matched = new int[slots];
+                            System.arraycopy(caps, 0, matched, 0, slots);
+                            matched[1] = pos;
+                            // threads of lower priority than this one can be abandoned
+                            t = clist.size;
+                        }
+                        break;
+                    case CHAR:
+                        if (pos < len && matchesChar(pc, search.charAt(pos))) {
+                            run.add(nlist, next[pc], caps, pos + 1);
+                        }
+                        break;
+                    case CLASS:
+                        if (pos < len && predicates[pc].matches(search.charAt(pos))) {
+                            run.add(nlist, next[pc], caps, pos + 1);
+                        }
+                        break;
+                }
+            }
+            if (pos >= len) {
+                break;
+            }
+            ThreadList t = clist;
+            clist = nlist;
+            nlist = t;
+            pos++;
+        }
+        return matched;
+    }
+
+    /**
+     * Ask whether the regular expression matches a string, without determining where
+     * @param search the input string
+     * @param anchored true if the regular expression must match the whole string; false if it is
+     * sufficient for it to match some substring
+     * @return true if there is a match
+     */
+
+    boolean isMatch(UnicodeString search, boolean anchored) {
+        if (hasAnchors || code.length >= 65535) {
+            // the states reached depend on the position in the string, not only on the characters read
+            return exec(search, 0, anchored) != null;
+        }
+        DState state = getStartState(anchored);
+        int len = search.length();
+        for (int pos = 0; pos < len; pos++) {
+            if (state.accepting && !anchored) {
+                return true;
+            }
+            state = step(state, search.charAt(pos), anchored);
+            if (state.pcs.length == 0) {
+                return false;
+            }
+        }
+        return state.accepting;
+    }
+
+    private DState getStartState(boolean anchored) {
+        DState start = (anchored ? anchoredStart : searchStart);
+        if (start == null) {
+            if (dfaRun == null) {
+                dfaRun = new Run(this, null);
+            }
+            ThreadList list = new ThreadList(code.length);
+            list.generation = ++dfaRun.generation;
+            dfaRun.add(list, 0, null, 0);
+            start = getState(list, anchored);
+            if (anchored) {
+                anchoredStart = start;
+            } else {
+                searchStart = start;
+            }
+        }
+        return start;
+    }
+
+    private DState step(DState state, int ch, boolean anchored) {
+        DState target = state.transitions.get(ch);
+        if (target == null) {
+            ThreadList list = new ThreadList(code.length);
+            list.generation = ++dfaRun.generation;
+            for (int pc : state.pcs) {
+                if ((code[pc] == CHAR && matchesChar(pc, ch)) ||
+                        (code[pc] == CLASS && predicates[pc].matches(ch))) {
+                    dfaRun.add(list, next[pc], null, 0);
+                }
+            }
+            if (!anchored) {
+                // a match can also start after this character
+                dfaRun.add(list, 0, null, 0);
+            }
+            target = getState(list, anchored);
+            state.transitions.put(ch, target);
+        }
+        return target;
+    }
+
+    private DState getState(ThreadList list, boolean anchored) {
+        int[] pcs = new int[list.size];
+        System.arraycopy(list.pc, 0, pcs, 0, list.size);
+        Arrays.sort(pcs);
+        char[] chars = new char[pcs.length];
+        for (int i = 0; i < pcs.length; i++) {
+            chars[i] = (char)pcs[i];
+        }
+        String key = new String(chars);
+        HashMap<String, DState> states = (anchored ? anchoredStates : searchStates);
+        DState state = states.get(key);
+        if (state == null) {
+            if (states.size() >= MAX_DFA_STATES) {
+                // discard the cached automaton and start building it again
+                states.clear();
+                if (anchored) {
+                    anchoredStart = null;
+                } else {
+                    searchStart = null;
+                }
+            }
+            state = new DState(pcs);
+            for (int pc : pcs) {
+                if (code[pc] == MATCH) {
+                    state.accepting = true;
+                }
+            }
+            states.put(key, state);
+        }
+        return state;
+    }
+
+    private boolean matchesChar(int pc, int ch) {
+        if (arg[pc] == ch) {
+            return true;
+        }
+        int[] variants = caseVariants[pc];
+        if (variants != null) {
+            for (int v : variants) {
+                if (v == ch) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int nextPrefix(UnicodeString search, int pos) {
+        int plen = prefix.length();
+        int last = search.length() - plen;
+        for (; pos <= last; pos++) {
+            int k = 0;
+            while (k < plen && search.charAt(pos + k) == prefix.charAt(k)) {
+                k++;
+            }
+            if (k == plen) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A list of threads, that is, of automaton states that have been reached at a given
+     * position in the input, each with its captured groups, in priority order
+     */
+
+    private static class ThreadList {
+        int[] pc;
+        int[][] caps;
+        int size = 0;
+        int generation;
+
+        ThreadList(int capacity) {
+            pc = new int[capacity];
+            caps = new int[capacity][];
+        }
+    }
+
+    /**
+     * The working storage used when adding threads to a list
+     */
+
+    private static class Run {
+        NFAProgram nfa;
+        UnicodeString search;
+        int[] marks;             // the generation of the list to which each instruction was last added
+        int generation = 0;
+        int[] stackPc;
+        int[][] stackCaps;
+
+        Run(NFAProgram nfa, UnicodeString search) {
+            this.nfa = nfa;
+            this.search = search;
+            int n = nfa.code.length;
+            marks = new int[n];
+            stackPc = new int[2 * n + 2];
+            stackCaps = new int[2 * n + 2][];
+        }
+
+        /**
+         * Add a thread to a list, following jumps, splits and other instructions that do not
+         * consume any input, in priority order; each instruction is visited at most once
+         * @param list the list of threads to be extended
+         * @param pc0 the instruction at which the thread starts
+         * @param caps0 the captured groups of the thread, or null if they are not being tracked
+         * @param pos the position in the input
+         */
+
+        void add(ThreadList list, int pc0, int[] caps0, int pos) {
+            int[] code = nfa.code;
+            int sp = 0;
+            stackPc[sp] = pc0;
+            stackCaps[sp++] = caps0;
+            while (sp > 0) {
+                int pc = stackPc[--sp];
+                int[] caps = stackCaps[sp];
+                if (marks[pc] == list.generation) {
+                    continue;
+                }
+                marks[pc] = list.generation;
+                switch (code[pc]) {
+                    case JUMP:
+                        stackPc[sp] = nfa.next[pc];
+                        stackCaps[sp++] = caps;
+                        break;
+                    case SPLIT:
+                        // push the preferred branch last, so that it is explored first
+                        stackPc[sp] = nfa.next[pc];
+                        stackCaps[sp++] = caps;
+                        stackPc[sp] = nfa.arg[pc];
+                        stackCaps[sp++] = caps;
+                        break;
+                    case SAVE:
+                        if (caps != null) {
+                            int[] c = new int[caps.length];
+                            System.arraycopy(caps, 0, c, 0, caps.length);
+                            c[nfa.arg[pc]] = pos;
+                            caps = c;
+                        }
+                        stackPc[sp] = nfa.next[pc];
+                        stackCaps[sp++] = caps;
+                        break;
+                    case BOL:
+                        if (pos == 0 || (nfa.multiLine && search.charAt(pos - 1) == '\n')) {
+                            stackPc[sp] = nfa.next[pc];
+                            stackCaps[sp++] = caps;
+                        }
+                        break;
+                    case EOL:
+                        if (isEndOfLine(pos)) {
+                            stackPc[sp] = nfa.next[pc];
+                            stackCaps[sp++] = caps;
+                        }
+                        break;
+                    default:
+                        list.pc[list.size] = pc;
+                        list.caps[list.size++] = caps;
+                }
+            }
+        }
+
+        private boolean isEndOfLine(int pos) {
+            int len = search.length();
+            if (len == 0 || pos >= len) {
+                return true;
+            }
+            if (nfa.multiLine) {
+                return search.charAt(pos) == '\n';
+            } else {
+                return search.charAt(pos) == '\n' && pos + 1 >= len;
+            }
+        }
+    }
+
+    /**
+     * A state of the deterministic automaton: a set of states of the nondeterministic automaton
+     */
+
+    private static class DState {
+        int[] pcs;
+        boolean accepting = false;
+        IntHashMap<DState> transitions = new IntHashMap<DState>(8);
+
+        DState(int[] pcs) {
+            this.pcs = pcs;
+        }
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -1485,6 +1485,10 @@ public class RECompiler {
         }
         REProgram program = new REProgram(ops, parens, reFlags);
 
+        // Unless the program uses back-references, translate it to an automaton that can be executed
+        // in linear time, without backtracking
+        program.nfa = NFAProgram.make(program);
+
         if (reFlags.isDebug()) {
             program.display(System.err);
             //throw new AssertionError("terminated by request");
@@ -477,9 +477,64 @@ public class REMatcher  {
 
     public boolean anchoredMatch(UnicodeString search) {
         this.search = search;
+        if (program.nfa != null && !program.nfa.hasEmptyLoop()) {
+            return matchWithoutBacktracking(0, true);
+        }
         return matchAt(0, true);
     }
 
+    /**
+     * Tests whether the regex matches a string, without determining the position of the match
+     * or the captured groups. After calling this method, the values of getParen() and related
+     * methods are undefined.
+     *
+     * @param search String to match against
+     * @param anchored true if the regex must match the string in its entirety; false if it is
+     * sufficient for it to match a substring
+     * @return True if string matched
+     */
+
+    public boolean isMatch(UnicodeString search, boolean anchored) {
+        if (program.nfa != null) {
+            this.search = search;
+            parenCount = 0;
+            return program.nfa.isMatch(search, anchored);
+        } else if (anchored) {
+            return anchoredMatch(search);
+        } else {
+            return match(search, 0);
+        }
+    }
+
+    /**
+     * Match the program against the current input string using its non-backtracking form,
+     * setting the captured groups
+     *
+     * @param i The input string index to start matching at
+     * @param anchored true if the regex must match all characters from i to the end of the string
+     * @return True if the input matched the expression
+     */
+
+    private boolean matchWithoutBacktracking(int i, boolean anchored) {
+        int[] caps = program.nfa.exec(search, i, anchored);
+        if (caps == null) {
+            parenCount = 0;
+            return false;
+        }
+        int groups = caps.length / 2;
+        startn = new int[groups];
+        endn = new int[groups];
+        parenCount = 1;
+        for (int g = 0; g < groups; g++) {
+            startn[g] = caps[2 * g];
+            endn[g] = caps[2 * g + 1];
+            if (g > 0 && startn[g] >= 0 && endn[g] >= 0) {
+                parenCount = g + 1;
+            }
+        }
+        return true;
+    }
+
     /**
      * Matches the current regular expression program against a character array,
      * starting at a given index.
@@ -500,6 +555,11 @@ public class REMatcher  {
         // Save string to search
         this.search = search;
 
+        // If the program has a non-backtracking form, use it
+        if (program.nfa != null && !program.nfa.hasEmptyLoop()) {
+            return matchWithoutBacktracking(i, false);
+        }
+
         // Can we optimize the search by looking for new lines?
         if ((program.optimizationFlags & REProgram.OPT_HASBOL) == REProgram.OPT_HASBOL) {
             // Non multi-line matching with BOL: Must match at '0' index
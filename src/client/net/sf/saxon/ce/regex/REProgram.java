@@ -24,6 +24,7 @@ public class REProgram
     int optimizationFlags;      // Optimization flags (REProgram.OPT_*)
     int maxParens = -1;
     boolean nullable = false;
+    NFAProgram nfa;             // non-backtracking form of the program, or null if it uses back-references
 
     /**
      * Constructs a program object from a character array
@@ -0,0 +1,133 @@
+package client.net.sf.saxon.ce.regex;
+
+import client.net.sf.saxon.ce.trans.XPathException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled regular expressions, held by the Configuration. The functions matches(),
+ * replace() and tokenize(), and the xsl:analyze-string instruction, compile their regular expression
+ * each time they are evaluated; the cache ensures that a pattern that is used repeatedly (typically one
+ * held in a variable) is only compiled once. A compiled regular expression holds no state relating to
+ * a particular match, so it can safely be shared.
+ * <p/>
+ * The cache is bounded: when it is full, the least recently used entry is discarded.
+ */
+
+public class RegexCache {
+
+    private int capacity;
+    private int hits = 0;
+    private int misses = 0;
+    private LinkedHashMap<Key, ARegularExpression> cache;
+
+    /**
+     * The key of an entry in the cache. The parts are compared separately, since both the pattern
+     * and the flags may contain any characters.
+     */
+
+    private static class Key {
+        private String pattern;
+        private String flags;
+        private String hostLanguage;
+
+        public Key(String pattern, String flags, String hostLanguage) {
+            this.pattern = pattern;
+            this.flags = flags;
+            this.hostLanguage = hostLanguage;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return pattern.equals(k.pattern) && flags.equals(k.flags) && hostLanguage.equals(k.hostLanguage);
+        }
+
+        public int hashCode() {
+            return pattern.hashCode() ^ (flags.hashCode() * 31) ^ hostLanguage.hashCode();
+        }
+    }
+
+    /**
+     * Create a cache
+     * @param capacity the maximum number of compiled regular expressions to be retained
+     */
+
+    public RegexCache(int capacity) {
+        this.capacity = capacity;
+        cache = new LinkedHashMap<Key, ARegularExpression>(capacity, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, ARegularExpression> eldest) {
+                return size() > RegexCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a compiled regular expression, compiling it if it is not already in the cache
+     * @param pattern the regular expression as a string
+     * @param flags the flags supplied with the regular expression
+     * @param hostLanguage the host language, for example "XP20"
+     * @return the compiled regular expression
+     * @throws XPathException if the regular expression or the flags are invalid. Invalid regular
+     * expressions are not cached.
+     */
+
+    public ARegularExpression getRegularExpression(CharSequence pattern, String flags, String hostLanguage)
+            throws XPathException {
+        Key key = new Key(pattern.toString(), flags, hostLanguage);
+        ARegularExpression re = cache.get(key);
+        if (re == null) {
+            misses++;
+            re = new ARegularExpression(pattern, flags, hostLanguage, null);
+            cache.put(key, re);
+        } else {
+            hits++;
+        }
+        return re;
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required a regular expression to be compiled
+     * @return the number of cache misses
+     */
+
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of compiled regular expressions currently held in the cache
+     * @return the size of the cache
+     */
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Discard all entries in the cache, and reset the counters
+     */
+
+    public void clear() {
+        cache.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0. 
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/. 
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
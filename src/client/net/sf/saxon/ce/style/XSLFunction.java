@@ -9,6 +9,7 @@ import client.net.sf.saxon.ce.expr.instruct.UserFunction;
 import client.net.sf.saxon.ce.expr.instruct.UserFunctionParameter;
 import client.net.sf.saxon.ce.lib.NamespaceConstant;
 import client.net.sf.saxon.ce.om.*;
+import client.net.sf.saxon.ce.trace.TimingCodeInjector;
 import client.net.sf.saxon.ce.trans.XPathException;
 import client.net.sf.saxon.ce.tree.iter.AxisIterator;
 import client.net.sf.saxon.ce.value.SequenceType;
@@ -244,6 +245,9 @@ public class XSLFunction extends StyleElement implements StylesheetProcedure {
             trace.setConstructType(StandardNames.XSL_FUNCTION);
             trace.setObjectName(getObjectName());
             exp = trace;        	
+        } else if (getConfiguration().isTiming()) {
+            exp = new TimingCodeInjector().inject(exp, getStaticContext(), StandardNames.XSL_FUNCTION, getObjectName());
+            exp.setSourceLocator(this);
         }
 
         UserFunction fn = new UserFunction();
@@ -292,6 +296,7 @@ public class XSLFunction extends StyleElement implements StylesheetProcedure {
         try {
             if (opt.getOptimizationLevel() != Optimizer.NO_OPTIMIZATION) {
                 exp2 = exp.optimize(visitor, null);
+                exp2 = opt.promoteExpressionsToGlobal(exp2, visitor);
             }
 
         } catch (XPathException err) {
@@ -147,8 +147,12 @@ public abstract class XSLGeneralIncorporate extends StyleElement {
                     }
                 }
 
-                DocumentInfo rawDoc = getConfiguration().buildDocument(source);
+                DocumentInfo rawDoc = getConfiguration().takePrefetchedModule(source);
+                if (rawDoc == null) {
+                    rawDoc = getConfiguration().buildDocument(source);
+                }
                 getConfiguration().getDocumentPool().add(rawDoc, key);
+                getPreparedStylesheet().addIncorporatedModule(source, rawDoc);
                 DocumentImpl includedDoc = pss.loadStylesheetModule(rawDoc);
 
                 // allow the included document to use "Literal Result Element as Stylesheet" syntax
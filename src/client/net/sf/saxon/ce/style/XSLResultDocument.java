@@ -51,6 +51,7 @@ public class XSLResultDocument extends StyleElement {
     private StructuredQName formatQName;     // used when format is a literal string
     private Expression methodExpression;     // used when format is an AVT
     private Expression method;
+    private String keyAttribute;     // name of the attribute used to match elements, for ixsl:patch-content
 
 
     /**
@@ -107,6 +108,8 @@ public class XSLResultDocument extends StyleElement {
                 typeAtt = Whitespace.trim(atts.getValue(a));
             } else if (f.equals(StandardNames.USE_CHARACTER_MAPS)) {
                 useCharacterMapsAtt = Whitespace.trim(atts.getValue(a));
+            } else if (f.equals(StandardNames.IXSL_KEY)) {
+                keyAttribute = Whitespace.trim(atts.getValue(a));
             } else if (fans.contains(f) || f.startsWith("{")) {
                 // this is a serialization attribute
                 String val = Whitespace.trim(atts.getValue(a));
@@ -127,6 +130,10 @@ public class XSLResultDocument extends StyleElement {
             methodExpression = makeAttributeValueTemplate(methodAtt);
         }
 
+        if (keyAttribute!=null && !NameChecker.isValidNCName(keyAttribute)) {
+            compileError("ixsl:key must be the name of an attribute", "XTSE0020");
+        }
+
         if (validationAtt!=null && Validation.getCode(validationAtt) != Validation.STRIP) {
             compileError("To perform validation, a schema-aware XSLT processor is needed", "XTSE1660");
         }
@@ -151,6 +158,9 @@ public class XSLResultDocument extends StyleElement {
     public Expression compile(Executable exec, Declaration decl) throws XPathException {
 
         ResultDocument inst = new ResultDocument(href, methodExpression, getBaseURI(), this);
+        if (keyAttribute != null) {
+            inst.setKeyAttribute(keyAttribute);
+        }
 
         Expression b = compileSequenceConstructor(exec, decl, iterateAxis(Axis.CHILD));
         if (b == null) {
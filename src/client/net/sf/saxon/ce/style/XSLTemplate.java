@@ -9,6 +9,7 @@ import client.net.sf.saxon.ce.lib.NamespaceConstant;
 import client.net.sf.saxon.ce.om.*;
 import client.net.sf.saxon.ce.pattern.EmptySequenceTest;
 import client.net.sf.saxon.ce.pattern.Pattern;
+import client.net.sf.saxon.ce.trace.TimingCodeInjector;
 import client.net.sf.saxon.ce.trans.Mode;
 import client.net.sf.saxon.ce.trans.RuleManager;
 import client.net.sf.saxon.ce.trans.XPathException;
@@ -42,6 +43,8 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
     private boolean hasRequiredParams = false;
     private boolean ixslPreventDefault = false;
     private String ixslEventProperty = null;
+    private String ixslThrottleAtt = null;
+    private int ixslThrottle = Template.NO_EVENT_THROTTLE;
 
     /**
      * Ask whether this node is a declaration, that is, a permitted child of xsl:stylesheet
@@ -136,6 +139,8 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
         		ixslPreventDefault = atts.getValue(a).equals("yes");
         	} else if (f.equals(StandardNames.IXSL_EVENT_PROPERTY)) {
         		ixslEventProperty = atts.getValue(a);
+        	} else if (f.equals(StandardNames.IXSL_THROTTLE)) {
+        		ixslThrottleAtt = Whitespace.trim(atts.getValue(a));
         	} else {
         		checkUnknownAttribute(nc);
         	}
@@ -237,6 +242,30 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
             }
         }
 
+        if (ixslThrottleAtt != null) {
+            // either "frame" (coalesce to one event per animation frame) or an interval in milliseconds
+            if (ixslThrottleAtt.equals("frame")) {
+                ixslThrottle = Template.THROTTLE_TO_ANIMATION_FRAME;
+            } else {
+                try {
+                    ixslThrottle = Integer.parseInt(ixslThrottleAtt);
+                } catch (NumberFormatException err) {
+                    ixslThrottle = -1;
+                }
+                if (ixslThrottle < 0) {
+                    compileError("Invalid value for ixsl:throttle (" + ixslThrottleAtt +
+                            "): must be 'frame' or a number of milliseconds", "XTSE0020");
+                    ixslThrottle = Template.NO_EVENT_THROTTLE;
+                }
+            }
+            if (ixslPreventDefault && ixslThrottle != Template.NO_EVENT_THROTTLE) {
+                // a throttled template runs after the event has been dispatched
+                issueWarning(new XPathException("ixsl:prevent-default is applied to every event as it occurs, " +
+                        "but the template itself runs after the event has been dispatched, because of ixsl:throttle: " +
+                        "it cannot cancel or stop the event, and the event has no currentTarget"));
+            }
+        }
+
         if (matchAtt != null) {
             match = makePattern(matchAtt);
             if (diagnosticId == null) {
@@ -318,6 +347,7 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
         compiledTemplate.setSourceLocator(this);
         compiledTemplate.setHasRequiredParams(hasRequiredParams);
         compiledTemplate.setRequiredType(requiredType);
+        compiledTemplate.setEventThrottle(ixslThrottle);
 
 
         Expression exp = null;
@@ -349,6 +379,14 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
                 ((TraceExpression)exp).setProperty("mode", modeAtt);
         	}
         	compiledTemplate.setBody(exp);
+        } else if (getConfiguration().isTiming()) {
+            exp = new TimingCodeInjector().inject(exp, getStaticContext(), StandardNames.XSL_TEMPLATE, getObjectName());
+            if (exp instanceof TraceExpression) {
+                exp.setSourceLocator(this);
+                ((TraceExpression)exp).setProperty("match", matchAtt);
+                ((TraceExpression)exp).setProperty("mode", modeAtt);
+            }
+            compiledTemplate.setBody(exp);
         }
 
         return null;
@@ -408,6 +446,7 @@ public final class XSLTemplate extends StyleElement implements StylesheetProcedu
             Expression exp2 = visitor.typeCheck(exp, contextItemType);
             if (opt.getOptimizationLevel() != Optimizer.NO_OPTIMIZATION) {
                 exp2 = visitor.optimize(exp2, contextItemType);
+                exp2 = opt.promoteExpressionsToGlobal(exp2, visitor);
             }
             if (exp != exp2) {
                 compiledTemplate.setBody(exp2);
@@ -0,0 +1,307 @@
+package client.net.sf.saxon.ce.trace;
+
+import client.net.sf.saxon.ce.expr.XPathContext;
+import client.net.sf.saxon.ce.lib.StandardErrorListener;
+import client.net.sf.saxon.ce.lib.TraceListener;
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.StandardNames;
+import client.net.sf.saxon.ce.om.StructuredQName;
+import client.net.sf.saxon.ce.trans.Mode;
+import client.net.sf.saxon.ce.trans.Rule;
+import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A trace listener that records, for each template and stylesheet function, the number of times it is
+ * invoked and the time spent in it, so that the constructs where a transformation spends its time can
+ * be identified. It is used when timing is enabled in the Configuration: the stylesheet is then compiled
+ * with a {@link TimingCodeInjector}, which wraps the body of each template and function in a trace
+ * expression, and the Controller notifies this listener for the duration of each transformation.
+ * <p/>
+ * For each template and function the listener records the number of calls, the inclusive time
+ * (including the time spent in templates and functions that it calls) and the exclusive time
+ * (excluding that time), and for each template rule, the number of times it was matched in each mode.
+ * Where a template or function is invoked recursively, only the outermost invocation contributes to
+ * the inclusive time. The result of a function may be delivered lazily, in which case work done
+ * while the caller reads the result is attributed to the caller.
+ * <p/>
+ * When the transformation finishes, the report is written to the log, listing the constructs in
+ * descending order of exclusive time, and it is also made available as an XML document, which the
+ * Controller adds to its result documents under the URI {@link #REPORT_URI}.
+ */
+
+public class TimingTraceListener implements TraceListener {
+
+    /**
+     * The URI under which the XML report is added to the result documents of the transformation
+     */
+
+    public static final String REPORT_URI = "saxon-timing-report.xml";
+
+    /**
+     * The number of entries listed in the log. The XML report contains all entries.
+     */
+
+    private static final int LOGGED_ENTRIES = 20;
+
+    private static Logger logger = Logger.getLogger("Timing");
+
+    private HashMap<InstructionInfo, Entry> entries = new LinkedHashMap<InstructionInfo, Entry>();
+    private Entry[] stack = new Entry[50];
+    private double[] startTimes = new double[50];
+    private double[] childTimes = new double[50];
+    private int depth = 0;
+    private double startTime;
+    private double totalTime;
+
+    /**
+     * The statistics collected for one template or function
+     */
+
+    private static class Entry {
+        public int constructType;
+        public String name;
+        public String match;
+        public String mode;
+        public String module;
+        public int calls = 0;
+        public int active = 0;
+        public double inclusive = 0;
+        public double exclusive = 0;
+        public LinkedHashMap<String, Integer> modeMatches;
+    }
+
+    /**
+     * Called at the start of the transformation
+     */
+
+    public void open() {
+        entries.clear();
+        depth = 0;
+        startTime = now();
+    }
+
+    /**
+     * Called at the end of the transformation: writes the report to the log
+     */
+
+    public void close() {
+        totalTime = now() - startTime;
+        List<Entry> list = getEntriesByExclusiveTime();
+        logger.info("Timing: " + list.size() + " templates and functions, total time " + format(totalTime) + "ms");
+        logger.info("     calls   incl(ms)   excl(ms)  construct");
+        for (int i = 0; i < list.size() && i < LOGGED_ENTRIES; i++) {
+            Entry e = list.get(i);
+            logger.info(pad(Integer.toString(e.calls)) + pad(format(e.inclusive)) + pad(format(e.exclusive)) +
+                    "  " + describe(e));
+        }
+    }
+
+    /**
+     * Called when a template or function is entered
+     */
+
+    public void enter(InstructionInfo instruction, XPathContext context) {
+        int construct = instruction.getConstructType();
+        if (construct != StandardNames.XSL_TEMPLATE && construct != StandardNames.XSL_FUNCTION) {
+            return;
+        }
+        Entry e = entries.get(instruction);
+        if (e == null) {
+            e = makeEntry(instruction);
+            entries.put(instruction, e);
+        }
+        e.calls++;
+        e.active++;
+        if (construct == StandardNames.XSL_TEMPLATE && e.match != null) {
+            recordMatch(e, instruction, context);
+        }
+        if (depth == stack.length) {
+            Entry[] s2 = new Entry[depth * 2];
+            System.arraycopy(stack, 0, s2, 0, depth);
+            stack = s2;
+            double[] t2 = new double[depth * 2];
+            System.arraycopy(startTimes, 0, t2, 0, depth);
+            startTimes = t2;
+            double[] c2 = new double[depth * 2];
+            System.arraycopy(childTimes, 0, c2, 0, depth);
+            childTimes = c2;
+        }
+        stack[depth] = e;
+        childTimes[depth] = 0;
+        startTimes[depth++] = now();
+    }
+
+    /**
+     * Called when a template or function is left
+     */
+
+    public void leave(InstructionInfo instruction) {
+        int construct = instruction.getConstructType();
+        if ((construct != StandardNames.XSL_TEMPLATE && construct != StandardNames.XSL_FUNCTION) || depth == 0) {
+            return;
+        }
+        double elapsed = now() - startTimes[--depth];
+        Entry e = stack[depth];
+        e.exclusive += elapsed - childTimes[depth];
+        if (--e.active == 0) {
+            e.inclusive += elapsed;
+        }
+        if (depth > 0) {
+            childTimes[depth - 1] += elapsed;
+        }
+    }
+
+    public void startCurrentItem(Item currentItem) {}
+
+    public void endCurrentItem(Item currentItem) {}
+
+    /**
+     * Count a match of a template rule, if the template was invoked as a template rule rather
+     * than by name
+     */
+
+    private void recordMatch(Entry e, InstructionInfo instruction, XPathContext context) {
+        Rule rule = context.getCurrentTemplateRule();
+        if (rule == null || rule.getAction() == null || rule.getAction().getBody() != instruction) {
+            return;
+        }
+        Mode mode = context.getCurrentMode();
+        String modeName = (mode == null || mode.getModeName() == null ? "#default" : mode.getModeName().getDisplayName());
+        if (e.modeMatches == null) {
+            e.modeMatches = new LinkedHashMap<String, Integer>(4);
+        }
+        Integer count = e.modeMatches.get(modeName);
+        e.modeMatches.put(modeName, (count == null ? 1 : count + 1));
+    }
+
+    private static Entry makeEntry(InstructionInfo instruction) {
+        Entry e = new Entry();
+        e.constructType = instruction.getConstructType();
+        StructuredQName name = instruction.getObjectName();
+        e.name = (name == null ? null : name.getDisplayName());
+        Object match = instruction.getProperty("match");
+        e.match = (match == null ? null : match.toString());
+        Object mode = instruction.getProperty("mode");
+        e.mode = (mode == null ? null : mode.toString());
+        e.module = StandardErrorListener.abbreviatePath(instruction.getSystemId());
+        return e;
+    }
+
+    private List<Entry> getEntriesByExclusiveTime() {
+        List<Entry> list = new ArrayList<Entry>(entries.values());
+        Collections.sort(list, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return (a.exclusive > b.exclusive ? -1 : (a.exclusive < b.exclusive ? +1 : 0));
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Get the report of the most recent transformation as an XML document. The document element is
+     * a <code>timing</code> element, with a <code>template</code> or <code>function</code> child for each
+     * construct that was invoked, in descending order of exclusive time. Each has attributes giving
+     * its name, match pattern and mode (where applicable), module, number of calls, inclusive and
+     * exclusive time in milliseconds, and average inclusive time per call; a template rule has a
+     * <code>mode</code> child for each mode in which it was matched, giving the number of matches.
+     * @return the serialized XML report
+     */
+
+    public String getReport() {
+        FastStringBuffer sb = new FastStringBuffer(FastStringBuffer.LARGE);
+        sb.append("<timing total-time=\"" + format(totalTime) + "\">");
+        for (Entry e : getEntriesByExclusiveTime()) {
+            String tag = (e.constructType == StandardNames.XSL_FUNCTION ? "function" : "template");
+            sb.append("\n<" + tag);
+            if (e.name != null) {
+                sb.append(" name=\"" + escape(e.name) + '"');
+            }
+            if (e.match != null) {
+                sb.append(" match=\"" + escape(e.match) + '"');
+            }
+            if (e.mode != null) {
+                sb.append(" mode=\"" + escape(e.mode) + '"');
+            }
+            if (e.module != null) {
+                sb.append(" module=\"" + escape(e.module) + '"');
+            }
+            sb.append(" calls=\"" + e.calls + '"');
+            sb.append(" inclusive-time=\"" + format(e.inclusive) + '"');
+            sb.append(" exclusive-time=\"" + format(e.exclusive) + '"');
+            sb.append(" average-time=\"" + format(e.inclusive / e.calls) + '"');
+            if (e.modeMatches == null) {
+                sb.append("/>");
+            } else {
+                sb.append('>');
+                for (Map.Entry<String, Integer> m : e.modeMatches.entrySet()) {
+                    sb.append("<mode name=\"" + escape(m.getKey()) + "\" matches=\"" + m.getValue() + "\"/>");
+                }
+                sb.append("</" + tag + '>');
+            }
+        }
+        sb.append("\n</timing>");
+        return sb.toString();
+    }
+
+    private static String describe(Entry e) {
+        String s = (e.constructType == StandardNames.XSL_FUNCTION ? "function " : "template ");
+        if (e.name != null) {
+            s += e.name + ' ';
+        }
+        if (e.match != null) {
+            s += "match=\"" + e.match + "\" ";
+        }
+        if (e.mode != null) {
+            s += "mode=\"" + e.mode + "\" ";
+        }
+        return s + "in " + e.module;
+    }
+
+    private static String escape(String in) {
+        FastStringBuffer sb = new FastStringBuffer(in.length() + 10);
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c == '<') {
+                sb.append("&lt;");
+            } else if (c == '&') {
+                sb.append("&amp;");
+            } else if (c == '\"') {
+                sb.append("&#34;");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String format(double millis) {
+        return Double.toString(Math.round(millis * 1000) / 1000.0);
+    }
+
+    private static String pad(String s) {
+        return "          ".substring(Math.min(s.length(), 10)) + s;
+    }
+
+    /**
+     * Get the current time in milliseconds, to the precision of the browser's high resolution
+     * timer where it has one
+     */
+
+    private static native double now() /*-{
+        return ($wnd.performance && $wnd.performance.now) ? $wnd.performance.now() : new Date().getTime();
+    }-*/;
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -2,6 +2,7 @@ package client.net.sf.saxon.ce.trans;
 
 import client.net.sf.saxon.ce.Configuration;
 import client.net.sf.saxon.ce.Controller;
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.expr.*;
 import client.net.sf.saxon.ce.expr.instruct.SlotManager;
 import client.net.sf.saxon.ce.expr.sort.LocalOrderComparer;
@@ -12,6 +13,7 @@ import client.net.sf.saxon.ce.tree.iter.AxisIterator;
 import client.net.sf.saxon.ce.tree.iter.EmptyIterator;
 import client.net.sf.saxon.ce.tree.iter.ListIterator;
 import client.net.sf.saxon.ce.tree.iter.SingleNodeIterator;
+import client.net.sf.saxon.ce.tree.util.Navigator;
 import client.net.sf.saxon.ce.type.AtomicType;
 import client.net.sf.saxon.ce.type.BuiltInAtomicType;
 import client.net.sf.saxon.ce.type.BuiltInType;
@@ -21,6 +23,8 @@ import client.net.sf.saxon.ce.value.DoubleValue;
 import client.net.sf.saxon.ce.value.NumericValue;
 
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
   * KeyManager manages the set of key definitions in a stylesheet, and the indexes
@@ -36,6 +40,15 @@ import java.util.*;
   * list of indexes used for each document, so that indexes remain in memory for the duration
   * of a transformation even if the documents themselves are garbage collected.</p>
   *
+  * <p>Indexes are built on demand. When the key() function is called with a third argument
+  * identifying an element, and no index for the whole document yet exists, only the subtree rooted
+  * at that element is indexed; once more than a small number of subtrees of the same document have
+  * been indexed, the whole document is indexed instead. Indexes are retained by the KeyManager, and
+  * are therefore reused by later transformations using the same compiled stylesheet and the same
+  * document. For a document that wraps a DOM, the indexes are discarded as soon as Saxon modifies
+  * any DOM, or the document is refreshed because it may have been changed by other scripts
+  * (see {@link HTMLDocumentWrapper#getEpoch()}).</p>
+  *
   * <p>Potentially there is a need for more than one index for a given key name, depending
   * on the primitive type of the value provided to the key() function. An index is built
   * corresponding to the type of the requested value; if subsequently the key() function is
@@ -74,20 +87,29 @@ public class KeyManager {
     private HashMap<StructuredQName, KeyDefinitionSet> keyMap;
                                      // one entry for each named key; the entry contains
                                      // a KeyDefinitionSet holding the key definitions with that name
-    private transient HashMap<DocumentInfo, HashMap<Long, Object>> docIndexes;
-                                     // one entry for each document that is in memory;
-                                     // the entry contains a HashMap mapping the fingerprint of
-                                     // the key name plus the primitive item type
+    private transient HashMap<DocumentInfo, DocumentIndexes> docIndexes;
+                                     // one entry for each document that has been indexed;
+                                     // the entry contains, for the whole document and for each
+                                     // subtree indexed separately, a HashMap mapping the fingerprint
+                                     // of the key name plus the primitive item type
                                      // to the HashMap that is the actual index
                                      // of key/value pairs.
 
+    private int maxSubtreeIndexes = 8;
+    private int indexesBuilt = 0;
+    private int subtreeIndexesBuilt = 0;
+    private int entriesIndexed = 0;
+    private long indexBuildTime = 0;
+
+    private static Logger logger = Logger.getLogger("KeyManager");
+
     /**
      * Create a KeyManager and initialise variables
      */
 
     public KeyManager() {
         keyMap = new HashMap<StructuredQName, KeyDefinitionSet>(10);
-        docIndexes = new HashMap<DocumentInfo, HashMap<Long, Object>>(10);
+        docIndexes = new HashMap<DocumentInfo, DocumentIndexes>(10);
     }
 
     /**
@@ -149,12 +171,12 @@ public class KeyManager {
     }
 
     /**
-     * Build the index for a particular document for a named key
+     * Build the index for a particular document, or a subtree of a document, for a named key
      * @param keySet The set of key definitions with this name
      * @param itemType the type of the values to be indexed.
      * @param foundItemTypes Optional (may be null). If supplied, a set that is to be populated with
      * the set of primitive types actually found among the "use" values.
-     * @param doc The source document in question
+     * @param root The source document in question, or the element at the root of the subtree to be indexed
      * @param context The dynamic context
      * @return the index in question, as a HashMap mapping a key value onto a ArrayList of nodes
     */
@@ -162,24 +184,41 @@ public class KeyManager {
     private synchronized HashMap buildIndex(KeyDefinitionSet keySet,
                                             BuiltInAtomicType itemType,
                                             Set<BuiltInAtomicType> foundItemTypes,
-                                            DocumentInfo doc,
+                                            NodeInfo root,
                                             XPathContext context) throws XPathException {
 
+        long start = System.currentTimeMillis();
         List<KeyDefinition> definitions = keySet.getKeyDefinitions();
         HashMap<Object, List<NodeInfo>> index = new HashMap<Object, List<NodeInfo>>(100);
 
         // There may be multiple xsl:key definitions with the same name. Index them all.
         for (int k=0; k<definitions.size(); k++) {
-            constructIndex( doc, index, definitions.get(k), itemType, foundItemTypes, context, k == 0);
+            constructIndex( root, index, definitions.get(k), itemType, foundItemTypes, context, k == 0);
         }
 
+        int entries = 0;
+        for (List<NodeInfo> nodes : index.values()) {
+            entries += nodes.size();
+        }
+        long time = System.currentTimeMillis() - start;
+        indexesBuilt++;
+        if (root.getNodeKind() != Type.DOCUMENT) {
+            subtreeIndexesBuilt++;
+        }
+        entriesIndexed += entries;
+        indexBuildTime += time;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Built index for key " + keySet.getKeyName().getDisplayName() +
+                    (root.getNodeKind() == Type.DOCUMENT ? " on document " : " on subtree " + Navigator.getPath(root) + " of ") +
+                    root.getSystemId() + ": " + index.size() + " values, " + entries + " entries in " + time + "ms");
+        }
         return index;
 
     }
 
     /**
      * Process one key definition to add entries to an index
-     * @param doc the document to be indexed
+     * @param root the document, or the root of the subtree, to be indexed
      * @param index the index to be built
      * @param keydef the key definition used to build the index
      * @param soughtItemType the primitive type of the value that the user is searching for on the call
@@ -190,7 +229,7 @@ public class KeyManager {
      * @param isFirst true if this is the first index to be built for this key
      */
 
-    private void constructIndex(    DocumentInfo doc,
+    private void constructIndex(    NodeInfo root,
                                     HashMap<Object, List<NodeInfo>> index,
                                     KeyDefinition keydef,
                                     BuiltInAtomicType soughtItemType,
@@ -209,7 +248,7 @@ public class KeyManager {
             xc.openStackFrame(map);
         }
 
-        SequenceIterator iter = match.selectNodes(doc, xc);
+        SequenceIterator iter = match.selectNodes(root, xc);
         while (true) {
             Item item = iter.next();
             if (item == null) {
@@ -361,6 +400,28 @@ public class KeyManager {
                                 DocumentInfo doc,
                                 AtomicValue soughtValue,
                                 XPathContext context) throws XPathException {
+        return selectByKey(keySet, doc, doc, soughtValue, context);
+    }
+
+    /**
+    * Get the nodes with a given key value, within a subtree of a document. If no index for the
+    * whole document exists, only the subtree is indexed.
+    * @param keySet The set of key definitions identified by the key name used in the call to the key() function
+    * @param doc The source document in question
+    * @param origin The root of the subtree of interest: the caller is interested only in selected nodes
+    * that have this node as an ancestor-or-self. The result may nevertheless include nodes outside
+    * the subtree, so the caller must filter the result if origin is not the document node.
+    * @param soughtValue The required key value
+    * @param context The dynamic context, needed only the first time when the key is being built
+    * @return an iteration of the selected nodes, always in document order with no duplicates
+    */
+
+    public SequenceIterator selectByKey(
+                                KeyDefinitionSet keySet,
+                                DocumentInfo doc,
+                                NodeInfo origin,
+                                AtomicValue soughtValue,
+                                XPathContext context) throws XPathException {
 
         //System.err.println("*********** USING KEY ************");
         if (soughtValue == null) {
@@ -405,7 +466,8 @@ public class KeyManager {
         BuiltInAtomicType itemType = value.getPrimitiveType();
         HashMap index;
 
-        Object indexObject = getIndex(doc, keySetNumber, itemType);
+        NodeInfo root = chooseIndexRoot(doc, origin, keySetNumber, itemType);
+        Object indexObject = getIndex(doc, root, keySetNumber, itemType);
         if (indexObject instanceof String) {
             // index is under construction
             XPathException de = new XPathException("Key definition is circular");
@@ -418,17 +480,17 @@ public class KeyManager {
         // If the index does not yet exist, then create it.
         if (index==null) {
             // Mark the index as being under construction, in case the definition is circular
-            putIndex(doc, keySetNumber, itemType, "Under Construction", context);
-            index = buildIndex(keySet, itemType, foundItemTypes, doc, context);
-            putIndex(doc, keySetNumber, itemType, index, context);
+            putIndex(doc, root, keySetNumber, itemType, "Under Construction", context);
+            index = buildIndex(keySet, itemType, foundItemTypes, root, context);
+            putIndex(doc, root, keySetNumber, itemType, index, context);
             if (foundItemTypes != null) {
                 // build indexes for each item type actually found
                 for (Iterator<BuiltInAtomicType> f = foundItemTypes.iterator(); f.hasNext();) {
                     BuiltInAtomicType t = f.next();
                     if (!t.equals(BuiltInAtomicType.STRING)) {
-                        putIndex(doc, keySetNumber, t, "Under Construction", context);
-                        index = buildIndex(keySet, t, null, doc, context);
-                        putIndex(doc, keySetNumber, t, index, context);
+                        putIndex(doc, root, keySetNumber, t, "Under Construction", context);
+                        index = buildIndex(keySet, t, null, root, context);
+                        putIndex(doc, root, keySetNumber, t, index, context);
                     }
                 }
             }
@@ -445,16 +507,16 @@ public class KeyManager {
         } else {
             // we need to search the indexes for all possible types, and combine the results.
             SequenceIterator result = null;
-            HashMap<Long, Object> docIndex = docIndexes.get(doc);
+            HashMap<Long, Object> docIndex = getIndexList(doc, root);
             if (docIndex != null) {
-                for (Iterator<Long> i= index.keySet().iterator(); i.hasNext();) {
+                for (Iterator<Long> i= docIndex.keySet().iterator(); i.hasNext();) {
                     long key = (i.next()).longValue();
                     if (((key >> 32)) == keySetNumber) {
                         int typefp = (int)key;
 
                         BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(typefp);
 
-                        Object indexObject2 = getIndex(doc, keySetNumber, type);
+                        Object indexObject2 = getIndex(doc, root, keySetNumber, type);
                         if (indexObject2 instanceof String) {
                             // index is under construction
                             XPathException de = new XPathException("Key definition is circular");
@@ -503,68 +565,221 @@ public class KeyManager {
         return val;
     }
 
+    /**
+     * Decide whether to index the whole document or only the subtree of interest
+     * @param doc the document containing the nodes sought
+     * @param origin the root of the subtree of interest
+     * @param keySetNumber the number of the key definition set
+     * @param itemType the primitive type of the values being indexed
+     * @return the node at the root of the tree or subtree whose index should be used
+     */
+
+    private synchronized NodeInfo chooseIndexRoot(DocumentInfo doc, NodeInfo origin,
+                                                  int keySetNumber, AtomicType itemType) {
+        if (origin.getNodeKind() != Type.ELEMENT || getIndex(doc, doc, keySetNumber, itemType) != null) {
+            return doc;
+        }
+        DocumentIndexes indexes = getDocumentIndexes(doc);
+        if (indexes != null && indexes.subtreeIndexes.size() >= maxSubtreeIndexes &&
+                !indexes.subtreeIndexes.containsKey(origin)) {
+            // we have indexed too many subtrees separately: it is now cheaper to index the whole document
+            return doc;
+        }
+        return origin;
+    }
+
     /**
     * Save the index associated with a particular key, a particular item type,
-    * and a particular document. This
-    * needs to be done in such a way that the index is discarded by the garbage collector
-    * if the document is discarded. We therefore use a WeakHashMap indexed on the DocumentInfo,
-    * which returns HashMap giving the index for each key fingerprint. This index is itself another
+    * and a particular document or subtree. The indexes are held in a HashMap indexed on the
+    * DocumentInfo, which holds a HashMap giving the index for each key fingerprint, for the whole
+    * document and for each subtree that has been indexed separately. This index is itself another
     * HashMap.
     * The methods need to be synchronized because several concurrent transformations (which share
     * the same KeyManager) may be creating indexes for the same or different documents at the same
     * time.
      * @param doc the document being indexed
+     * @param root the document node, or the root of the subtree being indexed
      * @param keyFingerprint represents the name of the key definition
      * @param itemType the primitive type of the values being indexed
      * @param index the index being saved
      * @param context the dynamic evaluation context
     */
 
-    private synchronized void putIndex(DocumentInfo doc, int keyFingerprint,
+    private synchronized void putIndex(DocumentInfo doc, NodeInfo root, int keyFingerprint,
                                        AtomicType itemType, Object index, XPathContext context) {
-        if (docIndexes==null) {
-            // it's transient, so it will be null when reloading a compiled stylesheet
-            docIndexes = new HashMap<DocumentInfo, HashMap<Long, Object>>(10);
-        }
-        HashMap<Long, Object> indexRef = docIndexes.get(doc);
-        HashMap<Long, Object> indexList;
-        if (indexRef==null) {
-            indexList = new HashMap<Long, Object>(10);
-            // Ensure there is a firm reference to the indexList for the duration of a transformation
+        DocumentIndexes indexes = getDocumentIndexes(doc);
+        if (indexes == null) {
+            discardModifiedIndexes();
+            indexes = new DocumentIndexes();
+            indexes.mutationEpoch = getEpoch(doc);
+            // Ensure there is a firm reference to the indexes for the duration of a transformation
             // But for keys associated with temporary trees, or documents that have been discarded from
             // the document pool, keep the reference within the document node itself.
             Controller controller = context.getController();
             if (controller.getDocumentPool().contains(doc)) {
-                context.getController().setUserData(doc, "saxon:key-index-list", indexList);
+                controller.setUserData(doc, "saxon:key-index-list", indexes);
             } else {
-                doc.setUserData("saxon:key-index-list", indexList);
+                doc.setUserData("saxon:key-index-list", indexes);
             }
-            docIndexes.put(doc, new HashMap<Long, Object>(indexList));
+            docIndexes.put(doc, indexes);
+        }
+        HashMap<Long, Object> indexList;
+        if (root.getNodeKind() == Type.DOCUMENT) {
+            indexList = indexes.documentIndexes;
         } else {
-            indexList = indexRef;
+            indexList = indexes.subtreeIndexes.get(root);
+            if (indexList == null) {
+                indexList = new HashMap<Long, Object>(4);
+                indexes.subtreeIndexes.put(root, indexList);
+            }
         }
         indexList.put(Long.valueOf(((long)keyFingerprint)<<32 | itemType.getFingerprint()), index);
     }
 
     /**
-     * Get the index associated with a particular key, a particular source document,
+     * Get the index associated with a particular key, a particular source document or subtree,
      * and a particular primitive item type
      * @param doc the document whose index is required
+     * @param root the document node, or the root of the subtree whose index is required
      * @param keyFingerprint the name of the key definition
      * @param itemType the primitive item type of the values being indexed
      * @return either an index (as a HashMap), or the String "under construction", or null
     */
 
-    private synchronized Object getIndex(DocumentInfo doc, int keyFingerprint, AtomicType itemType) {
+    private synchronized Object getIndex(DocumentInfo doc, NodeInfo root, int keyFingerprint, AtomicType itemType) {
+        HashMap<Long, Object> indexList = getIndexList(doc, root);
+        if (indexList==null) return null;
+        return indexList.get(Long.valueOf(((long)keyFingerprint)<<32 | itemType.getFingerprint()));
+    }
+
+    /**
+     * Get the indexes held for a document or subtree
+     * @param doc the document
+     * @param root the document node, or the root of a subtree
+     * @return a HashMap mapping the key fingerprint and item type to the index, or null if there are none
+     */
+
+    private HashMap<Long, Object> getIndexList(DocumentInfo doc, NodeInfo root) {
+        DocumentIndexes indexes = getDocumentIndexes(doc);
+        if (indexes == null) {
+            return null;
+        } else if (root.getNodeKind() == Type.DOCUMENT) {
+            return indexes.documentIndexes;
+        } else {
+            return indexes.subtreeIndexes.get(root);
+        }
+    }
+
+    /**
+     * Get the indexes held for a document, discarding them if the document is a wrapper around
+     * a DOM that may have been modified since they were built
+     * @param doc the document
+     * @return the indexes, or null if there are none
+     */
+
+    private DocumentIndexes getDocumentIndexes(DocumentInfo doc) {
         if (docIndexes==null) {
             // it's transient, so it will be null when reloading a compiled stylesheet
-            docIndexes = new HashMap<DocumentInfo, HashMap<Long, Object>>(10);
+            docIndexes = new HashMap<DocumentInfo, DocumentIndexes>(10);
+        }
+        DocumentIndexes indexes = docIndexes.get(doc);
+        if (indexes != null && isModified(doc, indexes)) {
+            docIndexes.remove(doc);
+            return null;
+        }
+        return indexes;
+    }
+
+    private static boolean isModified(DocumentInfo doc, DocumentIndexes indexes) {
+        return doc instanceof HTMLDocumentWrapper && indexes.mutationEpoch != getEpoch(doc);
+    }
+
+    private static int getEpoch(DocumentInfo doc) {
+        return (doc instanceof HTMLDocumentWrapper ? ((HTMLDocumentWrapper)doc).getEpoch() : 0);
+    }
+
+    /**
+     * Discard the indexes held for all DOM documents that may have been modified since
+     * the indexes were built
+     */
+
+    private void discardModifiedIndexes() {
+        for (Iterator<Map.Entry<DocumentInfo, DocumentIndexes>> it = docIndexes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<DocumentInfo, DocumentIndexes> entry = it.next();
+            if (isModified(entry.getKey(), entry.getValue())) {
+                it.remove();
+            }
         }
-        HashMap<Long, Object> docIndex = docIndexes.get(doc);
-        if (docIndex==null) return null;
-        return docIndex.get(Long.valueOf(((long)keyFingerprint)<<32 | itemType.getFingerprint()));
     }
 
+    /**
+     * Discard all the indexes held by this KeyManager
+     */
+
+    public synchronized void clearIndexes() {
+        docIndexes = new HashMap<DocumentInfo, DocumentIndexes>(10);
+    }
+
+    /**
+     * Set the maximum number of subtrees of a document that will be indexed separately for
+     * calls on the key() function with a third argument. When this number is reached, the whole
+     * document is indexed instead. Setting the value to zero means that the whole document is
+     * always indexed.
+     * @param max the maximum number of subtree indexes per document (default 8)
+     */
+
+    public void setMaximumSubtreeIndexes(int max) {
+        maxSubtreeIndexes = max;
+    }
+
+    /**
+     * Get the number of indexes that have been built, including subtree indexes
+     * @return the number of indexes built by this KeyManager
+     */
+
+    public int getNumberOfIndexesBuilt() {
+        return indexesBuilt;
+    }
+
+    /**
+     * Get the number of indexes that have been built for a subtree rather than a whole document
+     * @return the number of subtree indexes built by this KeyManager
+     */
+
+    public int getNumberOfSubtreeIndexesBuilt() {
+        return subtreeIndexesBuilt;
+    }
+
+    /**
+     * Get the total number of entries (pairs of key value and node) in the indexes that have been built
+     * @return the number of index entries
+     */
+
+    public int getNumberOfIndexEntries() {
+        return entriesIndexed;
+    }
+
+    /**
+     * Get the total time spent building indexes
+     * @return the time in milliseconds
+     */
+
+    public long getIndexBuildTime() {
+        return indexBuildTime;
+    }
+
+    /**
+     * The indexes held for one document
+     */
+
+    private static class DocumentIndexes {
+        // the epoch of the document at the time the indexes were created
+        public int mutationEpoch;
+        // indexes covering the whole document, keyed by key fingerprint and item type
+        public HashMap<Long, Object> documentIndexes = new HashMap<Long, Object>(10);
+        // indexes covering subtrees, keyed by the root of the subtree
+        public HashMap<NodeInfo, HashMap<Long, Object>> subtreeIndexes = new HashMap<NodeInfo, HashMap<Long, Object>>(4);
+    }
 
 }
 
@@ -53,6 +53,16 @@ public class Mode  {
     private HashMap<Integer, Rule> namedElementRuleChains = new HashMap<Integer, Rule>(32);
     private HashMap<Integer, Rule> namedAttributeRuleChains = new HashMap<Integer, Rule>(8);
 
+    // Discrimination indexes built from the rule chains on first use; see RuleChainIndex
+    private boolean indexed = false;
+    private RuleChainIndex[] kindIndexes;
+    private RuleChainIndex genericNodeIndex;
+    private HashMap<Integer, RuleChainIndex> namedElementIndexes;
+    private HashMap<Integer, RuleChainIndex> namedAttributeIndexes;
+
+    private int matchCount = 0;
+    private int patternTestCount = 0;
+
     private Rule mostRecentRule;
     private int mostRecentModuleHash;
     private boolean isDefault;
@@ -203,6 +213,7 @@ public class Mode  {
         if (explicitMode) {
             hasRules = true;
         }
+        indexed = false;
 
         // Ignore a pattern that will never match, e.g. "@comment"
 
@@ -362,10 +373,19 @@ public class Mode  {
     }
     
     public Rule getVirtualRule(XPathContext context){
+    	return getVirtualRule((JavaScriptObject)context.getController().getUserData("Saxon-CE", "current-object"));
+    }
+
+    /**
+     * Get the rule for events raised by a given object outside the DOM, such as the window
+     * @param eventObject the JavaScript object that raised the event
+     * @return the first rule whose pattern matches the object, or null if there is none
+     */
+
+    public Rule getVirtualRule(JavaScriptObject eventObject) {
     	if (virtualRuleChain == null) {
     		return null;
     	}
-    	JavaScriptObject eventObject = (JavaScriptObject)context.getController().getUserData("Saxon-CE", "current-object");
     	for (Rule r : virtualRuleChain) {
     		JSObjectPattern jso = (JSObjectPattern)r.getPattern();
     		if (jso.matchesObject(eventObject)) {
@@ -384,121 +404,9 @@ public class Mode  {
      */
 
     public Rule getRule(NodeInfo node, XPathContext context) throws XPathException {
-
-        // If there are match patterns in the stylesheet that use local variables, we need to allocate
-        // a new stack frame for evaluating the match patterns. We base this on the match pattern with
-        // the highest number of range variables, so we can reuse the same stack frame for all rules
-        // that we test against. If no patterns use range variables, we don't bother allocating a new
-        // stack frame.
-
-        // Note, this method isn't functionally necessary; we could call the 3-argument version
-        // with a filter that always returns true. But this is the common path for apply-templates,
-        // and we want to squeeze every drop of performance from it.
-
-        if (stackFrameSlotsNeeded > 0) {
-            context = makeNewContext(context);
-        }
-
-        // search the specific list for this node type / node name
-
-        Rule unnamedNodeChain;
-        Rule bestRule = null;
-
-        switch (node.getNodeKind()) {
-            case Type.DOCUMENT:
-                unnamedNodeChain = documentRuleChain;
-                break;
-
-            case Type.ELEMENT: {
-                unnamedNodeChain = unnamedElementRuleChain;
-                Rule namedNodeChain = namedElementRuleChains.get(node.getFingerprint());
-                if (namedNodeChain != null) {
-                    bestRule = searchRuleChain(node, context, null, namedNodeChain);
-                }
-                break;
-            }
-            case Type.ATTRIBUTE: {
-                unnamedNodeChain = unnamedAttributeRuleChain;
-                Rule namedNodeChain = namedAttributeRuleChains.get(node.getFingerprint());
-                if (namedNodeChain != null) {
-                    bestRule = searchRuleChain(node, context, null, namedNodeChain);
-                }
-                break;
-            }
-            case Type.TEXT:
-                unnamedNodeChain = textRuleChain;
-                break;
-            case Type.COMMENT:
-                unnamedNodeChain = commentRuleChain;
-                break;
-            case Type.PROCESSING_INSTRUCTION:
-                unnamedNodeChain = processingInstructionRuleChain;
-                break;
-            case Type.NAMESPACE:
-                unnamedNodeChain = namespaceRuleChain;
-                break;
-            default:
-                throw new AssertionError("Unknown node kind");
-        }
-
-        // search the list for unnamed nodes of a particular kind
-
-        if (unnamedNodeChain != null) {
-            bestRule = searchRuleChain(node, context, bestRule, unnamedNodeChain);
-        }
-
-        // Search the list for rules for nodes of unknown node kind
-
-        if (genericNodeRuleChain != null) {
-            bestRule = searchRuleChain(node, context, bestRule, genericNodeRuleChain);
-        }
-
-        return bestRule;
-    }
-
-    /**
-     * Search a chain of rules
-     * @param node the node being matched
-     * @param context XPath dynamic context
-     * @param bestRule the best rule so far in terms of precedence and priority (may be null)
-     * @param head the rule at the head of the chain to be searched
-     * @return the best match rule found in the chain, or the previous best rule, or null
-     * @throws XPathException
-     */
-
-    private Rule searchRuleChain(NodeInfo node, XPathContext context, Rule bestRule, Rule head) throws XPathException {
-        while (head != null) {
-            if (bestRule != null) {
-                int rank = head.compareRank(bestRule);
-                if (rank < 0) {
-                    // if we already have a match, and the precedence or priority of this
-                    // rule is lower, quit the search
-                    break;
-                } else if (rank == 0) {
-                    // this rule has the same precedence and priority as the matching rule already found
-                    if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
-                        reportAmbiguity(node, bestRule, head, context);
-                        // choose whichever one comes last (assuming the error wasn't fatal)
-                        bestRule = (bestRule.getSequence() > head.getSequence() ? bestRule : head);
-                        break;
-                    } else {
-                        // keep searching other rules of the same precedence and priority
-                    }
-                } else {
-                    // this rule has higher rank than the matching rule already found
-                    if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
-                        bestRule = head;
-                    }
-                }
-            } else if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
-                bestRule = head;
-                if (recoveryPolicy == Configuration.RECOVER_SILENTLY) {
-                    break;   // choose the first match; rules within a chain are in order of rank
-                }
-            }
-            head = head.getNext();
-        }
-        return bestRule;
+        // A null filter means every rule is eligible; the search loop tests for this before calling
+        // the filter, so the common path for apply-templates pays nothing for it.
+        return getRule(node, context, null);
     }
 
     /**
@@ -506,6 +414,7 @@ public class Mode  {
      *
      * @param node the NodeInfo referring to the node to be matched
      * @param context the XPath dynamic evaluation context
+     * @param filter a filter to select which rules are eligible, or null if all rules are eligible
      * @return the best matching rule, if any (otherwise null).
      */
 
@@ -521,66 +430,70 @@ public class Mode  {
             context = makeNewContext(context);
         }
 
-        // search the specific list for this node type / node name
+        if (!indexed) {
+            buildIndexes();
+        }
+        matchCount++;
 
-        Rule bestRule = null;
-        Rule unnamedNodeChain;
+        // search the specific index for this node type / node name
 
-        switch (node.getNodeKind()) {
-            case Type.DOCUMENT:
-                unnamedNodeChain = documentRuleChain;
-                break;
-            case Type.ELEMENT: {
-                unnamedNodeChain = unnamedElementRuleChain;
-                Rule namedNodeChain = namedElementRuleChains.get(node.getFingerprint());
-                bestRule = searchRuleChain(node, context, null, namedNodeChain, filter);
-                break;
-            }
-            case Type.ATTRIBUTE: {
-                unnamedNodeChain = unnamedAttributeRuleChain;
-                Rule namedNodeChain = namedAttributeRuleChains.get(node.getFingerprint());
-                bestRule = searchRuleChain(node, context, null, namedNodeChain, filter);
-                break;
-            }
-            case Type.TEXT:
-                unnamedNodeChain = textRuleChain;
-                break;
-            case Type.COMMENT:
-                unnamedNodeChain = commentRuleChain;
-                break;
-            case Type.PROCESSING_INSTRUCTION:
-                unnamedNodeChain = processingInstructionRuleChain;
-                break;
-            case Type.NAMESPACE:
-                unnamedNodeChain = namespaceRuleChain;
-                break;
-            default:
-                throw new AssertionError("Unknown node kind");
+        Rule bestRule = null;
+        int kind = node.getNodeKind();
+        if (kind == Type.ELEMENT) {
+            bestRule = searchIndex(node, context, null, namedElementIndexes.get(node.getFingerprint()), filter);
+        } else if (kind == Type.ATTRIBUTE) {
+            bestRule = searchIndex(node, context, null, namedAttributeIndexes.get(node.getFingerprint()), filter);
         }
 
-        // Search the list for unnamed nodes of a particular kind
+        // Search the index for unnamed nodes of a particular kind
+
+        bestRule = searchIndex(node, context, bestRule, kindIndexes[kind], filter);
 
-        bestRule = searchRuleChain(node, context, bestRule, unnamedNodeChain, filter);
+        // Search the index for rules for nodes of unknown node kind
+
+        return searchIndex(node, context, bestRule, genericNodeIndex, filter);
+    }
 
-        // Search the list for rules for nodes of unknown node kind
+    /**
+     * Search the rules held in the index built from one rule chain. Only those partitions of the index
+     * whose discriminating condition is satisfied by the node are searched
+     * @param node the node being matched
+     * @param context XPath dynamic context
+     * @param bestRule the best rule so far in terms of precedence and priority (may be null)
+     * @param index the index to be searched (may be null)
+     * @param filter a filter to select which rules are eligible, or null if all rules are eligible
+     * @return the best match rule found in the index, or the previous best rule, or null
+     * @throws XPathException
+     */
 
-        return searchRuleChain(node, context, bestRule, genericNodeRuleChain, filter);
+    private Rule searchIndex(NodeInfo node, XPathContext context,
+                             Rule bestRule, RuleChainIndex index, RuleFilter filter) throws XPathException {
+        if (index == null) {
+            return bestRule;
+        }
+        bestRule = searchRules(node, context, bestRule, index.getUnconditionalRules(), filter);
+        for (int i = 0; i < index.getNumberOfAttributeKeys(); i++) {
+            bestRule = searchRules(node, context, bestRule, index.getRulesForAttribute(node, i), filter);
+        }
+        return searchRules(node, context, bestRule, index.getRulesForParent(node), filter);
     }
 
     /**
-     * Search a chain of rules
+     * Search a list of rules
      * @param node the node being matched
      * @param context XPath dynamic context
      * @param bestRule the best rule so far in terms of precedence and priority (may be null)
-     * @param head the rule at the head of the chain to be searched
-     * @return the best match rule found in the chain, or the previous best rule, or null
+     * @param rules the rules to be searched, in rank order
+     * @param filter a filter to select which rules are eligible, or null if all rules are eligible
+     * @return the best match rule found in the list, or the previous best rule, or null
      * @throws XPathException
      */
 
-    private Rule searchRuleChain(NodeInfo node, XPathContext context,
-                                 Rule bestRule, Rule head, RuleFilter filter) throws XPathException {
-        while (head != null) {
-            if (filter.testRule(head)) {
+    private Rule searchRules(NodeInfo node, XPathContext context,
+                             Rule bestRule, Rule[] rules, RuleFilter filter) throws XPathException {
+        for (int i = 0; i < rules.length; i++) {
+            Rule head = rules[i];
+            if (filter == null || filter.testRule(head)) {
                 if (bestRule != null) {
                     int rank = head.compareRank(bestRule);
                     if (rank < 0) {
@@ -589,7 +502,7 @@ public class Mode  {
                         break;
                     } else if (rank == 0) {
                         // this rule has the same precedence and priority as the matching rule already found
-                        if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
+                        if (testRule(head, node, context)) {
                             reportAmbiguity(node, bestRule, head, context);
                             // choose whichever one comes last (assuming the error wasn't fatal)
                             bestRule = (bestRule.getSequence() > head.getSequence() ? bestRule : head);
@@ -599,22 +512,101 @@ public class Mode  {
                         }
                     } else {
                         // this rule has higher rank than the matching rule already found
-                        if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
+                        if (testRule(head, node, context)) {
                             bestRule = head;
                         }
                     }
-                } else if (head.isAlwaysMatches() || head.getPattern().matches(node, context)) {
+                } else if (testRule(head, node, context)) {
                     bestRule = head;
                     if (recoveryPolicy == Configuration.RECOVER_SILENTLY) {
                         break;   // choose the first match; rules within a chain are in order of rank
                     }
                 }
             }
-            head = head.getNext();
         }
         return bestRule;
     }
 
+    private boolean testRule(Rule rule, NodeInfo node, XPathContext context) throws XPathException {
+        if (rule.isAlwaysMatches()) {
+            return true;
+        }
+        patternTestCount++;
+        return rule.getPattern().matches(node, context);
+    }
+
+    /**
+     * Build the discrimination indexes used to find candidate rules for a node. This is done
+     * on first use, and again if rules are added after the indexes have been built.
+     */
+
+    private void buildIndexes() {
+        kindIndexes = new RuleChainIndex[Type.NAMESPACE + 1];
+        kindIndexes[Type.DOCUMENT] = makeIndex(documentRuleChain);
+        kindIndexes[Type.ELEMENT] = makeIndex(unnamedElementRuleChain);
+        kindIndexes[Type.ATTRIBUTE] = makeIndex(unnamedAttributeRuleChain);
+        kindIndexes[Type.TEXT] = makeIndex(textRuleChain);
+        kindIndexes[Type.COMMENT] = makeIndex(commentRuleChain);
+        kindIndexes[Type.PROCESSING_INSTRUCTION] = makeIndex(processingInstructionRuleChain);
+        kindIndexes[Type.NAMESPACE] = makeIndex(namespaceRuleChain);
+        genericNodeIndex = makeIndex(genericNodeRuleChain);
+        namedElementIndexes = makeIndexes(namedElementRuleChains);
+        namedAttributeIndexes = makeIndexes(namedAttributeRuleChains);
+        indexed = true;
+    }
+
+    private static RuleChainIndex makeIndex(Rule chain) {
+        return (chain == null ? null : new RuleChainIndex(chain));
+    }
+
+    private static HashMap<Integer, RuleChainIndex> makeIndexes(HashMap<Integer, Rule> chains) {
+        HashMap<Integer, RuleChainIndex> indexes = new HashMap<Integer, RuleChainIndex>(chains.size());
+        Iterator<Integer> ii = chains.keySet().iterator();
+        while (ii.hasNext()) {
+            int fp = ii.next();
+            indexes.put(fp, new RuleChainIndex(chains.get(fp)));
+        }
+        return indexes;
+    }
+
+    /**
+     * Get the number of times a rule has been sought in this Mode since the statistics were last reset
+     * @return the number of calls on getRule(), including those made for xsl:apply-imports and xsl:next-match
+     */
+
+    public int getNumberOfMatches() {
+        return matchCount;
+    }
+
+    /**
+     * Get the number of patterns that have been evaluated against a node in this Mode since the
+     * statistics were last reset. Rules whose patterns are satisfied by virtue of the chain they are on,
+     * and rules eliminated by the discrimination index, are not counted.
+     * @return the number of pattern evaluations
+     */
+
+    public int getNumberOfPatternTests() {
+        return patternTestCount;
+    }
+
+    /**
+     * Get the average number of patterns evaluated for each node matched in this Mode
+     * @return the number of pattern evaluations divided by the number of matches, or zero if no
+     * matches have been performed
+     */
+
+    public double getPatternTestsPerMatch() {
+        return (matchCount == 0 ? 0.0 : (double)patternTestCount / matchCount);
+    }
+
+    /**
+     * Reset the counters returned by {@link #getNumberOfMatches()} and {@link #getNumberOfPatternTests()}
+     */
+
+    public void resetStatistics() {
+        matchCount = 0;
+        patternTestCount = 0;
+    }
 
     /**
      * Get the rule corresponding to a given Node, by finding the best Pattern match, subject to a minimum
@@ -801,7 +793,7 @@ public class Mode  {
      * Interface for helper classes used to filter a chain of rules
      */
 
-    private static interface RuleFilter {
+    static interface RuleFilter {
         /**
          * Test a rule to see whether it should be included
          * @param r the rule to be tested
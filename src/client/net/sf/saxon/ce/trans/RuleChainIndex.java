@@ -0,0 +1,242 @@
+package client.net.sf.saxon.ce.trans;
+
+import client.net.sf.saxon.ce.expr.*;
+import client.net.sf.saxon.ce.expr.sort.AtomicComparer;
+import client.net.sf.saxon.ce.expr.sort.CodepointCollatingComparer;
+import client.net.sf.saxon.ce.expr.sort.CodepointCollator;
+import client.net.sf.saxon.ce.expr.sort.GenericAtomicComparer;
+import client.net.sf.saxon.ce.om.Axis;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.pattern.LocationPathPattern;
+import client.net.sf.saxon.ce.pattern.NameTest;
+import client.net.sf.saxon.ce.pattern.Pattern;
+import client.net.sf.saxon.ce.type.Type;
+import client.net.sf.saxon.ce.value.StringValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A RuleChainIndex is a discrimination structure built from one chain of rules in a Mode. The chain of
+ * rules is partitioned into rules that must always be tested, and rules whose pattern can only match a node
+ * that satisfies some simple condition that can be checked by a hash lookup:
+ *
+ * <ul>
+ * <li>rules whose pattern has a predicate of the form <code>[@name = 'literal']</code> are indexed by
+ * the attribute name and the literal value;</li>
+ * <li>rules whose pattern has the form <code>parent/child</code>, where the parent step is a named
+ * element, are indexed by the fingerprint of the parent.</li>
+ * </ul>
+ *
+ * <p>Each partition retains the rules in the order of the original chain (that is, in descending order
+ * of precedence and priority), so searching the partitions one after another, carrying forward the best
+ * rule found so far, selects the same rule as searching the original chain.</p>
+ */
+
+final class RuleChainIndex {
+
+    private static final Rule[] EMPTY = new Rule[0];
+
+    private Rule[] unconditionalRules;
+    private NameTest[] attributeTests = new NameTest[0];
+    private ArrayList<HashMap<String, Rule[]>> attributeRules = new ArrayList<HashMap<String, Rule[]>>(2);
+    private HashMap<Integer, Rule[]> parentRules = null;
+
+    /**
+     * Build an index for a chain of rules
+     * @param head the rule at the head of the chain, or null if the chain is empty
+     */
+
+    public RuleChainIndex(Rule head) {
+        ArrayList<Rule> unconditional = new ArrayList<Rule>();
+        ArrayList<Integer> attributeNames = new ArrayList<Integer>(2);
+        ArrayList<HashMap<String, ArrayList<Rule>>> byAttribute = new ArrayList<HashMap<String, ArrayList<Rule>>>(2);
+        HashMap<Integer, ArrayList<Rule>> byParent = new HashMap<Integer, ArrayList<Rule>>();
+        ArrayList<NameTest> tests = new ArrayList<NameTest>(2);
+
+        for (Rule r = head; r != null; r = r.getNext()) {
+            Pattern pattern = r.getPattern();
+            if (r.isAlwaysMatches() || !(pattern instanceof LocationPathPattern)) {
+                unconditional.add(r);
+                continue;
+            }
+            LocationPathPattern lpp = (LocationPathPattern)pattern;
+            AttributeCondition condition = getAttributeCondition(lpp);
+            if (condition != null) {
+                int fp = condition.test.getFingerprint();
+                int i = attributeNames.indexOf(fp);
+                if (i < 0) {
+                    i = attributeNames.size();
+                    attributeNames.add(fp);
+                    tests.add(condition.test);
+                    byAttribute.add(new HashMap<String, ArrayList<Rule>>());
+                }
+                addToList(byAttribute.get(i), condition.value, r);
+                continue;
+            }
+            int parent = getParentFingerprint(lpp);
+            if (parent != -1) {
+                addToList(byParent, parent, r);
+                continue;
+            }
+            unconditional.add(r);
+        }
+
+        unconditionalRules = unconditional.toArray(new Rule[unconditional.size()]);
+        attributeTests = tests.toArray(new NameTest[tests.size()]);
+        for (HashMap<String, ArrayList<Rule>> map : byAttribute) {
+            attributeRules.add(toArrays(map));
+        }
+        if (!byParent.isEmpty()) {
+            parentRules = toArrays(byParent);
+        }
+    }
+
+    /**
+     * Get the rules in the chain that must be tested against every node
+     * @return the rules, in rank order
+     */
+
+    public Rule[] getUnconditionalRules() {
+        return unconditionalRules;
+    }
+
+    /**
+     * Get the number of attributes on which rules in this chain are discriminated
+     * @return the number of distinct attribute names used as keys
+     */
+
+    public int getNumberOfAttributeKeys() {
+        return attributeTests.length;
+    }
+
+    /**
+     * Get the rules that can only match a node whose value for the i'th key attribute is the value
+     * that the node actually has
+     * @param node the node being matched
+     * @param i identifies the key attribute
+     * @return the candidate rules, in rank order (possibly empty)
+     */
+
+    public Rule[] getRulesForAttribute(NodeInfo node, int i) {
+        if (node.getNodeKind() != Type.ELEMENT) {
+            return EMPTY;
+        }
+        NodeInfo att = (NodeInfo)node.iterateAxis(Axis.ATTRIBUTE, attributeTests[i]).next();
+        if (att == null) {
+            return EMPTY;
+        }
+        Rule[] rules = attributeRules.get(i).get(att.getStringValue());
+        return (rules == null ? EMPTY : rules);
+    }
+
+    /**
+     * Get the rules that can only match a node whose parent is an element with a particular name
+     * @param node the node being matched
+     * @return the candidate rules, in rank order (possibly empty)
+     */
+
+    public Rule[] getRulesForParent(NodeInfo node) {
+        if (parentRules == null) {
+            return EMPTY;
+        }
+        NodeInfo parent = node.getParent();
+        if (parent == null || parent.getNodeKind() != Type.ELEMENT) {
+            return EMPTY;
+        }
+        Rule[] rules = parentRules.get(parent.getFingerprint());
+        return (rules == null ? EMPTY : rules);
+    }
+
+    /**
+     * Determine whether the last step of a pattern has a predicate of the form [@name = 'literal'],
+     * using the codepoint collation. Such a predicate depends only on the node being matched, so
+     * it is a necessary condition for the pattern to match.
+     * @param lpp the pattern
+     * @return the attribute name and value required, or null if there is no suitable predicate
+     */
+
+    private static AttributeCondition getAttributeCondition(LocationPathPattern lpp) {
+        if (lpp.getNodeKind() != Type.ELEMENT) {
+            return null;
+        }
+        Expression[] filters = lpp.getFilters();
+        for (int f = 0; f < filters.length; f++) {
+            if (!(filters[f] instanceof GeneralComparison)) {
+                continue;
+            }
+            GeneralComparison comp = (GeneralComparison)filters[f];
+            if (comp.getSingletonOperator() != Token.FEQ || !isCodepointComparer(comp.getAtomicComparer())) {
+                continue;
+            }
+            Expression[] operands = comp.getOperands();
+            for (int i = 0; i < 2; i++) {
+                Expression lit = operands[i];
+                Expression other = operands[1 - i];
+                if (!(lit instanceof Literal && ((Literal)lit).getValue() instanceof StringValue)) {
+                    continue;
+                }
+                if (other instanceof Atomizer) {
+                    other = ((Atomizer)other).getBaseExpression();
+                }
+                if (other instanceof AxisExpression &&
+                        ((AxisExpression)other).getAxis() == Axis.ATTRIBUTE &&
+                        ((AxisExpression)other).getNodeTest() instanceof NameTest) {
+                    AttributeCondition c = new AttributeCondition();
+                    c.test = (NameTest)((AxisExpression)other).getNodeTest();
+                    c.value = ((StringValue)((Literal)lit).getValue()).getStringValue();
+                    return c;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isCodepointComparer(AtomicComparer comparer) {
+        return comparer instanceof CodepointCollatingComparer ||
+                (comparer instanceof GenericAtomicComparer &&
+                        ((GenericAtomicComparer)comparer).getCollator() instanceof CodepointCollator);
+    }
+
+    /**
+     * Determine whether a pattern can only match a node whose parent is an element with a given name
+     * @param lpp the pattern
+     * @return the fingerprint of the required parent element, or -1 if there is no such constraint
+     */
+
+    private static int getParentFingerprint(LocationPathPattern lpp) {
+        Pattern upper = lpp.getUpperPattern();
+        if (upper != null && lpp.getUpwardsAxis() == Axis.PARENT && upper.getNodeKind() == Type.ELEMENT) {
+            return upper.getFingerprint();
+        }
+        return -1;
+    }
+
+    private static <K> void addToList(HashMap<K, ArrayList<Rule>> map, K key, Rule rule) {
+        ArrayList<Rule> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Rule>(4);
+            map.put(key, list);
+        }
+        list.add(rule);
+    }
+
+    private static <K> HashMap<K, Rule[]> toArrays(HashMap<K, ArrayList<Rule>> map) {
+        HashMap<K, Rule[]> result = new HashMap<K, Rule[]>(map.size());
+        for (K key : map.keySet()) {
+            ArrayList<Rule> list = map.get(key);
+            result.put(key, list.toArray(new Rule[list.size()]));
+        }
+        return result;
+    }
+
+    private static class AttributeCondition {
+        public NameTest test;
+        public String value;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
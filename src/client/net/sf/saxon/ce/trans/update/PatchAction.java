@@ -0,0 +1,232 @@
+package client.net.sf.saxon.ce.trans.update;
+
+import client.net.sf.saxon.ce.dom.HTMLWriter;
+import client.net.sf.saxon.ce.expr.XPathContext;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.Node;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * A pending update action that makes the children of a target node the same as the children of
+ * a newly-constructed content node, by comparing the two trees and changing only what differs.
+ * This is the effect of xsl:result-document with method="ixsl:patch-content": the result is the same
+ * as for ixsl:replace-content, but the existing nodes are retained where possible, so the browser keeps
+ * their focus, selection, scroll position and event listeners, and has less to lay out again.
+ * <p/>
+ * At each level, an element in the new content is matched to the existing child having the same value
+ * for the key attribute (by default, the id attribute), and a node without a key is matched to the existing
+ * node at the same position if it is of the same kind and has the same name. A matched node has its
+ * attributes or text updated if they differ, and the process is applied recursively to its children; a
+ * new node that has no match is inserted, and an existing node that is not matched is removed.
+ * <p/>
+ * Only attributes are compared: properties and style properties that the stylesheet sets on new
+ * elements using the prop and style namespaces are not copied to an element that is retained.
+ */
+public class PatchAction extends PendingUpdateAction {
+
+    private Node content;
+    private Node targetNode;
+    private String keyAttribute;
+    private int mutations = 0;
+
+    private static Logger logger = Logger.getLogger("PatchAction");
+
+    /**
+     * Create a PatchAction
+     * @param content an HTML document fragment whose children represent the new content of the target node
+     * @param targetNode the node whose children are to be updated
+     * @param keyAttribute the name of the attribute used to match elements in the new content with existing
+     * elements, regardless of their position
+     */
+
+    public PatchAction(Node content, Node targetNode, String keyAttribute) {
+        this.content = content;
+        this.targetNode = targetNode;
+        this.keyAttribute = keyAttribute;
+    }
+
+    /**
+     * Apply the pending update action to the affected nodes
+     *
+     * @param context the XPath evaluation context
+     */
+
+    public void apply(XPathContext context) {
+        patchChildren(targetNode, content);
+        logger.fine("Patched content of " + targetNode.getNodeName() + " with " + mutations + " DOM mutations");
+    }
+
+    /**
+     * Get the number of changes made to the HTML page when this action was applied: each node inserted,
+     * moved or removed, each attribute set or removed, and each text node changed counts as one
+     * @return the number of mutations
+     */
+
+    public int getMutationCount() {
+        return mutations;
+    }
+
+    /**
+     * Make the children of an existing node the same as the children of a new node. The children
+     * of the new node are moved or discarded in the process.
+     * @param oldParent the existing node
+     * @param newParent the new node
+     */
+
+    private void patchChildren(Node oldParent, Node newParent) {
+        HashMap<String, Node> keyed = new HashMap<String, Node>();
+        for (Node child = oldParent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            String key = getKey(child);
+            if (key != null && !keyed.containsKey(key)) {
+                keyed.put(key, child);
+            }
+        }
+
+        // cursor is the first existing child that has not yet been matched in its current position:
+        // everything before it is finished
+        Node cursor = oldParent.getFirstChild();
+        Node newChild = newParent.getFirstChild();
+        while (newChild != null) {
+            Node nextNew = newChild.getNextSibling();
+            Node match = null;
+            String key = getKey(newChild);
+            if (key != null) {
+                match = keyed.remove(key);
+                if (match != null && !isSameKind(match, newChild)) {
+                    match = null;
+                }
+            } else if (cursor != null && getKey(cursor) == null) {
+                if (isSameKind(cursor, newChild)) {
+                    match = cursor;
+                } else {
+                    Node next = cursor.getNextSibling();
+                    if (next != null && getKey(next) == null && isSameKind(next, newChild)) {
+                        // the existing node at this position has been dropped
+                        oldParent.removeChild(cursor);
+                        mutations++;
+                        match = cursor = next;
+                    }
+                }
+            }
+            if (match == null) {
+                oldParent.insertBefore(newChild, cursor);
+                mutations++;
+            } else {
+                if (match == cursor) {
+                    cursor = cursor.getNextSibling();
+                } else {
+                    oldParent.insertBefore(match, cursor);
+                    mutations++;
+                }
+                patchNode(match, newChild);
+            }
+            newChild = nextNew;
+        }
+
+        // any existing children that remain were not matched
+        while (cursor != null) {
+            Node next = cursor.getNextSibling();
+            oldParent.removeChild(cursor);
+            mutations++;
+            cursor = next;
+        }
+    }
+
+    /**
+     * Make an existing node the same as a new node of the same kind and name
+     * @param oldNode the existing node
+     * @param newNode the new node
+     */
+
+    private void patchNode(Node oldNode, Node newNode) {
+        if (oldNode.getNodeType() == Node.ELEMENT_NODE) {
+            patchAttributes((Element)oldNode, (Element)newNode);
+            patchChildren(oldNode, newNode);
+        } else {
+            String value = newNode.getNodeValue();
+            if (!value.equals(oldNode.getNodeValue())) {
+                oldNode.setNodeValue(value);
+                mutations++;
+            }
+        }
+    }
+
+    private void patchAttributes(Element oldElement, Element newElement) {
+        int count = getAttributeCount(newElement);
+        for (int i = 0; i < count; i++) {
+            String name = getAttributeName(newElement, i);
+            String value = getAttributeValue(newElement, i);
+            if (!oldElement.hasAttribute(name) || !value.equals(oldElement.getAttribute(name))) {
+                String uri = getAttributeURI(newElement, i);
+                if (uri == null) {
+                    oldElement.setAttribute(name, value);
+                    HTMLWriter.setAttributeProps(oldElement, name, value);
+                } else {
+                    HTMLWriter.setAttribute(oldElement.getOwnerDocument(), oldElement, name, uri, value,
+                            HTMLWriter.WriteMode.HTML);
+                }
+                mutations++;
+            }
+        }
+        for (int i = getAttributeCount(oldElement) - 1; i >= 0; i--) {
+            String name = getAttributeName(oldElement, i);
+            if (!newElement.hasAttribute(name)) {
+                oldElement.removeAttribute(name);
+                mutations++;
+            }
+        }
+    }
+
+    /**
+     * Get the key of a node in the HTML page
+     * @param node the node
+     * @return the value of the key attribute if the node is an element that has a non-empty value
+     * for this attribute; otherwise null
+     */
+
+    private String getKey(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return null;
+        }
+        String key = ((Element)node).getAttribute(keyAttribute);
+        return (key == null || key.length() == 0 ? null : key);
+    }
+
+    private static boolean isSameKind(Node a, Node b) {
+        return a.getNodeType() == b.getNodeType() &&
+                (a.getNodeType() != Node.ELEMENT_NODE || a.getNodeName().equals(b.getNodeName()));
+    }
+
+    private static native int getAttributeCount(Element element) /*-{
+        return element.attributes.length;
+    }-*/;
+
+    private static native String getAttributeName(Element element, int i) /*-{
+        return element.attributes[i].name;
+    }-*/;
+
+    private static native String getAttributeValue(Element element, int i) /*-{
+        return element.attributes[i].value;
+    }-*/;
+
+    private static native String getAttributeURI(Element element, int i) /*-{
+        var uri = element.attributes[i].namespaceURI;
+        return (uri ? uri : null);
+    }-*/;
+
+    /**
+     * Get the target node of the update action
+     * @return the target node, the node to which this update action applies.
+     */
+
+    public Node getTargetNode() {
+        return targetNode;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -1,6 +1,7 @@
 package client.net.sf.saxon.ce.trans.update;
 
 import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.dom.HTMLDocumentWrapper;
 import client.net.sf.saxon.ce.expr.XPathContext;
 import client.net.sf.saxon.ce.trans.XPathException;
 
@@ -42,6 +43,9 @@ public class PendingUpdateList {
      */
 
     public synchronized void apply(XPathContext context) throws XPathException {
+        if (list.isEmpty()) {
+            return;
+        }
     	String state = "";
     	try {
     	state = "delete";
@@ -54,7 +58,7 @@ public class PendingUpdateList {
         state = "insert";
         for (int i=0; i<list.size(); i++) {
             PendingUpdateAction action = list.get(i);
-            if (action instanceof InsertAction) {
+            if (action instanceof InsertAction || action instanceof PatchAction) {
                 action.apply(context);
             }
         }
@@ -77,6 +81,8 @@ public class PendingUpdateList {
     	} catch(Exception e) {
     		logger.severe("Error on DOM write action: " + state + " " + e.getMessage());
     		throw new XPathException(e);
+    	} finally {
+    		HTMLDocumentWrapper.notifyMutation();
     	}
 
 
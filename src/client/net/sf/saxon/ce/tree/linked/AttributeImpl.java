@@ -95,6 +95,24 @@ final class AttributeImpl extends NodeImpl {
         // note the 0x8000 is to leave room for namespace nodes
     }
 
+    /**
+     * Get the primary key used to compare nodes in document order: for an attribute, the
+     * sequence number of its parent element
+     */
+
+    protected int getPrimaryOrderKey() {
+        return getRawParent().getRawSequenceNumber();
+    }
+
+    /**
+     * Get the secondary key used to compare nodes in document order: an attribute follows
+     * its parent element and precedes the element's children, which have higher sequence numbers
+     */
+
+    protected int getSecondaryOrderKey() {
+        return 0x8000 + getSiblingPosition();
+    }
+
     /**
     * Return the type of node.
     * @return Node.ATTRIBUTE
@@ -65,8 +65,9 @@ public class LinkedTreeBuilder extends Builder
     }
 
     /**
-     * Set whether the builder should allocate sequence numbers to elements as they are added to the
-     * tree. This is normally done, because it provides a quick way of comparing document order. But
+     * Set whether the builder should allocate sequence numbers to elements, text nodes, comments and
+     * processing instructions as they are added to the tree. This is normally done, because it allows
+     * document order to be compared without allocating or navigating. But
      * nodes added using XQuery update are not sequence-numbered.
      * @param allocate true if sequence numbers are to be allocated
      */
@@ -267,6 +268,7 @@ public class LinkedTreeBuilder extends Builder
                 ((TextImpl)prev).appendStringValue(chars.toString());
             } else {
 			    TextImpl n = new TextImpl(chars.toString());
+                n.setRawSequenceNumber(allocateSequenceNumbers ? nextNodeNumber++ : -1);
                 currentNode.addChild(n, size[depth]++);
             }
         }
@@ -282,6 +284,7 @@ public class LinkedTreeBuilder extends Builder
         }
         int nameCode = namePool.allocate("", "", name);
         ProcInstImpl pi = new ProcInstImpl(nameCode, remainder.toString());
+        pi.setRawSequenceNumber(allocateSequenceNumbers ? nextNodeNumber++ : -1);
         currentNode.addChild(pi, size[depth]++);
     }
 
@@ -294,6 +297,7 @@ public class LinkedTreeBuilder extends Builder
             throw new IllegalStateException("missing call on startContent()");
         }
         CommentImpl comment = new CommentImpl(chars.toString());
+        comment.setRawSequenceNumber(allocateSequenceNumbers ? nextNodeNumber++ : -1);
         currentNode.addChild(comment, size[depth]++);
     }
 
@@ -29,6 +29,8 @@ public abstract class NodeImpl
 
     private ParentNodeImpl parent;
     private int index;
+    private int sequence;               // sequence number allocated during original tree creation.
+                                        // set to -1 for nodes in a tree built without sequence numbers
     /**
      * Chararacteristic letters to identify each type of node, indexed using the node type
      * values. These are used as the initial letter of the result of generate-id()
@@ -204,6 +206,41 @@ public abstract class NodeImpl
 
     }
 
+    /**
+     * Get the sequence number allocated to this node when the tree was built
+     * @return the sequence number, or -1 if none was allocated
+     */
+
+    protected final int getRawSequenceNumber() {
+        return sequence;
+    }
+
+    protected final void setRawSequenceNumber(int seq) {
+        sequence = seq;
+    }
+
+    /**
+     * Get the primary key used to compare nodes in document order. For all nodes other than
+     * attributes this is the sequence number allocated by the LinkedTreeBuilder; since each
+     * node in the tree is numbered in the order it was added, this is enough on its own to
+     * determine document order.
+     * @return the primary key, or a negative value if the node has no sequence number
+     */
+
+    protected int getPrimaryOrderKey() {
+        return sequence;
+    }
+
+    /**
+     * Get the secondary key used to compare nodes that have the same primary key, that is, an
+     * element and its attributes
+     * @return zero for nodes other than attributes
+     */
+
+    protected int getSecondaryOrderKey() {
+        return 0;
+    }
+
     /**
      * Determine the relative position of this node and another node, in document order.
      * The other node will always be in the same document.
@@ -218,8 +255,20 @@ public abstract class NodeImpl
         if (other instanceof NamespaceNode) {
             return 0 - other.compareOrder(this);
         }
+        NodeImpl otherNode = (NodeImpl)other;
+        int p = getPrimaryOrderKey();
+        int q = otherNode.getPrimaryOrderKey();
+        if (p >= 0 && q >= 0) {
+            // both nodes were numbered when the tree was built: no need to compute sequence numbers
+            if (p != q) {
+                return (p < q ? -1 : +1);
+            }
+            int r = getSecondaryOrderKey();
+            int s = otherNode.getSecondaryOrderKey();
+            return (r == s ? 0 : (r < s ? -1 : +1));
+        }
         int[] a = getSequenceNumber();
-        int[] b = ((NodeImpl)other).getSequenceNumber();
+        int[] b = otherNode.getSequenceNumber();
         if (a[0] < b[0]) {
             return -1;
         }
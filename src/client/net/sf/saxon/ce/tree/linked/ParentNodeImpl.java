@@ -23,9 +23,6 @@ abstract class ParentNodeImpl extends NodeImpl {
                                           // a NodeImpl for a single child
                                           // a NodeImpl[] for >1 child
 
-    private int sequence;               // sequence number allocated during original tree creation.
-                                          // set to -1 for nodes added subsequently by XQuery update
-
     /**
      * Get the node sequence number (in document order). Sequence numbers are monotonic but not
      * consecutive. In the current implementation, parent nodes (elements and document nodes) have a zero
@@ -39,14 +36,6 @@ abstract class ParentNodeImpl extends NodeImpl {
         return new int[]{getRawSequenceNumber(), 0};
     }
 
-    protected final int getRawSequenceNumber() {
-        return sequence;
-    }
-
-    protected final void setRawSequenceNumber(int seq) {
-        sequence = seq;
-    }
-
     /**
      * Set the children of this node
      * @param children null if there are no children, a single NodeInfo if there is one child, an array of NodeInfo
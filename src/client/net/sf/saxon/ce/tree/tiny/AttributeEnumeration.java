@@ -0,0 +1,64 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.NamePool;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.om.StandardNames;
+import client.net.sf.saxon.ce.pattern.NameTest;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+import client.net.sf.saxon.ce.type.Type;
+
+/**
+ * AttributeEnumeration is an iterator over all the attribute nodes of an Element.
+ */
+
+final class AttributeEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int element;
+    private NodeTest test;
+    private int index;
+
+    /**
+     * Create an iterator over the attributes of an element
+     * @param tree the tree
+     * @param element the node number of the element
+     * @param test the node test to be applied to the attributes
+     */
+
+    AttributeEnumeration(TinyTree tree, int element, NodeTest test) {
+        this.tree = tree;
+        this.element = element;
+        this.test = test;
+        if (test instanceof NameTest) {
+            // at most one attribute can match
+            index = tree.findAttribute(element, test.getFingerprint());
+        } else {
+            index = tree.alpha[element];
+        }
+    }
+
+    public Item next() {
+        while (index >= 0 && index < tree.numberOfAttributes && tree.attParent[index] == element) {
+            int a = index;
+            index = (test instanceof NameTest ? -1 : index + 1);
+            if (test.matches(Type.ATTRIBUTE, tree.attCode[a] & NamePool.FP_MASK, StandardNames.XS_UNTYPED_ATOMIC)) {
+                position++;
+                return current = tree.getAttributeNode(a);
+            }
+        }
+        index = -1;
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new AttributeEnumeration(tree, element, test);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
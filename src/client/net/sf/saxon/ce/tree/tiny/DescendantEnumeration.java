@@ -0,0 +1,67 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+
+/**
+ * This class supports the descendant:: and descendant-or-self:: axes. Because the nodes of
+ * a TinyTree are held in document order, the descendants of a node are simply the nodes that
+ * follow it in the arrays up to the first node whose depth is not greater than its own, so the
+ * scan is a sequential pass over the arrays.
+ */
+
+final class DescendantEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int startNode;
+    private boolean includeSelf;
+    private int nextNodeNr;
+    private int startDepth;
+    private NodeTest test;
+
+    /**
+     * Create an iterator over the descendant axis
+     * @param tree the tree
+     * @param startNode the node number of the origin node
+     * @param test the node test to be applied
+     * @param includeSelf true if the origin node is to be included (descendant-or-self)
+     */
+
+    DescendantEnumeration(TinyTree tree, int startNode, NodeTest test, boolean includeSelf) {
+        this.tree = tree;
+        this.startNode = startNode;
+        this.test = test;
+        this.includeSelf = includeSelf;
+        nextNodeNr = (includeSelf ? startNode : startNode + 1);
+        startDepth = tree.depth[startNode];
+    }
+
+    public Item next() {
+        short[] depth = tree.depth;
+        int top = tree.numberOfNodes;
+        while (nextNodeNr < top) {
+            int nr = nextNodeNr++;
+            if (nr != startNode && depth[nr] <= startDepth) {
+                nextNodeNr = top;
+                break;
+            }
+            if (tree.matches(test, nr)) {
+                position++;
+                return current = tree.getNode(nr);
+            }
+        }
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new DescendantEnumeration(tree, startNode, test, includeSelf);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -0,0 +1,56 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+
+/**
+ * Iterator over the following axis. The following nodes of a node are all the nodes that come
+ * after its last descendant in the tree arrays, so the iterator is a sequential scan from that
+ * point to the end of the tree.
+ */
+
+final class FollowingEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int start;
+    private int nextNodeNr;
+    private NodeTest test;
+
+    /**
+     * Create an iterator over the following axis
+     * @param tree the tree
+     * @param start the node number of the first node on the axis
+     * @param test the node test to be applied
+     */
+
+    FollowingEnumeration(TinyTree tree, int start, NodeTest test) {
+        this.tree = tree;
+        this.start = start;
+        this.test = test;
+        nextNodeNr = start;
+    }
+
+    public Item next() {
+        int top = tree.numberOfNodes;
+        while (nextNodeNr < top) {
+            int nr = nextNodeNr++;
+            if (tree.matches(test, nr)) {
+                position++;
+                return current = tree.getNode(nr);
+            }
+        }
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new FollowingEnumeration(tree, start, test);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
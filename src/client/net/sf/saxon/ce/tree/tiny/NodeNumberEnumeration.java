@@ -0,0 +1,38 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+
+/**
+ * An iterator over a precomputed list of node numbers, for example the list of all the
+ * elements in a document having a given name
+ */
+
+final class NodeNumberEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int[] nodes;
+
+    NodeNumberEnumeration(TinyTree tree, int[] nodes) {
+        this.tree = tree;
+        this.nodes = nodes;
+    }
+
+    public Item next() {
+        if (position >= 0 && position < nodes.length) {
+            return current = tree.getNode(nodes[position++]);
+        }
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new NodeNumberEnumeration(tree, nodes);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
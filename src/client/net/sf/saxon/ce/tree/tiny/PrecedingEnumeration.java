@@ -0,0 +1,70 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+
+/**
+ * Iterator over the preceding axis, and also the internal preceding-or-ancestor axis used by
+ * xsl:number. The nodes are delivered in reverse document order by scanning the tree arrays
+ * backwards; the ancestors of the origin node are recognized by following the parent chain
+ * as the scan passes them.
+ */
+
+final class PrecedingEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int start;
+    private int firstAncestor;
+    private int nextNodeNr;
+    private int nextAncestor;
+    private NodeTest test;
+    private boolean includeAncestors;
+
+    /**
+     * Create an iterator over the preceding axis
+     * @param tree the tree
+     * @param start the node number of the node immediately before the origin in document order
+     * @param firstAncestor the node number of the parent of the origin node
+     * @param test the node test to be applied
+     * @param includeAncestors true if ancestors of the origin node are to be included
+     */
+
+    PrecedingEnumeration(TinyTree tree, int start, int firstAncestor, NodeTest test, boolean includeAncestors) {
+        this.tree = tree;
+        this.start = start;
+        this.firstAncestor = firstAncestor;
+        this.test = test;
+        this.includeAncestors = includeAncestors;
+        nextNodeNr = start;
+        nextAncestor = firstAncestor;
+    }
+
+    public Item next() {
+        while (nextNodeNr >= 0) {
+            int nr = nextNodeNr--;
+            if (nr == nextAncestor) {
+                nextAncestor = tree.parent[nr];
+                if (!includeAncestors) {
+                    continue;
+                }
+            }
+            if (tree.matches(test, nr)) {
+                position++;
+                return current = tree.getNode(nr);
+            }
+        }
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new PrecedingEnumeration(tree, start, firstAncestor, test, includeAncestors);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
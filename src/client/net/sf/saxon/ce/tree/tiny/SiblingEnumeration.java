@@ -0,0 +1,62 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.om.Item;
+import client.net.sf.saxon.ce.om.SequenceIterator;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.tree.iter.AxisIteratorImpl;
+
+/**
+ * This class supports both the child:: and following-sibling:: axes, which are
+ * identical except for the route to the first candidate node, and also the
+ * preceding-sibling:: axis, which follows the prior index of the tree backwards.
+ * Nodes are tested against the NodeTest using the tree arrays, so a node object is
+ * created only for the nodes that are returned.
+ */
+
+final class SiblingEnumeration extends AxisIteratorImpl {
+
+    private TinyTree tree;
+    private int start;
+    private int nextNodeNr;
+    private NodeTest test;
+    private boolean forwards;
+
+    /**
+     * Create an iterator over siblings
+     * @param tree the tree
+     * @param start the node number of the first candidate node, or -1 if there is none
+     * @param test the node test to be applied
+     * @param forwards true to follow the next-sibling chain, false to follow the prior chain
+     */
+
+    SiblingEnumeration(TinyTree tree, int start, NodeTest test, boolean forwards) {
+        this.tree = tree;
+        this.start = start;
+        this.test = test;
+        this.forwards = forwards;
+        nextNodeNr = start;
+    }
+
+    public Item next() {
+        int[] links = (forwards ? tree.next : tree.prior);
+        while (nextNodeNr >= 0) {
+            int nr = nextNodeNr;
+            nextNodeNr = links[nr];
+            if (tree.matches(test, nr)) {
+                position++;
+                return current = tree.getNode(nr);
+            }
+        }
+        position = -1;
+        return current = null;
+    }
+
+    public SequenceIterator getAnother() {
+        return new SiblingEnumeration(tree, start, test, forwards);
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
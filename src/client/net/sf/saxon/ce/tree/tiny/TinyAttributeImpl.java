@@ -0,0 +1,152 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.om.StandardNames;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+import client.net.sf.saxon.ce.type.Type;
+
+/**
+ * A node in the TinyTree representing an attribute. The node number is the index of the
+ * attribute in the attribute arrays of the tree, not in the node arrays.
+ */
+
+final class TinyAttributeImpl extends TinyNodeImpl {
+
+    public TinyAttributeImpl(TinyTree tree, int nodeNr) {
+        super(tree, nodeNr);
+    }
+
+    /**
+     * Return the type of node.
+     * @return Type.ATTRIBUTE (always)
+     */
+
+    public final int getNodeKind() {
+        return Type.ATTRIBUTE;
+    }
+
+    /**
+     * Get the node number of the parent element
+     */
+
+    protected int getParentNodeNumber() {
+        return tree.attParent[nodeNr];
+    }
+
+    /**
+     * Get the base URI of the attribute, which is that of its parent element
+     */
+
+    public String getBaseURI() {
+        return getParent().getBaseURI();
+    }
+
+    /**
+     * Get the name code of the attribute
+     */
+
+    public int getNameCode() {
+        return tree.attCode[nodeNr];
+    }
+
+    /**
+     * Get the type annotation of this node
+     * @return xs:untypedAtomic, as attributes are never validated
+     */
+
+    public int getTypeAnnotation() {
+        return StandardNames.XS_UNTYPED_ATOMIC;
+    }
+
+    /**
+     * Return the string value of the attribute
+     */
+
+    public String getStringValue() {
+        return tree.attValue[nodeNr];
+    }
+
+    /**
+     * Determine whether this is the same node as another node
+     */
+
+    public boolean isSameNodeInfo(NodeInfo other) {
+        return other instanceof TinyAttributeImpl &&
+                ((TinyAttributeImpl)other).tree == tree &&
+                ((TinyAttributeImpl)other).nodeNr == nodeNr;
+    }
+
+    /**
+     * The hashCode() method obeys the contract for hashCode(): that is, if two objects are equal
+     * (represent the same node) then they must have the same hashCode()
+     */
+
+    public int hashCode() {
+        return ((tree.getDocumentNumber() & 0x3ff) << 20 ^ nodeNr) ^ 0x40000000;
+    }
+
+    /**
+     * Get the position of the attribute among the attributes of its parent element
+     */
+
+    public int getSiblingPosition() {
+        return nodeNr - tree.alpha[tree.attParent[nodeNr]];
+    }
+
+    /**
+     * Attributes share the primary order key of their parent element
+     */
+
+    protected int getPrimaryOrderKey() {
+        return tree.attParent[nodeNr];
+    }
+
+    /**
+     * Attributes follow their parent element, in the order they were added
+     */
+
+    protected int getSecondaryOrderKey() {
+        return 1 + getSiblingPosition();
+    }
+
+    /**
+     * The following axis of an attribute starts with the first child of its parent element
+     */
+
+    protected int getFollowingStart() {
+        return tree.attParent[nodeNr] + 1;
+    }
+
+    /**
+     * The preceding axis of an attribute is scanned backwards from its parent element
+     */
+
+    protected int getPrecedingStart() {
+        return tree.attParent[nodeNr];
+    }
+
+    /**
+     * Get a character string that uniquely identifies this node
+     */
+
+    public void generateId(FastStringBuffer buffer) {
+        getParent().generateId(buffer);
+        buffer.append('a');
+        buffer.append(Integer.toString(getSiblingPosition()));
+    }
+
+    /**
+     * Copy this node to a given outputter
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        out.attribute(getNameCode(), getStringValue());
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -0,0 +1,253 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Builder;
+import client.net.sf.saxon.ce.om.NamespaceBinding;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.type.Type;
+
+
+/**
+  * The TinyBuilder class is responsible for taking a stream of Receiver events and constructing
+  * a Document tree using the TinyTree implementation.
+  */
+
+public class TinyBuilder extends Builder {
+
+    private TinyTree tree;
+
+    private int currentDepth = 0;
+    private int[] prevAtDepth = new int[100];      // the node number of the most recent node at each depth
+    private int[] parentAtDepth = new int[100];    // the node number of the parent of nodes at each depth
+    private int currentElement = -1;
+    private boolean contentStarted = false;     // provides a minimal check on correct sequence of calls
+
+    private int estimatedNodes = 1000;
+    private int estimatedCharacters = 4000;
+
+    /**
+    * Create a TinyBuilder
+    */
+
+    public TinyBuilder() {
+    }
+
+    /**
+     * Supply an estimate of the size of the tree to be built. The arrays will be allocated with
+     * these sizes initially, and expanded if necessary.
+     * @param nodes the estimated number of nodes, excluding attributes and namespaces
+     * @param characters the estimated number of characters in text nodes
+     */
+
+    public void setSizeEstimate(int nodes, int characters) {
+        estimatedNodes = Math.max(nodes, 10);
+        estimatedCharacters = Math.max(characters, 100);
+    }
+
+    /**
+     * Get the tree being built
+     * @return the tree, or null if no events have yet been received
+     */
+
+    public TinyTree getTree() {
+        return tree;
+    }
+
+    public void reset() {
+        super.reset();
+        tree = null;
+        currentDepth = 0;
+        currentElement = -1;
+        contentStarted = false;
+    }
+
+    /**
+    * Open the stream of Receiver events
+    */
+
+    public void open() {
+        if (tree == null) {
+            tree = new TinyTree(config, estimatedNodes, estimatedNodes / 4, 20, estimatedCharacters);
+            tree.setSystemId(getSystemId());
+            tree.setBaseURI(getBaseURI());
+        }
+        super.open();
+    }
+
+    /**
+     * Notify the start of a document node
+     */
+
+    public void startDocument() throws XPathException {
+        started = true;
+        if (tree == null) {
+            open();
+        }
+        int nr = tree.addNode(Type.DOCUMENT, 0, -1, 0, 0, -1);
+        prevAtDepth[0] = nr;
+        parentAtDepth[1] = nr;
+        prevAtDepth[1] = -1;
+        currentDepth = 1;
+        currentRoot = tree.getNode(nr);
+        contentStarted = true;
+    }
+
+    /**
+     * Notify the end of the document
+     */
+
+    public void endDocument() throws XPathException {
+        currentDepth = 0;
+    }
+
+    /**
+    * Close the stream of Receiver events
+    */
+
+    public void close() throws XPathException {
+        if (tree == null) {
+            return;     // can be called twice on an error path
+        }
+        tree.condense();
+        super.close();
+    }
+
+    /**
+    * Notify the start of an element
+    */
+
+    public void startElement(int nameCode, int properties) throws XPathException {
+        if (tree == null) {
+            open();
+        }
+        boolean parentless = !started;
+        if (parentless) {
+            // a parentless element: it becomes the root of the tree
+            started = true;
+            currentDepth = 0;
+            prevAtDepth[0] = -1;
+            parentAtDepth[0] = -1;
+        }
+        currentElement = tree.addNode(Type.ELEMENT, currentDepth, parentAtDepth[currentDepth], -1, -1, nameCode);
+        if (parentless) {
+            currentRoot = tree.getNode(currentElement);
+        }
+        linkSibling(currentElement);
+
+        currentDepth++;
+        if (currentDepth >= prevAtDepth.length) {
+            int[] p2 = new int[currentDepth * 2];
+            System.arraycopy(prevAtDepth, 0, p2, 0, currentDepth);
+            prevAtDepth = p2;
+            int[] q2 = new int[currentDepth * 2];
+            System.arraycopy(parentAtDepth, 0, q2, 0, currentDepth);
+            parentAtDepth = q2;
+        }
+        prevAtDepth[currentDepth] = -1;
+        parentAtDepth[currentDepth] = currentElement;
+        contentStarted = false;
+    }
+
+    public void namespace(NamespaceBinding nsBinding, int properties) throws XPathException {
+        if (contentStarted) {
+            throw new IllegalStateException("namespace() called after startContent()");
+        }
+        tree.addNamespace(currentElement, nsBinding);
+    }
+
+    public void attribute(int nameCode, CharSequence value) throws XPathException {
+        if (contentStarted) {
+            throw new IllegalStateException("attribute() called after startContent()");
+        }
+        tree.addAttribute(currentElement, nameCode, value.toString());
+    }
+
+    public void startContent() throws XPathException {
+        if (contentStarted) {
+            throw new IllegalStateException("startContent() called more than once");
+        }
+        contentStarted = true;
+    }
+
+    /**
+    * Notify the end of an element
+    */
+
+    public void endElement() throws XPathException {
+        if (!contentStarted) {
+            throw new IllegalStateException("missing call on startContent()");
+        }
+        prevAtDepth[currentDepth] = -1;
+        currentDepth--;
+    }
+
+    /**
+    * Notify a text node. Adjacent text nodes are merged.
+    */
+
+    public void characters(CharSequence chars) throws XPathException {
+        if (!contentStarted) {
+            throw new IllegalStateException("missing call on startContent()");
+        }
+        int len = chars.length();
+        if (len == 0) {
+            return;
+        }
+        int prev = prevAtDepth[currentDepth];
+        if (prev >= 0 && prev == tree.numberOfNodes - 1 && tree.nodeKind[prev] == Type.TEXT) {
+            // concatenate adjacent text nodes
+            tree.appendChars(prev, chars);
+        } else {
+            int offset = tree.charBuffer.length();
+            tree.charBuffer.append(chars);
+            int nr = tree.addNode(Type.TEXT, currentDepth, parentAtDepth[currentDepth], offset, len, -1);
+            linkSibling(nr);
+        }
+    }
+
+    /**
+    * Notify a processing instruction
+    */
+
+    public void processingInstruction(String name, CharSequence remainder) throws XPathException {
+        if (!contentStarted) {
+            throw new IllegalStateException("missing call on startContent()");
+        }
+        int nameCode = namePool.allocate("", "", name);
+        int offset = tree.addCommentText(remainder);
+        int nr = tree.addNode(Type.PROCESSING_INSTRUCTION, currentDepth, parentAtDepth[currentDepth],
+                offset, remainder.length(), nameCode);
+        linkSibling(nr);
+    }
+
+    /**
+    * Notify a comment
+    */
+
+    public void comment(CharSequence chars) throws XPathException {
+        if (!contentStarted) {
+            throw new IllegalStateException("missing call on startContent()");
+        }
+        int offset = tree.addCommentText(chars);
+        int nr = tree.addNode(Type.COMMENT, currentDepth, parentAtDepth[currentDepth],
+                offset, chars.length(), -1);
+        linkSibling(nr);
+    }
+
+    /**
+     * Link a newly-added node to its preceding sibling, if there is one
+     * @param nr the node number of the new node
+     */
+
+    private void linkSibling(int nr) {
+        int prev = prevAtDepth[currentDepth];
+        if (prev >= 0) {
+            tree.next[prev] = nr;
+        }
+        prevAtDepth[currentDepth] = nr;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
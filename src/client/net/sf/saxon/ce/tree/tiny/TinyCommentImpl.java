@@ -0,0 +1,58 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.type.Type;
+import client.net.sf.saxon.ce.value.AtomicValue;
+import client.net.sf.saxon.ce.value.StringValue;
+
+/**
+ * A node in the TinyTree representing a comment. The characters are held in the
+ * comment buffer of the tree.
+ */
+
+final class TinyCommentImpl extends TinyNodeImpl {
+
+    public TinyCommentImpl(TinyTree tree, int nodeNr) {
+        super(tree, nodeNr);
+    }
+
+    /**
+     * Return the type of node.
+     * @return Type.COMMENT (always)
+     */
+
+    public final int getNodeKind() {
+        return Type.COMMENT;
+    }
+
+    /**
+     * Get the string value of the comment
+     * @return the text of the comment
+     */
+
+    public String getStringValue() {
+        return tree.getCommentValue(nodeNr).toString();
+    }
+
+    /**
+     * Get the typed value of the node: for a comment, this is an xs:string
+     */
+
+    public AtomicValue getTypedValue() {
+        return new StringValue(getStringValue());
+    }
+
+    /**
+     * Copy this node to a given outputter
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        out.comment(getStringValue());
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
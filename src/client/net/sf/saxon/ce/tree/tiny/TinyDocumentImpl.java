@@ -0,0 +1,229 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.om.DocumentInfo;
+import client.net.sf.saxon.ce.om.NameChecker;
+import client.net.sf.saxon.ce.om.NamePool;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.om.StandardNames;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.iter.AxisIterator;
+import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+import client.net.sf.saxon.ce.type.Type;
+import client.net.sf.saxon.ce.value.Whitespace;
+
+import java.util.HashMap;
+
+/**
+ * A node in the TinyTree representing the document node. There is only ever one
+ * TinyDocumentImpl object for a given tree, and it holds the information that belongs to
+ * the document as a whole, such as the ID index and user data.
+ */
+
+public final class TinyDocumentImpl extends TinyNodeImpl implements DocumentInfo {
+
+    private HashMap<String, NodeInfo> idTable;
+    private HashMap<Integer, int[]> elementList;
+    private HashMap<String, Object> userData;
+
+    public TinyDocumentImpl(TinyTree tree, int nodeNr) {
+        super(tree, nodeNr);
+    }
+
+    /**
+     * Return the type of node.
+     * @return Type.DOCUMENT (always)
+     */
+
+    public final int getNodeKind() {
+        return Type.DOCUMENT;
+    }
+
+    /**
+     * Get the base URI of this root node.
+     */
+
+    public String getBaseURI() {
+        return tree.getBaseURI();
+    }
+
+    /**
+     * Get the parent: always null for a document node
+     */
+
+    public NodeInfo getParent() {
+        return null;
+    }
+
+    /**
+     * Get the root node
+     * @return the NodeInfo representing the root of this tree
+     */
+
+    public NodeInfo getRoot() {
+        return this;
+    }
+
+    /**
+     * Get the root (document) node
+     * @return the DocumentInfo representing this document
+     */
+
+    public DocumentInfo getDocumentRoot() {
+        return this;
+    }
+
+    /**
+     * Determine whether the node has any children.
+     */
+
+    public boolean hasChildNodes() {
+        return tree.numberOfNodes > 1;
+    }
+
+    /**
+     * Get the string value of the document node: the concatenation of all its text nodes
+     */
+
+    public String getStringValue() {
+        return tree.getStringValue(nodeNr).toString();
+    }
+
+    /**
+     * Get the value of the item as a CharSequence
+     */
+
+    public CharSequence getStringValueCS() {
+        return tree.getStringValue(nodeNr);
+    }
+
+    /**
+     * Get a character string that uniquely identifies this node
+     * @param buffer a buffer into which will be placed a string based on the document number
+     */
+
+    public void generateId(FastStringBuffer buffer) {
+        buffer.append('d');
+        buffer.append(Integer.toString(tree.getDocumentNumber()));
+    }
+
+    /**
+     * Get a list of all elements with a given name. The list is built by a scan of the name code
+     * array the first time it is requested, and then retained.
+     * @param fingerprint the fingerprint of the required element name
+     * @return an iterator over all the elements with this name
+     */
+
+    AxisIterator getAllElements(int fingerprint) {
+        if (elementList == null) {
+            elementList = new HashMap<Integer, int[]>(20);
+        }
+        int[] list = elementList.get(fingerprint);
+        if (list == null) {
+            int[] nodes = new int[100];
+            int used = 0;
+            byte[] kinds = tree.nodeKind;
+            int[] names = tree.nameCode;
+            int top = tree.numberOfNodes;
+            for (int i = 1; i < top; i++) {
+                if (kinds[i] == Type.ELEMENT && (names[i] & NamePool.FP_MASK) == fingerprint) {
+                    if (used == nodes.length) {
+                        int[] n2 = new int[used * 2];
+                        System.arraycopy(nodes, 0, n2, 0, used);
+                        nodes = n2;
+                    }
+                    nodes[used++] = i;
+                }
+            }
+            list = new int[used];
+            System.arraycopy(nodes, 0, list, 0, used);
+            elementList.put(fingerprint, list);
+        }
+        return new NodeNumberEnumeration(tree, list);
+    }
+
+    /**
+     * Get the element with a given ID.
+     * @param id The unique ID of the required element
+     * @return The NodeInfo for the given ID if one has been registered, otherwise null.
+     */
+
+    public NodeInfo selectID(String id) {
+        if (idTable == null) {
+            indexIDs();
+        }
+        return idTable.get(id);
+    }
+
+    /**
+     * Index all the ID attributes. This is done the first time the id() function
+     * is used on this document
+     */
+
+    private void indexIDs() {
+        idTable = new HashMap<String, NodeInfo>(256);
+        for (int a = 0; a < tree.numberOfAttributes; a++) {
+            if ((tree.attCode[a] & NamePool.FP_MASK) == StandardNames.XML_ID) {
+                String id = Whitespace.trim(tree.attValue[a]);
+                // the XPath spec (5.2.1) says ignore the second ID if it's not unique
+                if (NameChecker.isValidNCName(id) && !idTable.containsKey(id)) {
+                    idTable.put(id, tree.getNode(tree.attParent[a]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy this node to a given outputter
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        out.startDocument();
+        int n = (hasChildNodes() ? nodeNr + 1 : -1);
+        while (n >= 0) {
+            tree.getNode(n).copy(out, copyOptions);
+            n = tree.next[n];
+        }
+        out.endDocument();
+    }
+
+    /**
+     * Set user data on the document node. The user data can be retrieved subsequently
+     * using {@link #getUserData}
+     * @param key   A string giving the name of the property to be set. Clients are responsible
+     *              for choosing a key that is likely to be unique. Must not be null.
+     * @param value The value to be set for the property. May be null, which effectively
+     *              removes the existing value for the property.
+     */
+
+    public void setUserData(String key, Object value) {
+        if (userData == null) {
+            userData = new HashMap<String, Object>(4);
+        }
+        if (value == null) {
+            userData.remove(key);
+        } else {
+            userData.put(key, value);
+        }
+    }
+
+    /**
+     * Get user data held in the document node. This retrieves properties previously set using
+     * {@link #setUserData}
+     * @param key A string giving the name of the property to be retrieved.
+     * @return the value of the property, or null if the property has not been defined.
+     */
+
+    public Object getUserData(String key) {
+        if (userData == null) {
+            return null;
+        } else {
+            return userData.get(key);
+        }
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -0,0 +1,169 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.om.CopyOptions;
+import client.net.sf.saxon.ce.om.NamespaceBinding;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.util.NamespaceIterator;
+import client.net.sf.saxon.ce.tree.util.Navigator;
+import client.net.sf.saxon.ce.type.Type;
+
+/**
+ * A node in the TinyTree representing an element. The attributes and namespace declarations
+ * of the element are held in separate arrays of the tree, indexed from the element entry.
+ */
+
+final class TinyElementImpl extends TinyNodeImpl {
+
+    public TinyElementImpl(TinyTree tree, int nodeNr) {
+        super(tree, nodeNr);
+    }
+
+    /**
+     * Return the type of node.
+     * @return Type.ELEMENT (always)
+     */
+
+    public final int getNodeKind() {
+        return Type.ELEMENT;
+    }
+
+    /**
+     * Get the base URI of this element node. This will be the same as the System Id, unless
+     * xml:base has been used.
+     */
+
+    public String getBaseURI() {
+        return Navigator.getBaseURI(this);
+    }
+
+    /**
+     * Determine whether the node has any children.
+     */
+
+    public boolean hasChildNodes() {
+        return nodeNr + 1 < tree.numberOfNodes && tree.depth[nodeNr + 1] > tree.depth[nodeNr];
+    }
+
+    /**
+     * Return the string value of the element: the concatenation of all its descendant text nodes
+     */
+
+    public String getStringValue() {
+        return tree.getStringValue(nodeNr).toString();
+    }
+
+    /**
+     * Get the value of the item as a CharSequence
+     */
+
+    public CharSequence getStringValueCS() {
+        return tree.getStringValue(nodeNr);
+    }
+
+    /**
+     * Get the namespace declarations and undeclarations defined on this element.
+     * @param buffer not used
+     * @return the namespace bindings declared on this element
+     */
+
+    public NamespaceBinding[] getDeclaredNamespaces(NamespaceBinding[] buffer) {
+        int ns = tree.beta[nodeNr];
+        if (ns < 0) {
+            return NamespaceBinding.EMPTY_ARRAY;
+        }
+        int end = ns;
+        while (end < tree.numberOfNamespaces && tree.namespaceParent[end] == nodeNr) {
+            end++;
+        }
+        NamespaceBinding[] result = new NamespaceBinding[end - ns];
+        System.arraycopy(tree.namespaceBinding, ns, result, 0, end - ns);
+        return result;
+    }
+
+    /**
+     * Get the value of a given attribute of this node
+     * @param fingerprint The fingerprint of the attribute name
+     * @return the attribute value if it exists or null if not
+     */
+
+    public String getAttributeValue(int fingerprint) {
+        int a = tree.findAttribute(nodeNr, fingerprint);
+        return (a < 0 ? null : tree.attValue[a]);
+    }
+
+    /**
+     * Copy this node to a given outputter (supporting xsl:copy-of)
+     * @param out The outputter
+     * @param copyOptions the options for copying namespaces, type annotations, etc
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        // the subtree is copied by a forwards scan of the node arrays, which avoids creating
+        // a node object for every descendant
+
+        int childCopyOptions = copyOptions & ~CopyOptions.ALL_NAMESPACES;
+        if ((copyOptions & CopyOptions.ALL_NAMESPACES) != 0) {
+            childCopyOptions |= CopyOptions.LOCAL_NAMESPACES;
+        }
+        int level = tree.depth[nodeNr];
+        int n = nodeNr;
+        int openElements = 0;
+        do {
+            // close any elements that have ended
+            int d = tree.depth[n];
+            while (openElements > 0 && d <= level + openElements - 1) {
+                out.endElement();
+                openElements--;
+            }
+            switch (tree.nodeKind[n]) {
+                case Type.ELEMENT:
+                    out.startElement(tree.nameCode[n], 0);
+                    if (n == nodeNr && (copyOptions & CopyOptions.ALL_NAMESPACES) != 0) {
+                        NamespaceIterator.sendNamespaces(this, out);
+                    } else if (((n == nodeNr ? copyOptions : childCopyOptions) & CopyOptions.LOCAL_NAMESPACES) != 0) {
+                        int ns = tree.beta[n];
+                        if (ns >= 0) {
+                            while (ns < tree.numberOfNamespaces && tree.namespaceParent[ns] == n) {
+                                out.namespace(tree.namespaceBinding[ns], 0);
+                                ns++;
+                            }
+                        }
+                    }
+                    int a = tree.alpha[n];
+                    if (a >= 0) {
+                        while (a < tree.numberOfAttributes && tree.attParent[a] == n) {
+                            out.attribute(tree.attCode[a], tree.attValue[a]);
+                            a++;
+                        }
+                    }
+                    out.startContent();
+                    openElements++;
+                    break;
+                case Type.TEXT:
+                    out.characters(tree.getTextValue(n));
+                    break;
+                case Type.COMMENT:
+                    out.comment(tree.getCommentValue(n));
+                    break;
+                case Type.PROCESSING_INSTRUCTION:
+                    out.processingInstruction(
+                            getNamePool().getLocalName(tree.nameCode[n]), tree.getCommentValue(n));
+                    break;
+                default:
+                    break;
+            }
+            n++;
+        } while (n < tree.numberOfNodes && tree.depth[n] > level);
+
+        while (openElements > 0) {
+            out.endElement();
+            openElements--;
+        }
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -0,0 +1,538 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.om.*;
+import client.net.sf.saxon.ce.pattern.AnyNodeTest;
+import client.net.sf.saxon.ce.pattern.NameTest;
+import client.net.sf.saxon.ce.pattern.NodeTest;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.tree.NamespaceNode;
+import client.net.sf.saxon.ce.tree.iter.AxisIterator;
+import client.net.sf.saxon.ce.tree.iter.EmptyIterator;
+import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+import client.net.sf.saxon.ce.tree.util.Navigator;
+import client.net.sf.saxon.ce.tree.wrapper.SiblingCountingNode;
+import client.net.sf.saxon.ce.type.Type;
+import client.net.sf.saxon.ce.value.AtomicValue;
+import client.net.sf.saxon.ce.value.UntypedAtomicValue;
+
+
+/**
+ * A node in a TinyTree representing any kind of node. A TinyNodeImpl is a lightweight object
+ * that simply identifies a position in the tree: all the information about the node is held
+ * in the arrays of the {@link TinyTree}. Node objects are created on demand, so two different
+ * objects may represent the same node; they are compared using {@link #isSameNodeInfo}.
+ */
+
+public abstract class TinyNodeImpl implements NodeInfo, FingerprintedNode, SiblingCountingNode {
+
+    protected TinyTree tree;
+    protected int nodeNr;
+    protected TinyNodeImpl parent = null;
+
+    /**
+     * Chararacteristic letters to identify each type of node, indexed using the node type
+     * values. These are used as the initial letter of the result of generate-id()
+     */
+
+    public static final char[] NODE_LETTER =
+            {'x', 'e', 'a', 't', 'x', 'x', 'x', 'p', 'c', 'r', 'x', 'x', 'x', 'n'};
+
+    protected TinyNodeImpl(TinyTree tree, int nodeNr) {
+        this.tree = tree;
+        this.nodeNr = nodeNr;
+    }
+
+    /**
+     * Get the tree containing this node
+     * @return the TinyTree
+     */
+
+    public final TinyTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Get the node number of this node within the tree
+     * @return the node number
+     */
+
+    public final int getNodeNumber() {
+        return nodeNr;
+    }
+
+    /**
+     * Get the kind of node
+     * @return the node kind, for example Type.ELEMENT
+     */
+
+    public int getNodeKind() {
+        return tree.nodeKind[nodeNr];
+    }
+
+    /**
+     * Get the value of the item as a CharSequence. This is in some cases more efficient than
+     * the version of the method that returns a String.
+     */
+
+    public CharSequence getStringValueCS() {
+        return getStringValue();
+    }
+
+    /**
+     * Get the typed value of this node.
+     * If there is no type annotation, we return the string value, as an instance
+     * of xs:untypedAtomic
+     */
+
+    public AtomicValue getTypedValue() {
+        return new UntypedAtomicValue(getStringValueCS());
+    }
+
+    /**
+     * Get the type annotation of this node, if any
+     * @return the type annotation, as the integer name code of the type name
+     */
+
+    public int getTypeAnnotation() {
+        return StandardNames.XS_UNTYPED;
+    }
+
+    /**
+     * Determine whether this is the same node as another node
+     * @return true if this Node object and the supplied Node object represent the
+     *         same node in the tree.
+     */
+
+    public boolean isSameNodeInfo(NodeInfo other) {
+        // default implementation: differs for attribute nodes
+        return other instanceof TinyNodeImpl &&
+                ((TinyNodeImpl)other).tree == tree &&
+                ((TinyNodeImpl)other).nodeNr == nodeNr &&
+                other.getNodeKind() != Type.ATTRIBUTE;
+    }
+
+    /**
+     * The equals() method compares nodes for identity. It is defined to give the same result
+     * as isSameNodeInfo().
+     * @param other the node to be compared with this node
+     * @return true if this NodeInfo object and the supplied NodeInfo object represent
+     *      the same node in the tree.
+     */
+
+    public boolean equals(Object other) {
+        return other instanceof NodeInfo && isSameNodeInfo((NodeInfo)other);
+    }
+
+    /**
+     * The hashCode() method obeys the contract for hashCode(): that is, if two objects are equal
+     * (represent the same node) then they must have the same hashCode()
+     */
+
+    public int hashCode() {
+        return (tree.getDocumentNumber() & 0x3ff) << 20 ^ nodeNr;
+    }
+
+    /**
+     * Get the system ID for the node.
+     */
+
+    public String getSystemId() {
+        return tree.getSystemId();
+    }
+
+    /**
+     * Get the base URI for the node. Default implementation for child nodes.
+     */
+
+    public String getBaseURI() {
+        NodeInfo p = getParent();
+        return (p == null ? null : p.getBaseURI());
+    }
+
+    /**
+     * Get the line number of the node within its source document entity. Line numbers
+     * are not maintained in a TinyTree.
+     * @return -1 always
+     */
+
+    public int getLineNumber() {
+        return -1;
+    }
+
+    /**
+     * Get the sequence number of the node in document order. Attributes are not in the node
+     * arrays, so they share the sequence number of their parent element.
+     * @return the sequence number
+     */
+
+    protected int getPrimaryOrderKey() {
+        return nodeNr;
+    }
+
+    /**
+     * Get the secondary key used to compare nodes that have the same primary key, that is, an
+     * element and its attributes
+     * @return zero for nodes other than attributes
+     */
+
+    protected int getSecondaryOrderKey() {
+        return 0;
+    }
+
+    /**
+     * Determine the relative position of this node and another node, in document order.
+     * The other node will always be in the same document.
+     * @param other The other node, whose position is to be compared with this node
+     * @return -1 if this node precedes the other node, +1 if it follows the other
+     *         node, or 0 if they are the same node. (In this case, isSameNode() will always
+     *         return true, and the two nodes will produce the same result for generateId())
+     */
+
+    public final int compareOrder(NodeInfo other) {
+        if (other instanceof NamespaceNode) {
+            return 0 - other.compareOrder(this);
+        }
+        TinyNodeImpl otherNode = (TinyNodeImpl)other;
+        int p = getPrimaryOrderKey();
+        int q = otherNode.getPrimaryOrderKey();
+        if (p != q) {
+            return (p < q ? -1 : +1);
+        }
+        int r = getSecondaryOrderKey();
+        int s = otherNode.getSecondaryOrderKey();
+        return (r == s ? 0 : (r < s ? -1 : +1));
+    }
+
+    /**
+     * Get the nameCode of the node. This is used to locate the name in the NamePool
+     */
+
+    public int getNameCode() {
+        return tree.nameCode[nodeNr];
+    }
+
+    /**
+     * Get the fingerprint of the node. This is used to compare whether two nodes
+     * have equivalent names. Return -1 for a node with no name.
+     */
+
+    public int getFingerprint() {
+        int nameCode = getNameCode();
+        if (nameCode == -1) {
+            return -1;
+        }
+        return nameCode & NamePool.FP_MASK;
+    }
+
+    /**
+     * Get the prefix part of the name of this node. This is the name before the ":" if any.
+     * @return the prefix part of the name. For an unnamed node, return an empty string.
+     */
+
+    public String getPrefix() {
+        int nameCode = getNameCode();
+        if (nameCode == -1 || !NamePool.isPrefixed(nameCode)) {
+            return "";
+        }
+        return getNamePool().getPrefix(nameCode);
+    }
+
+    /**
+     * Get the URI part of the name of this node.
+     * @return The URI of the namespace of this node. For the null namespace, return an
+     *         empty string. For an unnamed node, return the empty string.
+     */
+
+    public String getURI() {
+        int nameCode = getNameCode();
+        if (nameCode == -1) {
+            return "";
+        }
+        return getNamePool().getURI(nameCode);
+    }
+
+    /**
+     * Get the display name of this node. For elements and attributes this is [prefix:]localname.
+     * @return The display name of this node. For a node with no name, return an empty string.
+     */
+
+    public String getDisplayName() {
+        int nameCode = getNameCode();
+        if (nameCode == -1) {
+            return "";
+        }
+        return getNamePool().getDisplayName(nameCode);
+    }
+
+    /**
+     * Get the local name of this node.
+     * @return The local name of this node. For a node with no name, return "".
+     */
+
+    public String getLocalPart() {
+        int nameCode = getNameCode();
+        if (nameCode == -1) {
+            return "";
+        }
+        return getNamePool().getLocalName(nameCode);
+    }
+
+    /**
+     * Get the configuration
+     */
+
+    public Configuration getConfiguration() {
+        return tree.getConfiguration();
+    }
+
+    /**
+     * Get the NamePool
+     */
+
+    public NamePool getNamePool() {
+        return tree.getConfiguration().getNamePool();
+    }
+
+    /**
+     * Get the document number of the document containing this node
+     */
+
+    public int getDocumentNumber() {
+        return tree.getDocumentNumber();
+    }
+
+    /**
+     * Find the parent node of this node.
+     * @return The Node object describing the containing element or root node.
+     */
+
+    public NodeInfo getParent() {
+        if (parent == null) {
+            int p = getParentNodeNumber();
+            if (p < 0) {
+                return null;
+            }
+            parent = tree.getNode(p);
+        }
+        return parent;
+    }
+
+    /**
+     * Get the node number of the parent of this node
+     * @return the node number of the parent, or -1 if this is the root
+     */
+
+    protected int getParentNodeNumber() {
+        return tree.parent[nodeNr];
+    }
+
+    /**
+     * Get the index position of this node among its siblings (starting from 0)
+     * @return 0 for the first child, 1 for the second child, etc.
+     */
+
+    public int getSiblingPosition() {
+        int p = getParentNodeNumber();
+        if (p < 0) {
+            return 0;
+        }
+        int n = p + 1;
+        int index = 0;
+        while (n != nodeNr) {
+            n = tree.next[n];
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Determine whether the node has any children.
+     * @return <code>true</code> if the node has any children,
+     *         <code>false</code> if the node has no children.
+     */
+
+    public boolean hasChildNodes() {
+        return false;
+    }
+
+    /**
+     * Return an enumeration over the nodes reached by the given axis from this node
+     * @param axisNumber The axis to be iterated over
+     * @return an AxisIterator that scans the nodes reached by the axis in turn.
+     */
+
+    public AxisIterator iterateAxis(byte axisNumber) {
+        return iterateAxis(axisNumber, AnyNodeTest.getInstance());
+    }
+
+    /**
+     * Return an enumeration over the nodes reached by the given axis from this node
+     * @param axisNumber The axis to be iterated over
+     * @param nodeTest   A pattern to be matched by the returned nodes
+     * @return an AxisIterator that scans the nodes reached by the axis in turn.
+     */
+
+    public AxisIterator iterateAxis(byte axisNumber, NodeTest nodeTest) {
+
+        int kind = getNodeKind();
+        switch (axisNumber) {
+            case Axis.ANCESTOR:
+                if (kind == Type.DOCUMENT) {
+                    return EmptyIterator.getInstance();
+                }
+                return new Navigator.AxisFilter(new Navigator.AncestorEnumeration(this, false), nodeTest);
+
+            case Axis.ANCESTOR_OR_SELF:
+                return new Navigator.AxisFilter(new Navigator.AncestorEnumeration(this, true), nodeTest);
+
+            case Axis.ATTRIBUTE:
+                if (kind != Type.ELEMENT) {
+                    return EmptyIterator.getInstance();
+                }
+                return new AttributeEnumeration(tree, nodeNr, nodeTest);
+
+            case Axis.CHILD:
+                if (hasChildNodes()) {
+                    return new SiblingEnumeration(tree, nodeNr + 1, nodeTest, true);
+                } else {
+                    return EmptyIterator.getInstance();
+                }
+
+            case Axis.DESCENDANT:
+                if (kind == Type.DOCUMENT &&
+                        nodeTest instanceof NameTest &&
+                        nodeTest.getPrimitiveType() == Type.ELEMENT) {
+                    return ((TinyDocumentImpl)this).getAllElements(nodeTest.getFingerprint());
+                } else if (hasChildNodes()) {
+                    return new DescendantEnumeration(tree, nodeNr, nodeTest, false);
+                } else {
+                    return EmptyIterator.getInstance();
+                }
+
+            case Axis.DESCENDANT_OR_SELF:
+                if (kind == Type.ATTRIBUTE) {
+                    return Navigator.filteredSingleton(this, nodeTest);
+                }
+                return new DescendantEnumeration(tree, nodeNr, nodeTest, true);
+
+            case Axis.FOLLOWING:
+                return new FollowingEnumeration(tree, getFollowingStart(), nodeTest);
+
+            case Axis.FOLLOWING_SIBLING:
+                if (kind == Type.DOCUMENT || kind == Type.ATTRIBUTE) {
+                    return EmptyIterator.getInstance();
+                }
+                return new SiblingEnumeration(tree, tree.next[nodeNr], nodeTest, true);
+
+            case Axis.NAMESPACE:
+                if (kind != Type.ELEMENT) {
+                    return EmptyIterator.getInstance();
+                }
+                return NamespaceNode.makeIterator(this, nodeTest);
+
+            case Axis.PARENT:
+                return Navigator.filteredSingleton(getParent(), nodeTest);
+
+            case Axis.PRECEDING:
+                return new PrecedingEnumeration(tree, getPrecedingStart(), getParentNodeNumber(), nodeTest, false);
+
+            case Axis.PRECEDING_SIBLING:
+                if (kind == Type.DOCUMENT || kind == Type.ATTRIBUTE) {
+                    return EmptyIterator.getInstance();
+                }
+                tree.ensurePriorIndex();
+                return new SiblingEnumeration(tree, tree.prior[nodeNr], nodeTest, false);
+
+            case Axis.SELF:
+                return Navigator.filteredSingleton(this, nodeTest);
+
+            case Axis.PRECEDING_OR_ANCESTOR:
+                return new PrecedingEnumeration(tree, getPrecedingStart(), getParentNodeNumber(), nodeTest, true);
+
+            default:
+                throw new IllegalArgumentException("Unknown axis number " + axisNumber);
+        }
+    }
+
+    /**
+     * Get the node number of the first node on the following axis
+     * @return the node number of the node that follows the last descendant of this node
+     */
+
+    protected int getFollowingStart() {
+        return tree.getLastDescendantOrSelf(nodeNr) + 1;
+    }
+
+    /**
+     * Get the node number of the node at which a backwards scan for the preceding axis starts.
+     * This node is either the nearest preceding node or the parent of this node
+     * @return the node number of the node immediately before this one in document order
+     */
+
+    protected int getPrecedingStart() {
+        return nodeNr - 1;
+    }
+
+    /**
+     * Get the root node
+     * @return the NodeInfo representing the logical root of the tree. For this tree implementation the
+     * root will either be a document node or an element node.
+     */
+
+    public NodeInfo getRoot() {
+        return tree.getRootNode();
+    }
+
+    /**
+     * Get the root (document) node
+     * @return the DocumentInfo representing the containing document. If this
+     *     node is part of a tree that does not have a document node as its
+     *     root, returns null.
+     */
+
+    public DocumentInfo getDocumentRoot() {
+        NodeInfo root = tree.getRootNode();
+        if (root instanceof DocumentInfo) {
+            return (DocumentInfo)root;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get a character string that uniquely identifies this node within this document
+     * (The calling code will prepend a document identifier)
+     */
+
+    public void generateId(FastStringBuffer buffer) {
+        buffer.append('d');
+        buffer.append(Integer.toString(tree.getDocumentNumber()));
+        buffer.append(NODE_LETTER[getNodeKind()]);
+        buffer.append(Integer.toString(nodeNr));
+    }
+
+    /**
+     * Copy this node to a given outputter
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        Navigator.copy(this, out, getNamePool(), copyOptions);
+    }
+
+    /**
+     * Get all namespace declarations and undeclarations defined on this element.
+     * @param buffer not used
+     * @return For a node other than an element, the method returns null.
+     */
+
+    public NamespaceBinding[] getDeclaredNamespaces(NamespaceBinding[] buffer) {
+        return null;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
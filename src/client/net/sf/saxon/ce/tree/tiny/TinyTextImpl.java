@@ -0,0 +1,56 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.event.Receiver;
+import client.net.sf.saxon.ce.trans.XPathException;
+import client.net.sf.saxon.ce.type.Type;
+
+/**
+ * A node in the TinyTree representing a text node. The characters are held in the
+ * shared character buffer of the tree.
+ */
+
+final class TinyTextImpl extends TinyNodeImpl {
+
+    public TinyTextImpl(TinyTree tree, int nodeNr) {
+        super(tree, nodeNr);
+    }
+
+    /**
+     * Return the type of node.
+     * @return Type.TEXT (always)
+     */
+
+    public final int getNodeKind() {
+        return Type.TEXT;
+    }
+
+    /**
+     * Return the character value of the node.
+     * @return the string value of the node
+     */
+
+    public String getStringValue() {
+        return getStringValueCS().toString();
+    }
+
+    /**
+     * Get the value of the item as a CharSequence, without copying the characters
+     */
+
+    public CharSequence getStringValueCS() {
+        return tree.getTextValue(nodeNr);
+    }
+
+    /**
+     * Copy this node to a given outputter
+     */
+
+    public void copy(Receiver out, int copyOptions) throws XPathException {
+        out.characters(getStringValueCS());
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
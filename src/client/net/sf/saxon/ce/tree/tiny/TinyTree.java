@@ -0,0 +1,569 @@
+package client.net.sf.saxon.ce.tree.tiny;
+
+import client.net.sf.saxon.ce.Configuration;
+import client.net.sf.saxon.ce.om.NamePool;
+import client.net.sf.saxon.ce.om.NamespaceBinding;
+import client.net.sf.saxon.ce.om.NodeInfo;
+import client.net.sf.saxon.ce.om.StandardNames;
+import client.net.sf.saxon.ce.pattern.*;
+import client.net.sf.saxon.ce.tree.util.FastStringBuffer;
+import client.net.sf.saxon.ce.type.Type;
+
+/**
+ * A data structure to hold the contents of a tree. As the name implies, this implementation
+ * of the data model is optimized for size, and for speed of creation: it minimizes the number
+ * of Java objects used.
+ *
+ * <p>Each node other than an attribute or namespace is represented by an entry in a set of
+ * parallel arrays, indexed by node number. Nodes are numbered in document order, so the
+ * descendants of a node are the nodes that follow it in the arrays until one is reached at
+ * the same depth or less. Attributes and namespace declarations are held in their own parallel
+ * arrays, in document order of their parent element. The characters of all text nodes are held
+ * in a single shared buffer, and those of comments and processing instructions in another.</p>
+ *
+ * <p>Node objects ({@link TinyNodeImpl}) are created only when a node is returned to the
+ * caller, and two node objects with the same tree and node number represent the same node.</p>
+ *
+ * <p>The tree is read-only once it has been built by a {@link TinyBuilder}.</p>
+ */
+
+public final class TinyTree {
+
+    private Configuration config;
+    private int documentNumber;
+    private String systemId;
+    private String baseURI;
+
+    // the contents of the tree
+
+    // nodeKind: the kind of node, for example Type.ELEMENT or Type.TEXT
+    protected byte[] nodeKind;
+
+    // depth: the depth of the node in the hierarchy, the root being at depth 0
+    protected short[] depth;
+
+    // next: the node number of the next sibling, or -1 if this is the last child
+    protected int[] next;
+
+    // parent: the node number of the parent, or -1 for the root node
+    protected int[] parent;
+
+    // alpha: for text nodes, comments and processing instructions, the offset of the value in
+    // the character buffer or comment buffer respectively. For elements, the index of the first
+    // attribute, or -1 if there are none.
+    protected int[] alpha;
+
+    // beta: for text nodes, comments and processing instructions, the length of the value.
+    // For elements, the index of the first namespace declaration, or -1 if there are none.
+    protected int[] beta;
+
+    // nameCode: the name code of an element or processing instruction; -1 for other nodes
+    protected int[] nameCode;
+
+    protected int numberOfNodes = 0;
+
+    // prior: the node number of the previous sibling, or -1. This is built lazily, the first
+    // time the preceding-sibling axis is used.
+    protected int[] prior = null;
+
+    // attribute and namespace nodes, held in order of their parent element
+
+    protected int[] attParent;
+    protected int[] attCode;
+    protected String[] attValue;
+    protected int numberOfAttributes = 0;
+
+    protected int[] namespaceParent;
+    protected NamespaceBinding[] namespaceBinding;
+    protected int numberOfNamespaces = 0;
+
+    // the text of text nodes, and of comments and processing instructions
+
+    protected FastStringBuffer charBuffer;
+    protected FastStringBuffer commentBuffer = null;
+
+    // the document node, if the tree has one, created on first use
+    private TinyDocumentImpl documentNode = null;
+
+    /**
+     * Create a TinyTree
+     * @param config the Saxon configuration
+     * @param nodes the estimated number of nodes (excluding attributes and namespaces)
+     * @param attributes the estimated number of attributes
+     * @param namespaces the estimated number of namespace declarations
+     * @param characters the estimated number of characters in text nodes
+     */
+
+    public TinyTree(Configuration config, int nodes, int attributes, int namespaces, int characters) {
+        this.config = config;
+        documentNumber = config.getDocumentNumberAllocator().allocateDocumentNumber();
+
+        nodeKind = new byte[nodes];
+        depth = new short[nodes];
+        next = new int[nodes];
+        parent = new int[nodes];
+        alpha = new int[nodes];
+        beta = new int[nodes];
+        nameCode = new int[nodes];
+
+        attParent = new int[attributes];
+        attCode = new int[attributes];
+        attValue = new String[attributes];
+
+        namespaceParent = new int[namespaces];
+        namespaceBinding = new NamespaceBinding[namespaces];
+
+        charBuffer = new FastStringBuffer(characters);
+    }
+
+    /**
+     * Get the Configuration to which this tree belongs
+     * @return the Saxon configuration
+     */
+
+    public Configuration getConfiguration() {
+        return config;
+    }
+
+    /**
+     * Get the document number, unique within the Configuration
+     * @return the document number
+     */
+
+    public int getDocumentNumber() {
+        return documentNumber;
+    }
+
+    /**
+     * Set the system identifier of the tree
+     * @param uri the system identifier
+     */
+
+    public void setSystemId(String uri) {
+        systemId = (uri == null ? "" : uri);
+    }
+
+    /**
+     * Get the system identifier of the tree
+     * @return the system identifier, or "" if none has been set
+     */
+
+    public String getSystemId() {
+        return (systemId == null ? "" : systemId);
+    }
+
+    /**
+     * Set the base URI of the root node of the tree
+     * @param uri the base URI
+     */
+
+    public void setBaseURI(String uri) {
+        baseURI = uri;
+    }
+
+    /**
+     * Get the base URI of the root node of the tree
+     * @return the base URI if one has been set; otherwise the system identifier
+     */
+
+    public String getBaseURI() {
+        return (baseURI == null ? getSystemId() : baseURI);
+    }
+
+    /**
+     * Get the number of nodes in the tree, excluding attributes and namespace nodes
+     * @return the number of nodes
+     */
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    /**
+     * Get the number of attributes in the tree
+     * @return the number of attributes
+     */
+
+    public int getNumberOfAttributes() {
+        return numberOfAttributes;
+    }
+
+    /**
+     * Get the number of namespace declarations in the tree
+     * @return the number of namespace declarations
+     */
+
+    public int getNumberOfNamespaces() {
+        return numberOfNamespaces;
+    }
+
+    /**
+     * Add a node to the tree
+     * @param kind the kind of node, for example Type.ELEMENT
+     * @param depth the depth of the node in the tree
+     * @param parentNr the node number of the parent, or -1 for the root
+     * @param alpha the alpha value (see the description of the array)
+     * @param beta the beta value (see the description of the array)
+     * @param nameCode the name code of the node, or -1 if it has no name
+     * @return the node number of the new node
+     */
+
+    int addNode(int kind, int depth, int parentNr, int alpha, int beta, int nameCode) {
+        if (numberOfNodes >= nodeKind.length) {
+            ensureNodeCapacity();
+        }
+        int nr = numberOfNodes++;
+        this.nodeKind[nr] = (byte)kind;
+        this.depth[nr] = (short)depth;
+        this.next[nr] = -1;
+        this.parent[nr] = parentNr;
+        this.alpha[nr] = alpha;
+        this.beta[nr] = beta;
+        this.nameCode[nr] = nameCode;
+        return nr;
+    }
+
+    private void ensureNodeCapacity() {
+        int k = (nodeKind.length < 10 ? 20 : nodeKind.length * 2);
+
+        byte[] nodeKind2 = new byte[k];
+        short[] depth2 = new short[k];
+        int[] next2 = new int[k];
+        int[] parent2 = new int[k];
+        int[] alpha2 = new int[k];
+        int[] beta2 = new int[k];
+        int[] nameCode2 = new int[k];
+
+        System.arraycopy(nodeKind, 0, nodeKind2, 0, numberOfNodes);
+        System.arraycopy(depth, 0, depth2, 0, numberOfNodes);
+        System.arraycopy(next, 0, next2, 0, numberOfNodes);
+        System.arraycopy(parent, 0, parent2, 0, numberOfNodes);
+        System.arraycopy(alpha, 0, alpha2, 0, numberOfNodes);
+        System.arraycopy(beta, 0, beta2, 0, numberOfNodes);
+        System.arraycopy(nameCode, 0, nameCode2, 0, numberOfNodes);
+
+        nodeKind = nodeKind2;
+        depth = depth2;
+        next = next2;
+        parent = parent2;
+        alpha = alpha2;
+        beta = beta2;
+        nameCode = nameCode2;
+    }
+
+    /**
+     * Add an attribute to the most recently added element
+     * @param elementNr the node number of the element
+     * @param nameCode the name code of the attribute
+     * @param value the string value of the attribute
+     */
+
+    void addAttribute(int elementNr, int nameCode, String value) {
+        if (numberOfAttributes >= attParent.length) {
+            int k = (attParent.length < 5 ? 10 : attParent.length * 2);
+            int[] attParent2 = new int[k];
+            int[] attCode2 = new int[k];
+            String[] attValue2 = new String[k];
+            System.arraycopy(attParent, 0, attParent2, 0, numberOfAttributes);
+            System.arraycopy(attCode, 0, attCode2, 0, numberOfAttributes);
+            System.arraycopy(attValue, 0, attValue2, 0, numberOfAttributes);
+            attParent = attParent2;
+            attCode = attCode2;
+            attValue = attValue2;
+        }
+        if (alpha[elementNr] == -1) {
+            alpha[elementNr] = numberOfAttributes;
+        }
+        attParent[numberOfAttributes] = elementNr;
+        attCode[numberOfAttributes] = nameCode;
+        attValue[numberOfAttributes] = value;
+        numberOfAttributes++;
+    }
+
+    /**
+     * Add a namespace declaration to the most recently added element
+     * @param elementNr the node number of the element
+     * @param binding the namespace binding
+     */
+
+    void addNamespace(int elementNr, NamespaceBinding binding) {
+        if (numberOfNamespaces >= namespaceParent.length) {
+            int k = (namespaceParent.length < 5 ? 10 : namespaceParent.length * 2);
+            int[] namespaceParent2 = new int[k];
+            NamespaceBinding[] namespaceBinding2 = new NamespaceBinding[k];
+            System.arraycopy(namespaceParent, 0, namespaceParent2, 0, numberOfNamespaces);
+            System.arraycopy(namespaceBinding, 0, namespaceBinding2, 0, numberOfNamespaces);
+            namespaceParent = namespaceParent2;
+            namespaceBinding = namespaceBinding2;
+        }
+        if (beta[elementNr] == -1) {
+            beta[elementNr] = numberOfNamespaces;
+        }
+        namespaceParent[numberOfNamespaces] = elementNr;
+        namespaceBinding[numberOfNamespaces] = binding;
+        numberOfNamespaces++;
+    }
+
+    /**
+     * Append characters to the text of a text node. The text node must be the most recently
+     * added node.
+     * @param nodeNr the node number of the text node
+     * @param chars the characters to be appended
+     */
+
+    void appendChars(int nodeNr, CharSequence chars) {
+        charBuffer.append(chars);
+        beta[nodeNr] += chars.length();
+    }
+
+    /**
+     * Add the text of a comment or processing instruction to the comment buffer
+     * @param chars the text
+     * @return the offset of the text in the comment buffer
+     */
+
+    int addCommentText(CharSequence chars) {
+        if (commentBuffer == null) {
+            commentBuffer = new FastStringBuffer(FastStringBuffer.MEDIUM);
+        }
+        int offset = commentBuffer.length();
+        commentBuffer.append(chars);
+        return offset;
+    }
+
+    /**
+     * Release the space not needed once the tree has been built
+     */
+
+    void condense() {
+        if (numberOfNodes * 3 < nodeKind.length || (nodeKind.length - numberOfNodes > 20000)) {
+            int k = numberOfNodes;
+            byte[] nodeKind2 = new byte[k];
+            short[] depth2 = new short[k];
+            int[] next2 = new int[k];
+            int[] parent2 = new int[k];
+            int[] alpha2 = new int[k];
+            int[] beta2 = new int[k];
+            int[] nameCode2 = new int[k];
+            System.arraycopy(nodeKind, 0, nodeKind2, 0, k);
+            System.arraycopy(depth, 0, depth2, 0, k);
+            System.arraycopy(next, 0, next2, 0, k);
+            System.arraycopy(parent, 0, parent2, 0, k);
+            System.arraycopy(alpha, 0, alpha2, 0, k);
+            System.arraycopy(beta, 0, beta2, 0, k);
+            System.arraycopy(nameCode, 0, nameCode2, 0, k);
+            nodeKind = nodeKind2;
+            depth = depth2;
+            next = next2;
+            parent = parent2;
+            alpha = alpha2;
+            beta = beta2;
+            nameCode = nameCode2;
+        }
+        if (numberOfAttributes * 3 < attParent.length) {
+            int k = numberOfAttributes;
+            int[] attParent2 = new int[k];
+            int[] attCode2 = new int[k];
+            String[] attValue2 = new String[k];
+            System.arraycopy(attParent, 0, attParent2, 0, k);
+            System.arraycopy(attCode, 0, attCode2, 0, k);
+            System.arraycopy(attValue, 0, attValue2, 0, k);
+            attParent = attParent2;
+            attCode = attCode2;
+            attValue = attValue2;
+        }
+        if (numberOfNamespaces * 3 < namespaceParent.length) {
+            int k = numberOfNamespaces;
+            int[] namespaceParent2 = new int[k];
+            NamespaceBinding[] namespaceBinding2 = new NamespaceBinding[k];
+            System.arraycopy(namespaceParent, 0, namespaceParent2, 0, k);
+            System.arraycopy(namespaceBinding, 0, namespaceBinding2, 0, k);
+            namespaceParent = namespaceParent2;
+            namespaceBinding = namespaceBinding2;
+        }
+        charBuffer.condense();
+    }
+
+    /**
+     * Get the node at a given position in the tree
+     * @param nr the node number
+     * @return the node
+     */
+
+    public TinyNodeImpl getNode(int nr) {
+        switch (nodeKind[nr]) {
+            case Type.DOCUMENT:
+                if (documentNode == null) {
+                    documentNode = new TinyDocumentImpl(this, nr);
+                }
+                return documentNode;
+            case Type.ELEMENT:
+                return new TinyElementImpl(this, nr);
+            case Type.TEXT:
+                return new TinyTextImpl(this, nr);
+            case Type.COMMENT:
+                return new TinyCommentImpl(this, nr);
+            case Type.PROCESSING_INSTRUCTION:
+                return new TinyProcInstImpl(this, nr);
+            default:
+                throw new IllegalStateException("Unknown node kind " + nodeKind[nr] + " in TinyTree");
+        }
+    }
+
+    /**
+     * Get the attribute node at a given position in the attribute arrays
+     * @param nr the index of the attribute
+     * @return the attribute node
+     */
+
+    public TinyAttributeImpl getAttributeNode(int nr) {
+        return new TinyAttributeImpl(this, nr);
+    }
+
+    /**
+     * Get the root node of the tree: the document node if there is one, otherwise the
+     * outermost element
+     * @return the root node
+     */
+
+    public NodeInfo getRootNode() {
+        return getNode(0);
+    }
+
+    /**
+     * Get the text of a text node
+     * @param nr the node number of the text node
+     * @return the characters of the text node
+     */
+
+    CharSequence getTextValue(int nr) {
+        int start = alpha[nr];
+        return charBuffer.subSequence(start, start + beta[nr]);
+    }
+
+    /**
+     * Get the text of a comment or processing instruction
+     * @param nr the node number of the comment or processing instruction
+     * @return the characters of the node's value
+     */
+
+    CharSequence getCommentValue(int nr) {
+        int start = alpha[nr];
+        return commentBuffer.subSequence(start, start + beta[nr]);
+    }
+
+    /**
+     * Get the string value of a document or element node, by concatenating the text
+     * of all its descendant text nodes
+     * @param nr the node number of the document or element node
+     * @return the string value
+     */
+
+    CharSequence getStringValue(int nr) {
+        int level = depth[nr];
+        int n = nr + 1;
+
+        // fast path: an element with a single text node child, which is common enough
+        // to be worth avoiding the buffer copy
+        if (n < numberOfNodes && nodeKind[n] == Type.TEXT && depth[n] > level &&
+                (n + 1 >= numberOfNodes || depth[n + 1] <= level)) {
+            return getTextValue(n);
+        }
+
+        FastStringBuffer sb = null;
+        while (n < numberOfNodes && depth[n] > level) {
+            if (nodeKind[n] == Type.TEXT) {
+                if (sb == null) {
+                    sb = new FastStringBuffer(FastStringBuffer.SMALL);
+                }
+                int start = alpha[n];
+                sb.append(charBuffer.subSequence(start, start + beta[n]));
+            }
+            n++;
+        }
+        if (sb == null) {
+            return "";
+        }
+        return sb.condense();
+    }
+
+    /**
+     * Get the node number of the last descendant of a node, or of the node itself if it
+     * has no descendants
+     * @param nr the node number
+     * @return the node number of the last node in the subtree rooted at the given node
+     */
+
+    int getLastDescendantOrSelf(int nr) {
+        int level = depth[nr];
+        int n = nr + 1;
+        while (n < numberOfNodes && depth[n] > level) {
+            n++;
+        }
+        return n - 1;
+    }
+
+    /**
+     * Ensure that the prior (previous sibling) index is available
+     */
+
+    void ensurePriorIndex() {
+        if (prior == null || prior.length < numberOfNodes) {
+            int[] p = new int[numberOfNodes];
+            for (int i = 0; i < numberOfNodes; i++) {
+                p[i] = -1;
+            }
+            for (int i = 0; i < numberOfNodes; i++) {
+                int nextNode = next[i];
+                if (nextNode != -1) {
+                    p[nextNode] = i;
+                }
+            }
+            prior = p;
+        }
+    }
+
+    /**
+     * Test whether a node in the node arrays matches a NodeTest. For the common kinds of node
+     * test, this is done without creating a node object.
+     * @param test the node test
+     * @param nr the node number
+     * @return true if the node matches the test
+     */
+
+    boolean matches(NodeTest test, int nr) {
+        if (test instanceof NameTest || test instanceof NodeKindTest ||
+                test instanceof AnyNodeTest || test instanceof AnyChildNodeTest) {
+            int nc = nameCode[nr];
+            return test.matches(nodeKind[nr], (nc == -1 ? -1 : nc & NamePool.FP_MASK), StandardNames.XS_UNTYPED);
+        } else {
+            return test.matches(getNode(nr));
+        }
+    }
+
+    /**
+     * Get the index of the first attribute of an element whose name has a given fingerprint
+     * @param elementNr the node number of the element
+     * @param fingerprint the fingerprint of the required attribute name
+     * @return the index of the attribute in the attribute arrays, or -1 if there is no such attribute
+     */
+
+    int findAttribute(int elementNr, int fingerprint) {
+        int a = alpha[elementNr];
+        if (a < 0) {
+            return -1;
+        }
+        while (a < numberOfAttributes && attParent[a] == elementNr) {
+            if ((attCode[a] & NamePool.FP_MASK) == fingerprint) {
+                return a;
+            }
+            a++;
+        }
+        return -1;
+    }
+
+}
+
+// This Source Code Form is subject to the terms of the Mozilla Public License, v. 2.0.
+// If a copy of the MPL was not distributed with this file, You can obtain one at http://mozilla.org/MPL/2.0/.
+// This Source Code Form is “Incompatible With Secondary Licenses”, as defined by the Mozilla Public License, v. 2.0.
@@ -195,6 +195,15 @@ public class DecimalValue extends NumericValue {
         return decimalPattern.exec(trimmed.toString()) != null;
     }
 
+    /**
+     * Constructor for use by subclasses that hold the value in a different form, and that
+     * therefore override {@link #getDecimalValue}
+     */
+
+    protected DecimalValue() {
+        typeLabel = BuiltInAtomicType.DECIMAL;
+    }
+
     /**
     * Constructor supplying a double
     * @param in the value of the DecimalValue
@@ -251,7 +260,7 @@ public class DecimalValue extends NumericValue {
      */
 
     public int hashCode() {
-        BigDecimal round = value.setScale(0, BigDecimal.ROUND_DOWN);
+        BigDecimal round = getDecimalValue().setScale(0, BigDecimal.ROUND_DOWN);
         long value = round.longValue();
         if (value > Integer.MIN_VALUE && value < Integer.MAX_VALUE) {
             return (int)value;
@@ -261,7 +270,7 @@ public class DecimalValue extends NumericValue {
     }
 
     public boolean effectiveBooleanValue() {
-        return value.signum() != 0;
+        return getDecimalValue().signum() != 0;
     }
 
     /**
@@ -272,17 +281,17 @@ public class DecimalValue extends NumericValue {
         switch(requiredType.getFingerprint()) {
         case StandardNames.XS_BOOLEAN:
                 // 0.0 => false, anything else => true
-            return BooleanValue.get(value.signum()!=0);
+            return BooleanValue.get(getDecimalValue().signum()!=0);
         case StandardNames.XS_NUMERIC:
         case StandardNames.XS_DECIMAL:
         case StandardNames.XS_ANY_ATOMIC_TYPE:
             return this;
         case StandardNames.XS_INTEGER:
-            return IntegerValue.decimalToInteger(value);
+            return IntegerValue.decimalToInteger(getDecimalValue());
         case StandardNames.XS_DOUBLE:
-            return new DoubleValue(value.doubleValue());
+            return new DoubleValue(getDecimalValue().doubleValue());
         case StandardNames.XS_FLOAT:
-            return new FloatValue(value.floatValue());
+            return new FloatValue(getDecimalValue().floatValue());
         case StandardNames.XS_STRING:
             return new StringValue(getStringValueCS());
         case StandardNames.XS_UNTYPED_ATOMIC:
@@ -310,7 +319,7 @@ public class DecimalValue extends NumericValue {
     */
 
     public CharSequence getPrimitiveStringValue() {
-        return decimalToString(value, new FastStringBuffer(FastStringBuffer.TINY));
+        return decimalToString(getDecimalValue(), new FastStringBuffer(FastStringBuffer.TINY));
     }
 
     /**
@@ -373,7 +382,7 @@ public class DecimalValue extends NumericValue {
     */
 
     public NumericValue negate() {
-        return new DecimalValue(value.negate());
+        return new DecimalValue(getDecimalValue().negate());
     }
 
     /**
@@ -381,7 +390,7 @@ public class DecimalValue extends NumericValue {
     */
 
     public NumericValue floor() {
-        return new DecimalValue(value.setScale(0, BigDecimal.ROUND_FLOOR));
+        return new DecimalValue(getDecimalValue().setScale(0, BigDecimal.ROUND_FLOOR));
     }
 
     /**
@@ -389,7 +398,7 @@ public class DecimalValue extends NumericValue {
     */
 
     public NumericValue ceiling() {
-        return new DecimalValue(value.setScale(0, BigDecimal.ROUND_CEILING));
+        return new DecimalValue(getDecimalValue().setScale(0, BigDecimal.ROUND_CEILING));
     }
 
     /**
@@ -404,13 +413,13 @@ public class DecimalValue extends NumericValue {
         // If the value is positive, we use ROUND_HALF_UP; if it is negative, we use ROUND_HALF_DOWN (here "UP"
         // means "away from zero")
 
-        switch (value.signum()) {
+        switch (getDecimalValue().signum()) {
             case -1:
-                return new DecimalValue(value.setScale(0, BigDecimal.ROUND_HALF_DOWN));
+                return new DecimalValue(getDecimalValue().setScale(0, BigDecimal.ROUND_HALF_DOWN));
             case 0:
                 return this;
             case +1:
-                return new DecimalValue(value.setScale(0, BigDecimal.ROUND_HALF_UP));
+                return new DecimalValue(getDecimalValue().setScale(0, BigDecimal.ROUND_HALF_UP));
             default:
                 // can't happen
                 return this;
@@ -423,7 +432,7 @@ public class DecimalValue extends NumericValue {
     */
 
     public NumericValue roundHalfToEven(int scale) {
-        BigDecimal scaledValue = value.setScale(scale, BigDecimal.ROUND_HALF_EVEN);
+        BigDecimal scaledValue = getDecimalValue().setScale(scale, BigDecimal.ROUND_HALF_EVEN);
         return new DecimalValue(scaledValue);
     }
 
@@ -433,7 +442,7 @@ public class DecimalValue extends NumericValue {
      */
 
     public double signum() {
-        return value.signum();
+        return getDecimalValue().signum();
     }
 
     /**
@@ -442,8 +451,8 @@ public class DecimalValue extends NumericValue {
     */
 
     public boolean isWholeNumber() {
-        return value.scale()==0 ||
-               value.compareTo(value.setScale(0, BigDecimal.ROUND_DOWN)) == 0;
+        return getDecimalValue().scale()==0 ||
+               getDecimalValue().compareTo(getDecimalValue().setScale(0, BigDecimal.ROUND_DOWN)) == 0;
     }
 
     /**
@@ -453,10 +462,10 @@ public class DecimalValue extends NumericValue {
      */
 
     public NumericValue abs() {
-        if (value.signum() > 0) {
+        if (getDecimalValue().signum() > 0) {
             return this;
         } else {
-            return new DecimalValue(value.negate());
+            return new DecimalValue(getDecimalValue().negate());
         }
     }
 
@@ -467,7 +476,7 @@ public class DecimalValue extends NumericValue {
     public int compareTo(Object other) {
         if (other instanceof DecimalValue) {
             // including xs:integer
-            return value.compareTo(((DecimalValue)other).value);
+            return getDecimalValue().compareTo(((DecimalValue)other).getDecimalValue());
         } else if (other instanceof FloatValue) {
             try {
                 return ((FloatValue)convertPrimitive(BuiltInAtomicType.FLOAT, true).asAtomic()).compareTo(other);
@@ -487,9 +496,9 @@ public class DecimalValue extends NumericValue {
 
     public int compareTo(long other) {
         if (other == 0) {
-            return value.signum();
+            return getDecimalValue().signum();
         }
-        return value.compareTo(BigDecimal.valueOf(other));
+        return getDecimalValue().compareTo(BigDecimal.valueOf(other));
     }
 
 }
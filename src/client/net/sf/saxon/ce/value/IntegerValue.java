@@ -1,5 +1,6 @@
 package client.net.sf.saxon.ce.value;
 
+import client.net.sf.saxon.ce.om.StandardNames;
 import client.net.sf.saxon.ce.trans.Err;
 import client.net.sf.saxon.ce.trans.XPathException;
 import client.net.sf.saxon.ce.type.BuiltInAtomicType;
@@ -12,13 +13,20 @@ import java.math.BigInteger;
 /**
  * This class represents the XPath built-in type xs:integer. It is used for all
  * subtypes of xs:integer, other than user-defined subtypes. Unlike other Saxon editions,
- * IntegerValue is implemented as a subclass of DecimalValue. This is because there is
- * no point in the optimisation whereby small integers are mapped to long, since GWT
- * emulates long using two doubles.
+ * IntegerValue is implemented as a subclass of DecimalValue. There is no point in mapping
+ * small integers to long, since GWT emulates long using two doubles; but BigDecimal is
+ * emulated too, and is far more expensive. So an integer that lies within the range of a Java
+ * int is held as an int, and the BigDecimal is only created if something asks for it. Arithmetic
+ * and comparison on two such integers is done on the ints, and the result only reverts to
+ * a BigDecimal if it overflows.
  */
 
 public class IntegerValue extends DecimalValue {
 
+    private int intVal;             // the value, if isSmall is true
+    private boolean isSmall;        // true if the value is within the range of an int
+    private BigDecimal bigValue;    // the value as a BigDecimal; created on demand if isSmall is true
+
     /**
      * IntegerValue representing the value -1
      */
@@ -64,21 +72,49 @@ public class IntegerValue extends DecimalValue {
     };
 
     public IntegerValue(int value) {
-        super(value);
+        intVal = value;
+        isSmall = true;
         typeLabel = BuiltInAtomicType.INTEGER;
     }
 
     public IntegerValue(BigDecimal value) {
-        super(value);
         if (value.scale()!=0 && value.compareTo(value.setScale(0, BigDecimal.ROUND_DOWN)) != 0) {
             throw new IllegalArgumentException("non-integral");
         }
+        if (value.compareTo(BIG_DECIMAL_MIN_INT) >= 0 && value.compareTo(BIG_DECIMAL_MAX_INT) <= 0) {
+            intVal = value.intValue();
+            isSmall = true;
+        } else {
+            bigValue = stripTrailingZeros(value);
+        }
         typeLabel = BuiltInAtomicType.INTEGER;
     }
     
     public static ConversionResult decimalToInteger(BigDecimal value) {
-    	int setScaleValue = value.setScale(0, BigDecimal.ROUND_DOWN).intValue();
-    	return new IntegerValue(setScaleValue);
+    	return new IntegerValue(value.setScale(0, BigDecimal.ROUND_DOWN));
+    }
+
+    /**
+     * Ask whether the value is held as an int, which is the case whenever it is within the range
+     * of a Java int
+     * @return true if the value is in the range of an int
+     */
+
+    public boolean isSmall() {
+        return isSmall;
+    }
+
+    /**
+     * Get the value as a BigDecimal. If the value is held as an int, the BigDecimal is created
+     * on the first call, and retained.
+     * @return the value as a BigDecimal
+     */
+
+    public BigDecimal getDecimalValue() {
+        if (bigValue == null) {
+            bigValue = BigDecimal.valueOf(intVal);
+        }
+        return bigValue;
     }
 
     /**
@@ -87,7 +123,16 @@ public class IntegerValue extends DecimalValue {
      */
 
     public int getIntValue() {
-        return getDecimalValue().intValue();
+        return isSmall ? intVal : getDecimalValue().intValue();
+    }
+
+    /**
+     * Get the value as a double
+     * @return the value as a double
+     */
+
+    public double getDoubleValue() {
+        return isSmall ? intVal : getDecimalValue().doubleValue();
     }
 
     /**
@@ -134,7 +179,13 @@ public class IntegerValue extends DecimalValue {
                     return numericError("Cannot convert string " + Err.wrap(s, Err.VALUE) + " to an integer");
                 }
             }
-            return new IntegerValue(new BigDecimal(negative ? -value : value));
+            if (negative) {
+                value = -value;
+            }
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return makeIntegerValue((int)value);
+            }
+            return new IntegerValue(new BigDecimal(value));
         } else {
             // for longer numbers, rely on library routines
             try {
@@ -183,20 +234,134 @@ public class IntegerValue extends DecimalValue {
     }
 
     /**
-     * Take modulo another integer
+     * Get the hashCode. This must conform to the rules for other NumericValue hashcodes
+     * @see NumericValue#hashCode
+     */
+
+    public int hashCode() {
+        if (isSmall && intVal != Integer.MIN_VALUE && intVal != Integer.MAX_VALUE) {
+            return intVal;
+        } else {
+            return super.hashCode();
+        }
+    }
+
+    public boolean effectiveBooleanValue() {
+        return isSmall ? intVal != 0 : super.effectiveBooleanValue();
+    }
+
+    /**
+    * Convert to target data type
+    */
+
+    public ConversionResult convertPrimitive(BuiltInAtomicType requiredType, boolean validate) {
+        if (isSmall) {
+            switch(requiredType.getFingerprint()) {
+            case StandardNames.XS_BOOLEAN:
+                return BooleanValue.get(intVal != 0);
+            case StandardNames.XS_INTEGER:
+                return this;
+            case StandardNames.XS_DOUBLE:
+                return new DoubleValue(intVal);
+            case StandardNames.XS_FLOAT:
+                return new FloatValue(intVal);
+            }
+        }
+        return super.convertPrimitive(requiredType, validate);
+    }
+
+    /**
+    * Get the value as a String
+    * @return a String representation of the value
+    */
+
+    public CharSequence getPrimitiveStringValue() {
+        return isSmall ? Integer.toString(intVal) : super.getPrimitiveStringValue();
+    }
+
+    /**
+     * Add another integer
      * @param other the other integer
-     * @return the result of the modulo operation (the remainder)
+     * @return the result of the addition
+     */
+
+    public IntegerValue plus(IntegerValue other) {
+        if (isSmall && other.isSmall) {
+            int result = intVal + other.intVal;
+            // overflow occurred if the operands have the same sign and the result has the other sign
+            if (((intVal ^ result) & (other.intVal ^ result)) >= 0) {
+                return makeIntegerValue(result);
+            }
+        }
+        return new IntegerValue(getDecimalValue().add(other.getDecimalValue()));
+    }
+
+    /**
+     * Subtract another integer
+     * @param other the other integer
+     * @return the result of the subtraction
+     */
+
+    public IntegerValue minus(IntegerValue other) {
+        if (isSmall && other.isSmall) {
+            int result = intVal - other.intVal;
+            // overflow occurred if the operands have different signs and the result has the sign of the subtrahend
+            if (((intVal ^ other.intVal) & (intVal ^ result)) >= 0) {
+                return makeIntegerValue(result);
+            }
+        }
+        return new IntegerValue(getDecimalValue().subtract(other.getDecimalValue()));
+    }
+
+    /**
+     * Multiply by another integer
+     * @param other the other integer
+     * @return the result of the multiplication
+     */
+
+    public IntegerValue times(IntegerValue other) {
+        if (isSmall && other.isSmall) {
+            // the product is computed as a double (not a long, which GWT emulates). The product
+            // of two ints is exact in a double if it lies within the range of an int.
+            double result = (double)intVal * (double)other.intVal;
+            if (result >= Integer.MIN_VALUE && result <= Integer.MAX_VALUE) {
+                return makeIntegerValue((int)result);
+            }
+        }
+        return new IntegerValue(getDecimalValue().multiply(other.getDecimalValue()));
+    }
+
+    /**
+     * Integer divide by another integer
+     * @param other the other integer
+     * @return the result of the integer division
      * @throws XPathException if the other integer is zero
      */
 
+    public IntegerValue idiv(IntegerValue other) throws XPathException {
+        if (other.signum() == 0) {
+            throw new XPathException("Integer division by zero", "FOAR0001");
+        }
+        if (isSmall && other.isSmall && !(intVal == Integer.MIN_VALUE && other.intVal == -1)) {
+            return makeIntegerValue(intVal / other.intVal);
+        }
+        return new IntegerValue(getDecimalValue().divideToIntegralValue(other.getDecimalValue()));
+    }
+
     /**
      * Take modulo another integer
-     *
-     * @throws client.net.sf.saxon.ce.trans.XPathException
-     *          if the other integer is zero
+     * @param other the other integer
+     * @return the result of the modulo operation (the remainder)
+     * @throws XPathException if the other integer is zero
      */
 
     public IntegerValue mod(IntegerValue other) throws XPathException {
+        if (isSmall && other.isSmall) {
+            if (other.intVal == 0) {
+                throw new XPathException("Integer modulo zero", "FOAR0001");
+            }
+            return makeIntegerValue(intVal % other.intVal);
+        }
         try {
             return new IntegerValue(getDecimalValue().remainder(other.getDecimalValue()));
         } catch (ArithmeticException err) {
@@ -212,7 +377,9 @@ public class IntegerValue extends DecimalValue {
 
     @Override
     public int intValue() throws XPathException {
-        if (getDecimalValue().compareTo(BIG_DECIMAL_MIN_INT) < 0 ||
+        if (isSmall) {
+            return intVal;
+        } else if (getDecimalValue().compareTo(BIG_DECIMAL_MIN_INT) < 0 ||
                getDecimalValue().compareTo(BIG_DECIMAL_MAX_INT) > 0 ) {
             throw new XPathException("int out of range");
         } else {
@@ -227,7 +394,7 @@ public class IntegerValue extends DecimalValue {
      */
 
     public NumericValue abs() {
-        if (getDecimalValue().signum() > 0) {
+        if (signum() > 0) {
             return this;
         } else {
             return negate();
@@ -239,6 +406,9 @@ public class IntegerValue extends DecimalValue {
     */
 
     public NumericValue negate() {
+        if (isSmall && intVal != Integer.MIN_VALUE) {
+            return makeIntegerValue(-intVal);
+        }
         return new IntegerValue(getDecimalValue().negate());
     }
 
@@ -259,6 +429,41 @@ public class IntegerValue extends DecimalValue {
     }
 
 
+    /**
+     * Determine whether the value is negative, zero, or positive
+     * @return -1 if negative, 0 if zero, +1 if positive
+     */
+
+    public double signum() {
+        return isSmall ? signum(intVal) : getDecimalValue().signum();
+    }
+
+    /**
+    * Compare the value to another numeric value
+    */
+
+    public int compareTo(Object other) {
+        if (isSmall && other instanceof IntegerValue && ((IntegerValue)other).isSmall) {
+            int i = ((IntegerValue)other).intVal;
+            return (intVal < i ? -1 : (intVal == i ? 0 : +1));
+        }
+        return super.compareTo(other);
+    }
+
+    /**
+     * Compare the value to a long
+     * @param other the value to be compared with
+     * @return -1 if this is less, 0 if this is equal, +1 if this is greater
+     */
+
+    public int compareTo(long other) {
+        if (isSmall && other >= Integer.MIN_VALUE && other <= Integer.MAX_VALUE) {
+            int i = (int)other;
+            return (intVal < i ? -1 : (intVal == i ? 0 : +1));
+        }
+        return super.compareTo(other);
+    }
+
     /**
      * Get the signum of an int
      * @param i the int
@@ -27,6 +27,7 @@ public class StringValue extends AtomicValue {
 
     protected CharSequence value;     // may be zero-length, will never be null
     protected boolean noSurrogates = false;
+    private int codepointLength = -1;   // the length in Unicode code points, or -1 if not yet computed
 
     /**
      * Protected constructor for use by subtypes
@@ -214,11 +215,14 @@ public class StringValue extends AtomicValue {
         if (noSurrogates) {
             return value.length();
         } else {
-            int len = getStringLength(value);
-            if (len == value.length()) {
-                noSurrogates = true;
+            if (codepointLength < 0) {
+                // computed once only: the value is immutable
+                codepointLength = getStringLength(value);
+                if (codepointLength == value.length()) {
+                    noSurrogates = true;
+                }
             }
-            return len;
+            return codepointLength;
         }
     }
 
@@ -274,7 +278,15 @@ public class StringValue extends AtomicValue {
      */
 
     public int[] expand() {
-        return expand(value);
+        int len = getStringLength();
+        if (noSurrogates) {
+            int[] array = new int[len];
+            for (int i = 0; i < len; i++) {
+                array[i] = value.charAt(i);
+            }
+            return array;
+        }
+        return expand(value, len);
     }
 
                          
@@ -285,7 +297,11 @@ public class StringValue extends AtomicValue {
      */
 
     public static int[] expand(CharSequence s) {
-        int[] array = new int[getStringLength(s)];
+        return expand(s, getStringLength(s));
+    }
+
+    private static int[] expand(CharSequence s, int codepointLength) {
+        int[] array = new int[codepointLength];
         int o = 0;
         for (int i = 0; i < s.length(); i++) {
             int charval;
@@ -0,0 +1,76 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Check that expressions calling IXSL functions are not extracted from template and function
+     bodies into global variables: each read must see the value of the window property at the time
+     of the call, and the outcome of each check is written to the page -->
+<xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:xs="http://www.w3.org/2001/XMLSchema"
+    xmlns:f="http://example.com/f"
+    xmlns:ixsl="http://saxonica.com/ns/interactiveXSLT"
+    exclude-result-prefixes="xs f ixsl"
+    version="2.0">
+
+    <xsl:template name="main">
+        <xsl:variable name="results" as="element(test)*">
+            <ixsl:set-property name="promotionCheck" select="1" object="ixsl:window()"/>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'template, first read'"/>
+                <xsl:with-param name="actual" as="xs:double">
+                    <xsl:call-template name="read"/>
+                </xsl:with-param>
+                <xsl:with-param name="expected" select="2"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'function, first read'"/>
+                <xsl:with-param name="actual" select="f:read()"/>
+                <xsl:with-param name="expected" select="'x1'"/>
+            </xsl:call-template>
+            <ixsl:set-property name="promotionCheck" select="5" object="ixsl:window()"/>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'template, second read'"/>
+                <xsl:with-param name="actual" as="xs:double">
+                    <xsl:call-template name="read"/>
+                </xsl:with-param>
+                <xsl:with-param name="expected" select="6"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'function, second read'"/>
+                <xsl:with-param name="actual" select="f:read()"/>
+                <xsl:with-param name="expected" select="'x5'"/>
+            </xsl:call-template>
+        </xsl:variable>
+        <xsl:result-document href="#summary" method="ixsl:replace-content">
+            <p>
+                <xsl:value-of select="count($results[@passed = 'true'])"/>
+                <xsl:text> of </xsl:text>
+                <xsl:value-of select="count($results)"/>
+                <xsl:text> tests passed</xsl:text>
+            </p>
+        </xsl:result-document>
+        <xsl:result-document href="#results" method="ixsl:replace-content">
+            <xsl:for-each select="$results">
+                <tr class="{if (@passed = 'true') then 'pass' else 'fail'}">
+                    <td><xsl:value-of select="@name"/></td>
+                    <td><xsl:value-of select="if (@passed = 'true') then 'pass' else 'FAIL'"/></td>
+                    <td><xsl:value-of select="@actual"/></td>
+                    <td><xsl:value-of select="@expected"/></td>
+                </tr>
+            </xsl:for-each>
+        </xsl:result-document>
+    </xsl:template>
+
+    <xsl:template name="read" as="xs:double">
+        <xsl:sequence select="ixsl:get(ixsl:window(), 'promotionCheck') + 1"/>
+    </xsl:template>
+
+    <xsl:function name="f:read" as="xs:string">
+        <xsl:sequence select="concat('x', ixsl:get(ixsl:window(), 'promotionCheck'))"/>
+    </xsl:function>
+
+    <xsl:template name="check" as="element(test)">
+        <xsl:param name="name" as="xs:string"/>
+        <xsl:param name="actual" as="xs:anyAtomicType"/>
+        <xsl:param name="expected" as="xs:anyAtomicType"/>
+        <test name="{$name}" actual="{$actual}" expected="{$expected}" passed="{$actual = $expected}"/>
+    </xsl:template>
+
+</xsl:stylesheet>
@@ -0,0 +1,139 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Smoke check for the TinyTree model: each test compares the result of navigating a document
+     read with doc() against the expected value, and the outcome is written to the page -->
+<xsl:stylesheet xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:xs="http://www.w3.org/2001/XMLSchema"
+    xmlns:x="http://example.com/x"
+    xmlns:ixsl="http://saxonica.com/ns/interactiveXSLT"
+    exclude-result-prefixes="xs x ixsl"
+    version="2.0">
+
+    <xsl:key name="book-by-year" match="book" use="@year"/>
+
+    <xsl:variable name="doc" select="doc('data.xml')"/>
+
+    <xsl:template name="main">
+        <xsl:variable name="results" as="element(test)*">
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'descendant elements'"/>
+                <xsl:with-param name="actual" select="count($doc//*)"/>
+                <xsl:with-param name="expected" select="14"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'named descendants'"/>
+                <xsl:with-param name="actual" select="string-join($doc//book/@id, ',')"/>
+                <xsl:with-param name="expected" select="'b1,b2,b3'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'child text'"/>
+                <xsl:with-param name="actual" select="string($doc//book[@id = 'b2']/author)"/>
+                <xsl:with-param name="expected" select="'Bront&#xeb;'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'string value of mixed content'"/>
+                <xsl:with-param name="actual" select="string($doc//x:note)"/>
+                <xsl:with-param name="expected" select="'Mixed content text'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'namespaced attribute'"/>
+                <xsl:with-param name="actual" select="string($doc//book[@x:rare]/@id)"/>
+                <xsl:with-param name="expected" select="'b3'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'attribute count'"/>
+                <xsl:with-param name="actual" select="count($doc//@*)"/>
+                <xsl:with-param name="expected" select="12"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'following-sibling'"/>
+                <xsl:with-param name="actual" select="string(($doc//book)[1]/following-sibling::book/@id)"/>
+                <xsl:with-param name="expected" select="'b2'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'preceding-sibling'"/>
+                <xsl:with-param name="actual" select="string($doc//shelf[2]/preceding-sibling::shelf/@id)"/>
+                <xsl:with-param name="expected" select="'s1'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'following'"/>
+                <xsl:with-param name="actual" select="string-join($doc//book[@id = 'b2']/following::title, ',')"/>
+                <xsl:with-param name="expected" select="'Don Quixote'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'preceding'"/>
+                <xsl:with-param name="actual" select="string-join($doc//book[@id = 'b3']/preceding::title, ',')"/>
+                <xsl:with-param name="expected" select="'War and Peace,Villette'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'ancestors'"/>
+                <xsl:with-param name="actual" select="string-join($doc//b/ancestor::*/name(), ',')"/>
+                <xsl:with-param name="expected" select="'library,shelf,x:note'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'comments'"/>
+                <xsl:with-param name="actual" select="string-join($doc//comment()/normalize-space(), ',')"/>
+                <xsl:with-param name="expected" select="'data for the TinyTree smoke check,reference only'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'processing instruction'"/>
+                <xsl:with-param name="actual" select="string($doc//processing-instruction('catalogue'))"/>
+                <xsl:with-param name="expected" select="'version=&quot;2&quot;'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'in-scope namespaces'"/>
+                <xsl:with-param name="actual" select="namespace-uri-for-prefix('x', ($doc//title)[1])"/>
+                <xsl:with-param name="expected" select="'http://example.com/x'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'document order'"/>
+                <xsl:with-param name="actual" select="string-join(($doc//author | $doc//title)/string(), ',')"/>
+                <xsl:with-param name="expected" select="'War and Peace,Tolstoy,Villette,Bront&#xeb;,Don Quixote,Cervantes'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'key()'"/>
+                <xsl:with-param name="actual" select="string(key('book-by-year', '1853', $doc)/title)"/>
+                <xsl:with-param name="expected" select="'Villette'"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'node identity'"/>
+                <xsl:with-param name="actual" select="($doc//shelf)[1] is ($doc//book)[1]/.."/>
+                <xsl:with-param name="expected" select="true()"/>
+            </xsl:call-template>
+            <xsl:call-template name="check">
+                <xsl:with-param name="name" select="'copy-of'"/>
+                <xsl:with-param name="actual" select="count($copy//book)"/>
+                <xsl:with-param name="expected" select="3"/>
+            </xsl:call-template>
+        </xsl:variable>
+        <xsl:result-document href="#summary" method="ixsl:replace-content">
+            <p>
+                <xsl:value-of select="count($results[@passed = 'true'])"/>
+                <xsl:text> of </xsl:text>
+                <xsl:value-of select="count($results)"/>
+                <xsl:text> tests passed</xsl:text>
+            </p>
+        </xsl:result-document>
+        <xsl:result-document href="#results" method="ixsl:replace-content">
+            <xsl:for-each select="$results">
+                <tr class="{if (@passed = 'true') then 'pass' else 'fail'}">
+                    <td><xsl:value-of select="@name"/></td>
+                    <td><xsl:value-of select="if (@passed = 'true') then 'pass' else 'FAIL'"/></td>
+                    <td><xsl:value-of select="@actual"/></td>
+                    <td><xsl:value-of select="@expected"/></td>
+                </tr>
+            </xsl:for-each>
+        </xsl:result-document>
+    </xsl:template>
+
+    <xsl:variable name="copy">
+        <xsl:copy-of select="$doc/library"/>
+    </xsl:variable>
+
+    <xsl:template name="check" as="element(test)">
+        <xsl:param name="name" as="xs:string"/>
+        <xsl:param name="actual" as="xs:anyAtomicType"/>
+        <xsl:param name="expected" as="xs:anyAtomicType"/>
+        <test name="{$name}" actual="{$actual}" expected="{$expected}" passed="{$actual = $expected}"/>
+    </xsl:template>
+
+</xsl:stylesheet>